@@ -0,0 +1,311 @@
+package it.unimol.dama;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Cache persistente dei risultati di ricerca, in un file mappato in
+ * memoria condivisibile da più processi sulla stessa macchina.
+ *
+ * <p>Il file è diviso in bucket di {@value #BUCKET_BYTES} byte, ognuno
+ * con {@value #WAYS} voci da 16 byte: la chiave (hash di
+ * {@link Zobrist}) combinata con XOR ai dati, e i dati (valore, mossa,
+ * profondità, tipo di limite). Una voce scritta a metà da un altro
+ * processo o thread non supera il controllo della chiave e viene
+ * ignorata, quindi letture e scritture non richiedono lock. In ogni
+ * bucket si sostituisce la voce della stessa posizione solo con una
+ * ricerca almeno altrettanto profonda, altrimenti la voce meno profonda.
+ *
+ * <p>I valori sono dal punto di vista del nero, come in {@link MinMax}.
+ * {@link MinMax} salva le voci nella forma canonica di {@link Symmetry},
+ * così una posizione e la sua simmetrica condividono la stessa voce.
+ * Le chiavi includono l'impronta dei pesi di valutazione correnti
+ * ({@link EvalWeights#fingerprint()}): i risultati calcolati con pesi
+ * diversi non vengono trovati. Il file usa l'ordine dei byte della
+ * macchina e non è portabile.
+ *
+ * <p>La cache usata da {@link MinMax} si indica con la proprietà di
+ * sistema {@value #CACHE_PROPERTY} (dimensione in MiB con
+ * {@value #SIZE_PROPERTY}, predefinita {@value #DEFAULT_MEGABYTES}),
+ * oppure con {@link #setShared}.
+ */
+public final class AnalysisCache implements Closeable {
+
+    /** Proprietà di sistema con il percorso del file della cache. */
+    public static final String CACHE_PROPERTY = "dama.cache";
+
+    /** Proprietà di sistema con la dimensione della cache in MiB. */
+    public static final String SIZE_PROPERTY = "dama.cache.size";
+
+    /** Dimensione predefinita in MiB. */
+    public static final int DEFAULT_MEGABYTES = 64;
+
+    /** Numero magico dell'intestazione ("DAC1"). */
+    public static final int MAGIC = 0x44414331;
+
+    /** Limite: valore esatto. */
+    public static final int EXACT = 0;
+
+    /** Limite: il valore vero è almeno quello salvato. */
+    public static final int LOWER = 1;
+
+    /** Limite: il valore vero è al più quello salvato. */
+    public static final int UPPER = 2;
+
+    /** Voci per bucket. */
+    private static final int WAYS = 4;
+
+    /** Byte di un bucket (una linea di cache). */
+    private static final int BUCKET_BYTES = WAYS * 2 * Long.BYTES;
+
+    /** Byte dell'intestazione (magico e numero di bucket). */
+    private static final int HEADER_BYTES = BUCKET_BYTES;
+
+    /** Numero massimo di bucket (file di 1 GiB). */
+    private static final int MAX_BUCKETS = 1 << 24;
+
+    /** Profondità massima rappresentabile. */
+    private static final int MAX_DEPTH = 0xFF;
+
+    /** Bit che distingue una voce occupata da una vuota. */
+    private static final long VALID = 1L << 62;
+
+    /** Accesso atomico ai long del file mappato. */
+    private static final VarHandle LONGS = MethodHandles
+            .byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /** Cache condivisa usata da {@link MinMax}, o null. */
+    private static volatile AnalysisCache shared = openConfigured();
+
+    /** Canale del file. */
+    private final FileChannel channel;
+
+    /** File mappato in lettura e scrittura. */
+    private final MappedByteBuffer map;
+
+    /** Maschera per ricavare il bucket dall'hash. */
+    private final long bucketMask;
+
+    /** Impronta dei pesi di valutazione, combinata con le chiavi. */
+    private final long salt = EvalWeights.current().fingerprint();
+
+    /**
+     * Apre la cache, creando il file se non esiste. Se il file esiste
+     * già viene usata la sua dimensione.
+     *
+     * @param file      percorso del file
+     * @param megabytes dimensione desiderata in MiB (arrotondata per
+     *                  difetto a una potenza di due di bucket)
+     * @throws IOException se il file non è accessibile o non è una cache
+     */
+    public AnalysisCache(final Path file, final int megabytes)
+            throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long buckets;
+            // il lock serve solo a non inizializzare il file due volte
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                        .order(ByteOrder.nativeOrder());
+                if (channel.size() >= HEADER_BYTES) {
+                    channel.read(header, 0);
+                    if (header.getInt(0) != MAGIC) {
+                        throw new IOException("Non è una cache: " + file);
+                    }
+                    buckets = header.getLong(8);
+                } else {
+                    buckets = Long.highestOneBit(Math.max(1,
+                            Math.min(MAX_BUCKETS, (long) megabytes
+                                    * (1 << 20) / BUCKET_BYTES)));
+                    header.putInt(0, MAGIC).putLong(8, buckets);
+                    channel.write(header, 0);
+                    // estende il file: le voci nuove sono a zero (vuote)
+                    channel.write(ByteBuffer.allocate(1),
+                            HEADER_BYTES + buckets * BUCKET_BYTES - 1);
+                }
+            } finally {
+                lock.release();
+            }
+            if (Long.bitCount(buckets) != 1 || buckets > MAX_BUCKETS) {
+                throw new IOException("Cache danneggiata: " + file);
+            }
+            bucketMask = buckets - 1;
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_BYTES + buckets * BUCKET_BYTES);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Restituisce la cache condivisa usata da {@link MinMax}.
+     *
+     * @return cache, o null se non configurata
+     */
+    public static AnalysisCache shared() {
+        return shared;
+    }
+
+    /**
+     * Imposta la cache condivisa usata da {@link MinMax}.
+     *
+     * @param cache cache da usare, o null per disattivarla
+     */
+    public static void setShared(final AnalysisCache cache) {
+        shared = cache;
+    }
+
+    /**
+     * Cerca la posizione nella cache.
+     *
+     * @param hash hash di {@link Zobrist} della posizione
+     * @return dati della voce (da leggere con {@link #score},
+     *         {@link #move}, {@link #depth}, {@link #bound}), o 0 se
+     *         assente
+     */
+    public long probe(final long hash) {
+        long key = hash ^ salt;
+        int base = bucketOffset(key);
+        for (int i = 0; i < WAYS; i++) {
+            int at = base + i * 2 * Long.BYTES;
+            long data = (long) LONGS.getOpaque(map, at + Long.BYTES);
+            long check = (long) LONGS.getOpaque(map, at);
+            if ((data & VALID) != 0 && (check ^ data) == key) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Salva il risultato di una ricerca.
+     *
+     * @param hash  hash di {@link Zobrist} della posizione
+     * @param depth profondità della ricerca
+     * @param score valore dal punto di vista del nero
+     * @param bound {@link #EXACT}, {@link #LOWER} o {@link #UPPER}
+     * @param move  mossa migliore in forma compatta, o 0
+     */
+    public void store(final long hash, final int depth, final int score,
+                      final int bound, final short move) {
+        int d = Math.min(depth, MAX_DEPTH);
+        long data = VALID | (long) bound << 56 | (long) d << 48
+                | (move & 0xFFFFL) << 32 | (score & 0xFFFFFFFFL);
+
+        long key = hash ^ salt;
+        int base = bucketOffset(key);
+        int victim = -1;
+        int victimDepth = Integer.MAX_VALUE;
+        for (int i = 0; i < WAYS; i++) {
+            int at = base + i * 2 * Long.BYTES;
+            long old = (long) LONGS.getOpaque(map, at + Long.BYTES);
+            long check = (long) LONGS.getOpaque(map, at);
+            if ((old & VALID) != 0 && (check ^ old) == key) {
+                if (depth(old) > d) {
+                    return;
+                }
+                victim = at;
+                break;
+            }
+            int oldDepth = (old & VALID) == 0 ? -1 : depth(old);
+            if (oldDepth < victimDepth) {
+                victimDepth = oldDepth;
+                victim = at;
+            }
+        }
+        LONGS.setOpaque(map, victim + Long.BYTES, data);
+        LONGS.setOpaque(map, victim, key ^ data);
+    }
+
+    /**
+     * Restituisce il valore salvato nella voce.
+     *
+     * @param data dati restituiti da {@link #probe}
+     * @return valore dal punto di vista del nero
+     */
+    public static int score(final long data) {
+        return (int) data;
+    }
+
+    /**
+     * Restituisce la mossa salvata nella voce.
+     *
+     * @param data dati restituiti da {@link #probe}
+     * @return mossa in forma compatta, o 0
+     */
+    public static short move(final long data) {
+        return (short) (data >>> 32);
+    }
+
+    /**
+     * Restituisce la profondità salvata nella voce.
+     *
+     * @param data dati restituiti da {@link #probe}
+     * @return profondità della ricerca
+     */
+    public static int depth(final long data) {
+        return (int) (data >>> 48) & MAX_DEPTH;
+    }
+
+    /**
+     * Restituisce il tipo di limite salvato nella voce.
+     *
+     * @param data dati restituiti da {@link #probe}
+     * @return {@link #EXACT}, {@link #LOWER} o {@link #UPPER}
+     */
+    public static int bound(final long data) {
+        return (int) (data >>> 56) & 0x3;
+    }
+
+    /**
+     * Restituisce la posizione nel file del bucket della chiave.
+     *
+     * @param key chiave della posizione
+     * @return posizione del primo byte del bucket
+     */
+    private int bucketOffset(final long key) {
+        return HEADER_BYTES + (int) (key & bucketMask) * BUCKET_BYTES;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (shared == this) {
+            shared = null;
+        }
+        channel.close();
+    }
+
+    /**
+     * Apre la cache indicata dalle proprietà di sistema; in caso di
+     * errore la ricerca procede senza cache.
+     *
+     * @return cache configurata, o null
+     */
+    private static AnalysisCache openConfigured() {
+        String configured = System.getProperty(CACHE_PROPERTY);
+        if (configured == null) {
+            return null;
+        }
+        try {
+            return new AnalysisCache(Paths.get(configured),
+                    Integer.getInteger(SIZE_PROPERTY, DEFAULT_MEGABYTES));
+        } catch (IOException e) {
+            System.err.println("Impossibile aprire la cache " + configured
+                    + ": " + e.getMessage() + " (ricerca senza cache)");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,684 @@
+package it.unimol.dama;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Analisi in parallelo di grandi insiemi di posizioni, ad esempio per
+ * cercare gli errori nelle partite di un {@link GameArchive}.
+ *
+ * <p>Le posizioni vengono lette una alla volta dall'iteratore di
+ * ingresso e distribuite a un gruppo di thread; ogni thread riusa il
+ * proprio {@link SearchState}. I risultati sono pubblicati come
+ * {@link Flow.Publisher} nell'ordine in cui le analisi terminano, con un
+ * buffer limitato: se il consumatore è lento i thread si fermano.
+ *
+ * <p>Se è indicato un file di checkpoint, ogni risultato vi viene
+ * scritto prima di essere pubblicato; rilanciando l'analisi con lo
+ * stesso file le posizioni già presenti vengono saltate, e i loro
+ * risultati si rileggono con {@link #readCheckpoint}.
+ *
+ * <p>Uso: {@code BatchAnalyzer <archivio.dga> <checkpoint> [profondità]
+ * [thread]}.
+ */
+public final class BatchAnalyzer {
+
+    /** Numero magico del file di checkpoint ("DBA1"). */
+    public static final int MAGIC = 0x44424131;
+
+    /** Byte dell'intestazione del checkpoint (magico e profondità). */
+    private static final int HEADER_BYTES = 8;
+
+    /** Byte di ogni risultato nel checkpoint. */
+    private static final int RECORD_BYTES = 24;
+
+    /** Bit della semimossa negli identificativi di {@link #positions}. */
+    public static final int PLY_BITS = 16;
+
+    /** Mossa assente (posizione senza mosse legali). */
+    public static final short NO_MOVE = 0;
+
+    /** Profondità di ricerca predefinita da riga di comando. */
+    private static final int DEFAULT_DEPTH = 6;
+
+    /** Risultati tra un messaggio di avanzamento e il successivo. */
+    private static final int PROGRESS_EVERY = 10_000;
+
+    /** Profondità di ricerca di ogni posizione. */
+    private final int depth;
+
+    /** Numero di thread di analisi. */
+    private final int threads;
+
+    /** File di checkpoint, o null. */
+    private final Path checkpoint;
+
+    /** Risultati in attesa per ogni consumatore lento. */
+    private final int bufferSize;
+
+    /**
+     * Crea un analizzatore.
+     *
+     * @param depthArg      profondità di ricerca
+     * @param threadsArg    numero di thread di analisi
+     * @param checkpointArg file di checkpoint, o null per non salvarli
+     */
+    public BatchAnalyzer(final int depthArg, final int threadsArg,
+                         final Path checkpointArg) {
+        this(depthArg, threadsArg, checkpointArg, Flow.defaultBufferSize());
+    }
+
+    /**
+     * Crea un analizzatore con un buffer dei risultati di dimensione data.
+     *
+     * @param depthArg      profondità di ricerca
+     * @param threadsArg    numero di thread di analisi
+     * @param checkpointArg file di checkpoint, o null per non salvarli
+     * @param bufferSizeArg risultati pubblicati e non ancora consumati
+     */
+    public BatchAnalyzer(final int depthArg, final int threadsArg,
+                         final Path checkpointArg, final int bufferSizeArg) {
+        if (depthArg < 1 || threadsArg < 1 || bufferSizeArg < 1) {
+            throw new IllegalArgumentException(
+                    "Profondità, thread e buffer devono essere positivi");
+        }
+        this.depth = depthArg;
+        this.threads = threadsArg;
+        this.checkpoint = checkpointArg;
+        this.bufferSize = bufferSizeArg;
+    }
+
+    /**
+     * Prepara l'analisi delle posizioni. Il lavoro inizia quando un
+     * consumatore si iscrive; è ammesso un solo consumatore.
+     *
+     * @param jobs posizioni da analizzare, con identificativi distinti
+     * @return editore dei risultati, in ordine di completamento
+     */
+    public Flow.Publisher<Result> analyze(final Iterator<Job> jobs) {
+        return new Analysis(jobs);
+    }
+
+    /**
+     * Restituisce le posizioni delle partite dell'archivio, prima di
+     * ogni mossa giocata. L'identificativo è
+     * {@code partita << PLY_BITS | semimossa}; le partite con una mossa
+     * illegale vengono interrotte a quella mossa.
+     *
+     * @param archive archivio delle partite
+     * @return iteratore delle posizioni
+     */
+    public static Iterator<Job> positions(final GameArchive archive) {
+        return new ArchivePositions(archive);
+    }
+
+    /**
+     * Legge i risultati salvati in un checkpoint.
+     *
+     * @param file file di checkpoint
+     * @return risultati nell'ordine di scrittura
+     * @throws IOException se il file non è leggibile o non è un checkpoint
+     */
+    public static List<Result> readCheckpoint(final Path file)
+            throws IOException {
+        List<Result> results = new ArrayList<>();
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(
+                     new BufferedInputStream(raw))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Non è un checkpoint: " + file);
+            }
+            in.readInt();
+            while (true) {
+                Result r;
+                try {
+                    r = Result.read(in);
+                } catch (EOFException e) {
+                    // eventuale ultimo risultato scritto a metà
+                    break;
+                }
+                results.add(r);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Analizza le posizioni sui thread e pubblica i risultati.
+     *
+     * @param jobs      posizioni da analizzare
+     * @param publisher editore dei risultati
+     */
+    private void run(final Iterator<Job> jobs,
+                     final SubmissionPublisher<Result> publisher) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (Checkpoint log = checkpoint == null ? null
+                : new Checkpoint(checkpoint, depth)) {
+            Set<Long> done = log == null ? new HashSet<>() : log.done;
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(pool.submit(() -> {
+                    work(jobs, done, log, publisher);
+                    return null;
+                }));
+            }
+            for (Future<?> f : workers) {
+                f.get();
+            }
+            publisher.close();
+        } catch (ExecutionException e) {
+            publisher.closeExceptionally(e.getCause());
+        } catch (IOException e) {
+            publisher.closeExceptionally(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            publisher.closeExceptionally(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Ciclo di un thread di analisi: prende posizioni finché ce ne sono
+     * e qualcuno ne consuma i risultati.
+     *
+     * @param jobs      posizioni da analizzare
+     * @param done      identificativi già presenti nel checkpoint
+     * @param log       checkpoint, o null
+     * @param publisher editore dei risultati
+     * @throws IOException in caso di errore di scrittura del checkpoint
+     */
+    private void work(final Iterator<Job> jobs, final Set<Long> done,
+                      final Checkpoint log,
+                      final SubmissionPublisher<Result> publisher)
+            throws IOException {
+        SearchState state = new SearchState();
+        Job job;
+        while (!publisher.isClosed() && publisher.hasSubscribers()
+                && (job = next(jobs, done)) != null) {
+            state.reset();
+            Move best = MinMax.search(job.board, job.whiteTurn, depth, state);
+            Result result = new Result(job.id,
+                    best == null || !best.isEncodable() ? NO_MOVE
+                            : best.encode(), state.getScore(),
+                    state.getCompletedDepth(), state.getNodes());
+            if (log != null) {
+                log.append(result);
+            }
+            // si blocca se il buffer del consumatore è pieno
+            publisher.submit(result);
+        }
+    }
+
+    /**
+     * Restituisce la prossima posizione non ancora analizzata.
+     *
+     * @param jobs posizioni da analizzare
+     * @param done identificativi già presenti nel checkpoint
+     * @return posizione, o null se sono finite
+     */
+    private static Job next(final Iterator<Job> jobs, final Set<Long> done) {
+        synchronized (jobs) {
+            while (jobs.hasNext()) {
+                Job job = jobs.next();
+                if (!done.contains(job.id)) {
+                    return job;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Punto d'ingresso da riga di comando: analizza tutte le posizioni
+     * di un archivio salvando i risultati nel checkpoint.
+     *
+     * @param args archivio, checkpoint, profondità e thread opzionali
+     * @throws IOException in caso di errore di lettura o scrittura
+     * @throws InterruptedException se l'attesa viene interrotta
+     */
+    public static void main(final String[] args)
+            throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Uso: BatchAnalyzer <archivio.dga> "
+                    + "<checkpoint> [profondità] [thread]");
+            return;
+        }
+        int depth = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_DEPTH;
+        int threads = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+        BatchAnalyzer analyzer = new BatchAnalyzer(depth, threads,
+                Paths.get(args[1]));
+
+        long start = System.nanoTime();
+        AtomicLong count = new AtomicLong();
+        AtomicLong nodes = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch finished = new CountDownLatch(1);
+
+        try (GameArchive archive = new GameArchive(Paths.get(args[0]))) {
+            analyzer.analyze(positions(archive)).subscribe(
+                    new Flow.Subscriber<Result>() {
+                        @Override
+                        public void onSubscribe(final Flow.Subscription s) {
+                            s.request(Long.MAX_VALUE);
+                        }
+
+                        @Override
+                        public void onNext(final Result r) {
+                            nodes.addAndGet(r.nodes);
+                            if (count.incrementAndGet() % PROGRESS_EVERY == 0) {
+                                System.err.println(count.get()
+                                        + " posizioni analizzate");
+                            }
+                        }
+
+                        @Override
+                        public void onError(final Throwable t) {
+                            failure.set(t);
+                            finished.countDown();
+                        }
+
+                        @Override
+                        public void onComplete() {
+                            finished.countDown();
+                        }
+                    });
+            finished.await();
+        }
+
+        if (failure.get() != null) {
+            throw new IOException("Analisi fallita", failure.get());
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println(count.get() + " posizioni, " + nodes.get()
+                + " nodi in " + millis + " ms");
+    }
+
+    /**
+     * Posizione da analizzare.
+     */
+    public static final class Job {
+
+        /** Identificativo della posizione. */
+        private final long id;
+
+        /** Scacchiera, usata solo in lettura. */
+        private final Board board;
+
+        /** True se tocca al bianco. */
+        private final boolean whiteTurn;
+
+        /**
+         * Crea una posizione da analizzare.
+         *
+         * @param idArg        identificativo, unico nell'analisi
+         * @param boardArg     scacchiera (non viene modificata)
+         * @param whiteTurnArg true se tocca al bianco
+         */
+        public Job(final long idArg, final Board boardArg,
+                   final boolean whiteTurnArg) {
+            this.id = idArg;
+            this.board = boardArg;
+            this.whiteTurn = whiteTurnArg;
+        }
+
+        /**
+         * Restituisce l'identificativo della posizione.
+         *
+         * @return identificativo
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Restituisce la scacchiera.
+         *
+         * @return scacchiera della posizione
+         */
+        public Board getBoard() {
+            return board;
+        }
+
+        /**
+         * Indica se tocca al bianco.
+         *
+         * @return true se tocca al bianco
+         */
+        public boolean isWhiteTurn() {
+            return whiteTurn;
+        }
+    }
+
+    /**
+     * Risultato dell'analisi di una posizione.
+     */
+    public static final class Result {
+
+        /** Identificativo della posizione. */
+        private final long id;
+
+        /** Mossa migliore in forma compatta, o {@link #NO_MOVE}. */
+        private final short move;
+
+        /** Valore della mossa dal punto di vista del nero. */
+        private final int score;
+
+        /** Profondità completata. */
+        private final int depth;
+
+        /** Nodi visitati. */
+        private final long nodes;
+
+        /**
+         * Crea un risultato.
+         *
+         * @param idArg    identificativo della posizione
+         * @param moveArg  mossa migliore in forma compatta
+         * @param scoreArg valore dal punto di vista del nero
+         * @param depthArg profondità completata
+         * @param nodesArg nodi visitati
+         */
+        Result(final long idArg, final short moveArg, final int scoreArg,
+               final int depthArg, final long nodesArg) {
+            this.id = idArg;
+            this.move = moveArg;
+            this.score = scoreArg;
+            this.depth = depthArg;
+            this.nodes = nodesArg;
+        }
+
+        /**
+         * Legge un risultato dal checkpoint.
+         *
+         * @param in flusso di ingresso
+         * @return risultato letto
+         * @throws IOException in caso di errore di lettura
+         */
+        static Result read(final DataInputStream in) throws IOException {
+            long id = in.readLong();
+            long nodes = in.readLong();
+            int score = in.readInt();
+            short move = in.readShort();
+            int depth = in.readUnsignedShort();
+            return new Result(id, move, score, depth, nodes);
+        }
+
+        /**
+         * Scrive il risultato nel checkpoint ({@value #RECORD_BYTES} byte).
+         *
+         * @param out flusso di uscita
+         * @throws IOException in caso di errore di scrittura
+         */
+        void write(final DataOutputStream out) throws IOException {
+            out.writeLong(id);
+            out.writeLong(nodes);
+            out.writeInt(score);
+            out.writeShort(move);
+            out.writeShort(depth);
+        }
+
+        /**
+         * Restituisce l'identificativo della posizione.
+         *
+         * @return identificativo
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Restituisce la mossa migliore in forma compatta
+         * (vedi {@link Move#encode()}).
+         *
+         * @return codice della mossa, o {@link #NO_MOVE} se non ci sono
+         *         mosse o la migliore non ha un codice compatto
+         */
+        public short getMove() {
+            return move;
+        }
+
+        /**
+         * Restituisce il valore della mossa dal punto di vista del nero.
+         *
+         * @return valore della mossa migliore
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * Restituisce la profondità completata.
+         *
+         * @return profondità
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Restituisce i nodi visitati.
+         *
+         * @return numero di nodi
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + (move == NO_MOVE ? "-"
+                    : PdnWriter.moveText(move)) + " " + score
+                    + " d" + depth + " " + nodes + "n";
+        }
+    }
+
+    /**
+     * Editore dei risultati di un'analisi: avvia il lavoro alla prima
+     * iscrizione e rifiuta le successive.
+     */
+    private final class Analysis implements Flow.Publisher<Result> {
+
+        /** Posizioni da analizzare. */
+        private final Iterator<Job> jobs;
+
+        /** True dopo la prima iscrizione. */
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        /**
+         * Crea l'editore.
+         *
+         * @param jobsArg posizioni da analizzare
+         */
+        Analysis(final Iterator<Job> jobsArg) {
+            this.jobs = jobsArg;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super Result> s) {
+            SubmissionPublisher<Result> publisher = new SubmissionPublisher<>(
+                    ForkJoinPool.commonPool(), bufferSize);
+            publisher.subscribe(s);
+            if (!started.compareAndSet(false, true)) {
+                publisher.closeExceptionally(new IllegalStateException(
+                        "L'analisi ammette un solo consumatore"));
+                return;
+            }
+            Thread coordinator = new Thread(() -> run(jobs, publisher),
+                    "dama-batch");
+            coordinator.setDaemon(true);
+            coordinator.start();
+        }
+    }
+
+    /**
+     * File di checkpoint aperto in accodamento.
+     */
+    private static final class Checkpoint implements Closeable {
+
+        /** Identificativi dei risultati già salvati. */
+        private final Set<Long> done = new HashSet<>();
+
+        /** Flusso di uscita. */
+        private final DataOutputStream out;
+
+        /**
+         * Apre (o crea) il checkpoint, legge i risultati presenti e
+         * scarta un eventuale ultimo risultato incompleto.
+         *
+         * @param file  percorso del checkpoint
+         * @param depth profondità dell'analisi
+         * @throws IOException se il file appartiene a un'analisi con
+         *                     profondità diversa o non è leggibile
+         */
+        Checkpoint(final Path file, final int depth) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                long size = channel.size();
+                if (size < HEADER_BYTES) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    header.putInt(MAGIC).putInt(depth).flip();
+                    channel.truncate(0);
+                    while (header.hasRemaining()) {
+                        channel.write(header, header.position());
+                    }
+                    size = HEADER_BYTES;
+                } else {
+                    for (Result r : readCheckpoint(file)) {
+                        done.add(r.id);
+                    }
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    channel.read(header, 0);
+                    if (header.getInt(4) != depth) {
+                        throw new IOException("Checkpoint a profondità "
+                                + header.getInt(4) + ", richiesta " + depth
+                                + ": " + file);
+                    }
+                    size -= (size - HEADER_BYTES) % RECORD_BYTES;
+                    channel.truncate(size);
+                }
+                channel.position(size);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+        }
+
+        /**
+         * Salva un risultato.
+         *
+         * @param result risultato da salvare
+         * @throws IOException in caso di errore di scrittura
+         */
+        synchronized void append(final Result result) throws IOException {
+            result.write(out);
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Iteratore delle posizioni delle partite di un archivio.
+     */
+    private static final class ArchivePositions implements Iterator<Job> {
+
+        /** Archivio delle partite. */
+        private final GameArchive archive;
+
+        /** Mosse della partita corrente. */
+        private final short[] moves = new short[GameArchive.MAX_PLIES];
+
+        /** Partita corrente. */
+        private long game = -1;
+
+        /** Semimosse della partita corrente. */
+        private int plies;
+
+        /** Semimossa della prossima posizione. */
+        private int ply;
+
+        /** Controller della partita corrente. */
+        private Controller controller;
+
+        /**
+         * Crea l'iteratore.
+         *
+         * @param archiveArg archivio delle partite
+         */
+        ArchivePositions(final GameArchive archiveArg) {
+            this.archive = archiveArg;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (ply >= plies) {
+                if (game + 1 >= archive.size()) {
+                    return false;
+                }
+                game++;
+                plies = archive.moves(game, moves);
+                ply = 0;
+                controller = new Controller(archive.getVariant());
+            }
+            return true;
+        }
+
+        @Override
+        public Job next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Job job = new Job(game << PLY_BITS | ply,
+                    controller.getBoard().clone(), controller.isWhiteTurn());
+
+            Move move = Move.decode(moves[ply], controller
+                    .getAllPossibleMoves(controller.isWhiteTurn()));
+            if (move == null || !controller.makeMove(move)) {
+                // partita corrotta: si analizza fin qui
+                plies = ply + 1;
+            }
+            ply++;
+            return job;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package it.unimol.dama;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Banco di prova del motore: ricerche a profondità fissa su un insieme
+ * prefissato di posizioni, per controllare in pochi secondi ogni build.
+ *
+ * <p>La somma dei nodi visitati è la firma del comportamento della
+ * ricerca: con gli stessi pesi e le stesse regole non cambia tra
+ * esecuzioni e macchine diverse. Se la firma differisce da
+ * {@link #EXPECTED_SIGNATURE} la ricerca (generazione delle mosse,
+ * ordinamento, potatura o valutazione) è cambiata: se la modifica è
+ * voluta, si aggiorna la costante con il nuovo valore stampato. Tempo
+ * totale e nodi al secondo servono a notare i peggioramenti di velocità.
+ *
+ * <p>La firma vale per i pesi predefiniti ({@link EvalWeights#defaults()})
+ * e senza {@link AnalysisCache}, che durante il banco di prova viene
+ * disattivata. Uso: {@code java -cp target/classes it.unimol.dama.Bench};
+ * il codice di uscita è 1 se la firma non corrisponde.
+ */
+public final class Bench {
+
+    /** Nodi totali attesi con i pesi predefiniti. */
+    public static final long EXPECTED_SIGNATURE = 878_253L;
+
+    /**
+     * Posizioni di prova: variante, seme delle mosse casuali, semimosse
+     * giocate dalla posizione iniziale e profondità della ricerca.
+     */
+    private static final Object[][] SUITE = {
+        {Variant.CLASSIC, 1L, 0, 9},
+        {Variant.CLASSIC, 2L, 6, 9},
+        {Variant.CLASSIC, 3L, 12, 9},
+        {Variant.CLASSIC, 4L, 18, 9},
+        {Variant.CLASSIC, 5L, 24, 9},
+        {Variant.CLASSIC, 6L, 30, 10},
+        {Variant.CLASSIC, 7L, 40, 10},
+        {Variant.CLASSIC, 28L, 44, 11},
+        {Variant.INTERNATIONAL, 11L, 0, 7},
+        {Variant.INTERNATIONAL, 12L, 10, 7},
+        {Variant.INTERNATIONAL, 13L, 20, 7},
+        {Variant.INTERNATIONAL, 14L, 30, 7},
+        {Variant.INTERNATIONAL, 15L, 45, 8},
+        {Variant.INTERNATIONAL, 16L, 60, 8},
+    };
+
+    /** Costruttore privato: classe di utilità con soli metodi statici. */
+    private Bench() {
+        // no instances
+    }
+
+    /**
+     * Esegue il banco di prova e confronta la firma con quella attesa.
+     *
+     * @param args non usati
+     */
+    public static void main(final String[] args) {
+        long signature = run(System.out);
+        if (signature != EXPECTED_SIGNATURE) {
+            System.out.println("Firma diversa: attesa " + EXPECTED_SIGNATURE
+                    + ", ottenuta " + signature);
+            System.exit(1);
+        }
+        System.out.println("Firma corretta");
+    }
+
+    /**
+     * Esegue le ricerche del banco di prova, stampando una riga per
+     * posizione e il riepilogo.
+     *
+     * @param out flusso su cui stampare i risultati
+     * @return firma: somma dei nodi visitati
+     */
+    public static long run(final PrintStream out) {
+        if (EvalWeights.current().fingerprint()
+                != EvalWeights.defaults().fingerprint()) {
+            System.err.println("Attenzione: pesi diversi dai predefiniti, "
+                    + "la firma non è confrontabile");
+        }
+        AnalysisCache cache = AnalysisCache.shared();
+        AnalysisCache.setShared(null);
+        try {
+            long nodes = 0;
+            long nanos = 0;
+            SearchState state = new SearchState();
+            for (int i = 0; i < SUITE.length; i++) {
+                Variant variant = (Variant) SUITE[i][0];
+                int depth = (Integer) SUITE[i][3];
+                Controller game = position(variant, (Long) SUITE[i][1],
+                        (Integer) SUITE[i][2]);
+
+                state.reset();
+                long start = System.nanoTime();
+                Move best = MinMax.search(game.getPosition(), depth, state);
+                long elapsed = System.nanoTime() - start;
+                nodes += state.getNodes();
+                nanos += elapsed;
+                out.printf("%2d %-13s ply %3d d%-2d %-8s %6d %10d nodi%n",
+                        i + 1, variant, game.getPly(), depth, best,
+                        state.getScore(), state.getNodes());
+            }
+            long millis = Math.max(1, nanos / 1_000_000);
+            out.println("Nodi: " + nodes + "  Tempo: " + millis + " ms  NPS: "
+                    + nodes * 1000 / millis);
+            return nodes;
+        } finally {
+            AnalysisCache.setShared(cache);
+        }
+    }
+
+    /**
+     * Costruisce una posizione di prova giocando mosse casuali
+     * riproducibili dalla posizione iniziale.
+     *
+     * @param variant variante
+     * @param seed    seme delle mosse casuali
+     * @param plies   semimosse da giocare (meno se la partita finisce)
+     * @return controller nella posizione di prova
+     */
+    private static Controller position(final Variant variant, final long seed,
+                                       final int plies) {
+        Controller game = new Controller(variant);
+        Random random = new Random(seed);
+        for (int ply = 0; ply < plies; ply++) {
+            List<Move> moves = game.getAllPossibleMoves(game.isWhiteTurn());
+            if (moves.isEmpty()) {
+                break;
+            }
+            game.makeMove(moves.get(random.nextInt(moves.size())));
+        }
+        return game;
+    }
+}
@@ -0,0 +1,369 @@
+package it.unimol.dama;
+
+import java.util.List;
+
+/**
+ * Generatore di mosse a maschere di bit per la dama internazionale.
+ *
+ * <p>La posizione è compattata in tre {@code long} (bianco, nero, dame)
+ * con un bit per casella giocabile. Le mosse delle dame volanti si
+ * ricavano dalle semidiagonali precalcolate di {@link Variant}: il primo
+ * pezzo incontrato è il bit più basso (o più alto) dell'intersezione con
+ * le caselle occupate, senza scorrere la diagonale casella per casella.
+ *
+ * <p>Le prese multiple sono esplorate in profondità come in
+ * {@link CaptureGenerator}: il pezzo viene sollevato dalla casella di
+ * partenza, i pezzi catturati restano sulla scacchiera fino alla fine
+ * della sequenza e una pila preallocata ne tiene traccia.
+ *
+ * <p>Un'istanza non è thread-safe: {@link Move} ne usa una per thread.
+ */
+final class Bitboard {
+
+    /** Variante della posizione caricata. */
+    private Variant variant;
+
+    /** Caselle occupate dal bianco. */
+    private long white;
+
+    /** Caselle occupate dal nero. */
+    private long black;
+
+    /** Caselle occupate da dame. */
+    private long kings;
+
+    /** Caselle occupate durante una sequenza (pezzo mosso escluso). */
+    private long occupied;
+
+    /** Pezzi avversari del pezzo che cattura. */
+    private long enemy;
+
+    /** Pezzi catturati lungo il percorso corrente. */
+    private long capturedMask;
+
+    /** Pila delle caselle catturate lungo il percorso corrente. */
+    private final byte[] stack = new byte[Variant.MAX_SQUARES];
+
+    /** Profondità corrente della pila. */
+    private int depth;
+
+    /** Casella di partenza del pezzo che cattura. */
+    private int origin;
+
+    /** True se il pezzo che cattura è una dama. */
+    private boolean king;
+
+    /** Lista di destinazione. */
+    private List<Move> out;
+
+    /** Indice della prima mossa prodotta per il pezzo corrente. */
+    private int firstOut;
+
+    /**
+     * Carica la posizione della scacchiera nelle maschere.
+     *
+     * @param board scacchiera
+     */
+    void load(final Board board) {
+        variant = board.getVariant();
+        white = 0;
+        black = 0;
+        kings = 0;
+        for (int sq = 0; sq < variant.getSquares(); sq++) {
+            Piece p = board.getPiece(variant.squareRow(sq),
+                    variant.squareCol(sq));
+            if (p != null) {
+                long bit = 1L << sq;
+                if (p.isWhite()) {
+                    white |= bit;
+                } else {
+                    black |= bit;
+                }
+                if (p.isKing()) {
+                    kings |= bit;
+                }
+            }
+        }
+    }
+
+    /**
+     * Salva la scacchiera in tre maschere consecutive: pezzi bianchi,
+     * neri e dame.
+     *
+     * @param board scacchiera
+     * @param out   array di destinazione
+     * @param at    posizione della prima maschera
+     */
+    static void pack(final Board board, final long[] out, final int at) {
+        Bitboard masks = new Bitboard();
+        masks.load(board);
+        out[at] = masks.white;
+        out[at + 1] = masks.black;
+        out[at + 2] = masks.kings;
+    }
+
+    /**
+     * Ricostruisce la scacchiera dalle maschere salvate con {@link #pack}.
+     *
+     * @param variant variante della scacchiera
+     * @param in      array delle maschere
+     * @param at      posizione della prima maschera
+     * @return nuova scacchiera
+     */
+    static Board unpack(final Variant variant, final long[] in,
+                        final int at) {
+        Board board = new Board(variant);
+        long white = in[at];
+        long black = in[at + 1];
+        long kings = in[at + 2];
+        for (int sq = 0; sq < variant.getSquares(); sq++) {
+            long bit = 1L << sq;
+            Piece p = null;
+            if (((white | black) & bit) != 0) {
+                p = new Piece((white & bit) != 0);
+                if ((kings & bit) != 0) {
+                    p.crown();
+                }
+            }
+            board.setPiece(variant.squareRow(sq), variant.squareCol(sq), p);
+        }
+        return board;
+    }
+
+    /**
+     * Accoda le mosse legali del colore indicato: se esistono catture,
+     * solo quelle che prendono il numero massimo di pezzi.
+     *
+     * @param forWhite true per il bianco
+     * @param moves    lista di destinazione
+     */
+    void generateLegal(final boolean forWhite, final List<Move> moves) {
+        int first = moves.size();
+        long own = forWhite ? white : black;
+
+        for (long m = own; m != 0; m &= m - 1) {
+            captures(Long.numberOfTrailingZeros(m), forWhite, moves);
+        }
+
+        if (moves.size() > first) {
+            keepLongestCaptures(moves, first);
+            return;
+        }
+
+        for (long m = own; m != 0; m &= m - 1) {
+            quietMoves(Long.numberOfTrailingZeros(m), forWhite, moves);
+        }
+    }
+
+    /**
+     * Accoda tutte le mosse del pezzo sulla casella indicata, senza
+     * applicare l'obbligo di presa.
+     *
+     * @param square casella giocabile del pezzo
+     * @param moves  lista di destinazione
+     */
+    void generatePiece(final int square, final List<Move> moves) {
+        long bit = 1L << square;
+        if (((white | black) & bit) == 0) {
+            return;
+        }
+        boolean forWhite = (white & bit) != 0;
+        quietMoves(square, forWhite, moves);
+        captures(square, forWhite, moves);
+    }
+
+    /**
+     * Accoda le mosse semplici del pezzo.
+     *
+     * @param sq       casella del pezzo
+     * @param forWhite colore del pezzo
+     * @param moves    lista di destinazione
+     */
+    private void quietMoves(final int sq, final boolean forWhite,
+                            final List<Move> moves) {
+        long occ = white | black;
+
+        if ((kings & 1L << sq) != 0) {
+            for (int dir = 0; dir < 4; dir++) {
+                long ray = variant.ray(dir, sq);
+                long blockers = ray & occ;
+                long targets = ray;
+                if (blockers != 0) {
+                    int b = nearest(dir, blockers);
+                    targets &= ~(1L << b | variant.ray(dir, b));
+                }
+                for (long t = targets; t != 0; t &= t - 1) {
+                    addQuiet(sq, Long.numberOfTrailingZeros(t), moves);
+                }
+            }
+            return;
+        }
+
+        int firstDir = forWhite ? Variant.UP_LEFT : Variant.DOWN_LEFT;
+        for (int dir = firstDir; dir < firstDir + 2; dir++) {
+            int to = variant.neighbor(dir, sq);
+            if (to >= 0 && (occ & 1L << to) == 0) {
+                addQuiet(sq, to, moves);
+            }
+        }
+    }
+
+    /**
+     * Accoda una mossa semplice.
+     *
+     * @param from  casella di partenza
+     * @param to    casella di arrivo
+     * @param moves lista di destinazione
+     */
+    private void addQuiet(final int from, final int to,
+                          final List<Move> moves) {
+        moves.add(new Move(variant, variant.squareRow(from),
+                variant.squareCol(from), variant.squareRow(to),
+                variant.squareCol(to)));
+    }
+
+    /**
+     * Accoda tutte le sequenze di cattura del pezzo.
+     *
+     * @param sq       casella del pezzo
+     * @param forWhite colore del pezzo
+     * @param moves    lista di destinazione
+     */
+    private void captures(final int sq, final boolean forWhite,
+                          final List<Move> moves) {
+        origin = sq;
+        king = (kings & 1L << sq) != 0;
+        occupied = (white | black) & ~(1L << sq);
+        enemy = forWhite ? black : white;
+        capturedMask = 0;
+        depth = 0;
+        out = moves;
+        firstOut = moves.size();
+        try {
+            extend(sq);
+        } finally {
+            out = null;
+        }
+    }
+
+    /**
+     * Prova a prolungare la sequenza di cattura dalla casella indicata.
+     *
+     * @param sq casella corrente del pezzo
+     */
+    private void extend(final int sq) {
+        boolean extended = false;
+
+        for (int dir = 0; dir < 4; dir++) {
+            int taken;
+            long landings;
+
+            if (king) {
+                long blockers = variant.ray(dir, sq) & occupied;
+                if (blockers == 0) {
+                    continue;
+                }
+                taken = nearest(dir, blockers);
+                long beyond = variant.ray(dir, taken);
+                long next = beyond & occupied;
+                landings = beyond;
+                if (next != 0) {
+                    int n = nearest(dir, next);
+                    landings &= ~(1L << n | variant.ray(dir, n));
+                }
+            } else {
+                taken = variant.neighbor(dir, sq);
+                if (taken < 0) {
+                    continue;
+                }
+                int land = variant.neighbor(dir, taken);
+                landings = land < 0 || (occupied & 1L << land) != 0
+                        ? 0 : 1L << land;
+            }
+
+            long takenBit = 1L << taken;
+            if ((enemy & takenBit) == 0 || (capturedMask & takenBit) != 0
+                    || landings == 0) {
+                continue;
+            }
+
+            stack[depth++] = (byte) taken;
+            capturedMask |= takenBit;
+            for (long l = landings; l != 0; l &= l - 1) {
+                extend(Long.numberOfTrailingZeros(l));
+            }
+            capturedMask &= ~takenBit;
+            depth--;
+            extended = true;
+        }
+
+        if (!extended && depth > 0) {
+            emit(sq);
+        }
+    }
+
+    /**
+     * Produce la mossa della sequenza corrente, se non è un doppione.
+     *
+     * @param end casella di arrivo
+     */
+    private void emit(final int end) {
+        int endRow = variant.squareRow(end);
+        int endCol = variant.squareCol(end);
+        int alternative = 0;
+        for (int i = firstOut; i < out.size(); i++) {
+            Move m = out.get(i);
+            if (m.getEndRow() == endRow && m.getEndCol() == endCol) {
+                if (m.getCapturedMask() == capturedMask) {
+                    return;
+                }
+                alternative++;
+            }
+        }
+        byte[] captured = new byte[depth];
+        System.arraycopy(stack, 0, captured, 0, depth);
+        out.add(new Move(variant, variant.squareRow(origin),
+                variant.squareCol(origin), endRow, endCol, captured,
+                capturedMask, alternative));
+    }
+
+    /**
+     * Lascia nella lista, da {@code first} in poi, solo le catture
+     * con il numero massimo di pezzi presi.
+     *
+     * @param moves lista delle mosse
+     * @param first prima cattura della lista
+     */
+    private static void keepLongestCaptures(final List<Move> moves,
+                                            final int first) {
+        int best = 0;
+        for (int i = first; i < moves.size(); i++) {
+            best = Math.max(best, moves.get(i).getCapturedCount());
+        }
+        int kept = first;
+        for (int i = first; i < moves.size(); i++) {
+            Move m = moves.get(i);
+            if (m.getCapturedCount() == best) {
+                moves.set(kept++, m);
+            }
+        }
+        while (moves.size() > kept) {
+            moves.remove(moves.size() - 1);
+        }
+    }
+
+    /**
+     * Restituisce la casella più vicina tra quelle della maschera,
+     * lungo la direzione indicata.
+     *
+     * @param dir  direzione
+     * @param mask caselle su una stessa semidiagonale
+     * @return indice della casella più vicina
+     */
+    private static int nearest(final int dir, final long mask) {
+        // verso il basso gli indici crescono, verso l'alto decrescono
+        return dir >= Variant.DOWN_LEFT
+                ? Long.numberOfTrailingZeros(mask)
+                : 63 - Long.numberOfLeadingZeros(mask);
+    }
+}
@@ -5,7 +5,7 @@ package it.unimol.dama;
  */
 public class Board {
     /**
-     * Dimensione della scacchiera (8x8).
+     * Dimensione della scacchiera classica (8x8).
      */
     public static final int SIZE = 8;
 
@@ -14,30 +14,67 @@ public class Board {
      */
     public static final int START_SIZE = 3;
 
+    /**
+     * Numero di caselle scure (giocabili) della scacchiera classica.
+     */
+    public static final int PLAYABLE_SQUARES = SIZE * SIZE / 2;
+
     /**
      * Matrice dei pezzi presenti sulla scacchiera.
      */
     private Piece[][] board;
 
     /**
-     * Costruttore che inizializza la scacchiera.
+     * Variante di gioco della scacchiera.
+     */
+    private final Variant variant;
+
+    /**
+     * Lato della scacchiera, copiato dalla variante.
+     */
+    private final int size;
+
+    /**
+     * Costruttore che inizializza la scacchiera classica.
      */
     public Board() {
-        board = new Piece[SIZE][SIZE];
+        this(Variant.CLASSIC);
+    }
+
+    /**
+     * Costruttore che inizializza la scacchiera della variante indicata.
+     *
+     * @param variantArg variante di gioco
+     */
+    public Board(final Variant variantArg) {
+        this(variantArg, new Piece[variantArg.getSize()][variantArg.getSize()]);
         initializeBoard();
     }
 
+    /**
+     * Costruttore che usa la matrice indicata senza inizializzarla.
+     *
+     * @param variantArg variante di gioco
+     * @param boardArg   matrice dei pezzi
+     */
+    private Board(final Variant variantArg, final Piece[][] boardArg) {
+        variant = variantArg;
+        size = variantArg.getSize();
+        board = boardArg;
+    }
+
     /**
      * Inizializza la scacchiera posizionando le pedine nei posti iniziali.
      */
     public void initializeBoard() {
         // Posiziona le pedine sulla scacchiera
-        for (int row = 0; row < SIZE; row++) {
-            for (int col = 0; col < SIZE; col++) {
+        int startRows = variant.getStartRows();
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
                 if ((row + col) % 2 == 1) {
-                    if (row < START_SIZE) {
+                    if (row < startRows) {
                         board[row][col] = new Piece(false); // Nero
-                    } else if (row > SIZE - START_SIZE) {
+                    } else if (row >= size - startRows) {
                         board[row][col] = new Piece(true);  // Bianco
                     }
                 }
@@ -53,11 +90,10 @@ public class Board {
      */
     @Override
     public Board clone() {
-        Board newBoard = new Board();
-        newBoard.board = new Piece[SIZE][SIZE];
+        Board newBoard = new Board(variant, new Piece[size][size]);
 
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
                 if (board[i][j] != null) {
                     newBoard.board[i][j] = board[i][j].clone();
                 }
@@ -75,7 +111,7 @@ public class Board {
      *         o null se la posizione è fuori dai limiti o vuota.
      */
     public Piece getPiece(final int row, final int col) {
-        if (row < 0 || row >= SIZE || col < 0 || col >= SIZE) {
+        if (row < 0 || row >= size || col < 0 || col >= size) {
             return null;
         }
         return board[row][col];
@@ -89,11 +125,66 @@ public class Board {
      * @param piece Il pezzo da posizionare.
      */
     public void setPiece(final int row, final int col, final Piece piece) {
-        if (row >= 0 && row < SIZE && col >= 0 && col < SIZE) {
+        if (row >= 0 && row < size && col >= 0 && col < size) {
             board[row][col] = piece;
         }
     }
 
+    /**
+     * Esegue la mossa sulla scacchiera, senza verificarne la legalità:
+     * sposta il pezzo, rimuove i pezzi catturati e promuove a dama la
+     * pedina che raggiunge l'ultima riga.
+     *
+     * @param move     mossa da eseguire
+     * @param captured array in cui salvare i pezzi rimossi, nell'ordine
+     *                 della mossa (almeno {@link Move#getCapturedCount()}
+     *                 elementi), per poterla disfare
+     * @return true se il pezzo è stato promosso
+     */
+    public boolean applyMove(final Move move, final Piece[] captured) {
+        Piece piece = board[move.getStartRow()][move.getStartCol()];
+        board[move.getStartRow()][move.getStartCol()] = null;
+        board[move.getEndRow()][move.getEndCol()] = piece;
+
+        for (int i = 0; i < move.getCapturedCount(); i++) {
+            int sq = move.getCapturedSquare(i);
+            int row = variant.squareRow(sq);
+            int col = variant.squareCol(sq);
+            captured[i] = board[row][col];
+            board[row][col] = null;
+        }
+
+        int lastRow = piece.isWhite() ? 0 : size - 1;
+        if (!piece.isKing() && move.getEndRow() == lastRow) {
+            piece.crown();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Disfa una mossa eseguita con {@link #applyMove}.
+     *
+     * @param move     mossa da disfare
+     * @param captured pezzi salvati da {@link #applyMove}
+     * @param promoted valore restituito da {@link #applyMove}
+     */
+    public void undoMove(final Move move, final Piece[] captured,
+                         final boolean promoted) {
+        Piece piece = board[move.getEndRow()][move.getEndCol()];
+        board[move.getEndRow()][move.getEndCol()] = null;
+        board[move.getStartRow()][move.getStartCol()] = piece;
+
+        for (int i = 0; i < move.getCapturedCount(); i++) {
+            int sq = move.getCapturedSquare(i);
+            board[variant.squareRow(sq)][variant.squareCol(sq)] = captured[i];
+        }
+
+        if (promoted) {
+            piece.uncrown();
+        }
+    }
+
     /**
      * Restituisce la scacchiera attuale.
      *
@@ -102,4 +193,57 @@ public class Board {
     public Piece[][] getBoard() {
         return board;
     }
+
+    /**
+     * Restituisce la variante di gioco della scacchiera.
+     *
+     * @return variante
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Restituisce il lato della scacchiera.
+     *
+     * @return numero di righe (e colonne)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Restituisce l'indice (0..PLAYABLE_SQUARES-1) della casella scura
+     * in (row, col) della scacchiera classica, numerata per righe a
+     * partire dall'alto. Per le altre varianti si usa
+     * {@link Variant#squareIndex}.
+     *
+     * @param row riga della casella
+     * @param col colonna della casella
+     * @return indice della casella giocabile
+     */
+    public static int squareIndex(final int row, final int col) {
+        return row * (SIZE / 2) + col / 2;
+    }
+
+    /**
+     * Restituisce la riga della casella giocabile indicata.
+     *
+     * @param square indice della casella giocabile
+     * @return riga corrispondente
+     */
+    public static int squareRow(final int square) {
+        return square / (SIZE / 2);
+    }
+
+    /**
+     * Restituisce la colonna della casella giocabile indicata.
+     *
+     * @param square indice della casella giocabile
+     * @return colonna corrispondente
+     */
+    public static int squareCol(final int square) {
+        int row = squareRow(square);
+        return 2 * (square % (SIZE / 2)) + (row % 2 == 0 ? 1 : 0);
+    }
 }
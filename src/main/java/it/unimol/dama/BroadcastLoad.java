@@ -0,0 +1,272 @@
+package it.unimol.dama;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generatore di carico per {@link GameBroadcast}: una partita con mosse
+ * casuali seguita da molti spettatori simulati nello stesso processo.
+ *
+ * <p>Gli spettatori veloci chiedono un evento alla volta appena hanno
+ * elaborato il precedente; quelli lenti ne chiedono uno ogni
+ * {@value #SLOW_PERIOD_MILLIS} ms e quindi restano indietro e ricevono
+ * istantanee. Alla fine stampa il tempo del thread di gioco per mossa
+ * (che non deve crescere con gli spettatori), gli eventi consegnati al
+ * secondo, le istantanee e la latenza degli spettatori veloci.
+ *
+ * <p>Uso: {@code BroadcastLoad [spettatori] [mosse] [lenti%]
+ * [intervallo µs]}.
+ */
+public final class BroadcastLoad {
+
+    /** Spettatori predefiniti. */
+    private static final int DEFAULT_VIEWERS = 10_000;
+
+    /** Mosse predefinite. */
+    private static final int DEFAULT_MOVES = 5_000;
+
+    /** Percentuale predefinita di spettatori lenti. */
+    private static final int DEFAULT_SLOW_PERCENT = 10;
+
+    /** Intervallo predefinito tra due mosse in microsecondi. */
+    private static final int DEFAULT_INTERVAL_MICROS = 200;
+
+    /** Periodo delle richieste degli spettatori lenti. */
+    private static final long SLOW_PERIOD_MILLIS = 50;
+
+    /** Attesa massima per lo smaltimento finale. */
+    private static final long DRAIN_MILLIS = 2_000;
+
+    /** Fasce dell'istogramma delle latenze (potenze di due in µs). */
+    private static final int LATENCY_BUCKETS = 24;
+
+    /** Costruttore privato: classe di utilità con soli metodi statici. */
+    private BroadcastLoad() {
+        // no instances
+    }
+
+    /**
+     * Esegue la prova di carico e stampa i risultati.
+     *
+     * @param args spettatori, mosse, percentuale di lenti e intervallo
+     *             tra le mosse in microsecondi, tutti opzionali
+     * @throws InterruptedException se l'attesa viene interrotta
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        int viewers = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_VIEWERS;
+        int moves = args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_MOVES;
+        int slowPercent = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_SLOW_PERCENT;
+        long interval = TimeUnit.MICROSECONDS.toNanos(args.length > 3
+                ? Integer.parseInt(args[3]) : DEFAULT_INTERVAL_MICROS);
+
+        // istante di pubblicazione di ogni sequenza, per la latenza
+        long[] sentAt = new long[2 * moves + 2 * moves / 8 + 16];
+        AtomicLongArray latency = new AtomicLongArray(LATENCY_BUCKETS);
+        LongAdder received = new LongAdder();
+        ScheduledExecutorService timer =
+                Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "dama-load-timer");
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        GameBroadcast broadcast = new GameBroadcast();
+        int slow = viewers * slowPercent / 100;
+        for (int i = 0; i < viewers; i++) {
+            broadcast.subscribe(i < slow ? new SlowViewer(timer, received)
+                    : new FastViewer(sentAt, latency, received));
+        }
+
+        Random random = new Random(1);
+        Controller game = new Controller();
+        game.setBroadcast(broadcast);
+        long gameNanos = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < moves; i++) {
+            List<Move> legal = game.getAllPossibleMoves(game.isWhiteTurn());
+            if (legal.isEmpty()) {
+                game = new Controller();
+                game.setBroadcast(broadcast);
+                continue;
+            }
+            long next = broadcast.getSequence() + 1;
+            long t = System.nanoTime();
+            if (next + 1 < sentAt.length) {
+                sentAt[(int) next] = t;
+                sentAt[(int) next + 1] = t;
+            }
+            game.makeMove(legal.get(random.nextInt(legal.size())));
+            gameNanos += System.nanoTime() - t;
+            if (interval > 0) {
+                LockSupport.parkNanos(interval);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+        long expected = (broadcast.getSequence() + 1) * (viewers - slow);
+        while (received.sum() < expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        broadcast.close();
+        timer.shutdownNow();
+
+        long delivered = broadcast.getDelivered();
+        System.out.printf("%d spettatori (%d lenti), %d eventi in %d ms%n",
+                viewers, slow, broadcast.getSequence() + 1,
+                elapsed / 1_000_000);
+        System.out.printf("Thread di gioco: %.1f us per mossa%n",
+                gameNanos / 1000.0 / moves);
+        System.out.printf("Consegnati: %d (%.0f al secondo), istantanee: %d%n",
+                delivered, delivered * 1e9 / elapsed,
+                broadcast.getSnapshots());
+        System.out.println("Latenza spettatori veloci: p50 < "
+                + percentile(latency, 0.5) + " us, p99 < "
+                + percentile(latency, 0.99) + " us");
+    }
+
+    /**
+     * Calcola un percentile approssimato dall'istogramma.
+     *
+     * @param histogram conteggi per fascia
+     * @param fraction  frazione richiesta (0..1)
+     * @return limite superiore della fascia in microsecondi
+     */
+    private static long percentile(final AtomicLongArray histogram,
+                                   final double fraction) {
+        long total = 0;
+        for (int i = 0; i < histogram.length(); i++) {
+            total += histogram.get(i);
+        }
+        long seen = 0;
+        for (int i = 0; i < histogram.length(); i++) {
+            seen += histogram.get(i);
+            if (seen >= total * fraction) {
+                return 1L << i;
+            }
+        }
+        return 1L << histogram.length();
+    }
+
+    /**
+     * Spettatore che chiede un evento alla volta e misura la latenza.
+     */
+    private static final class FastViewer
+            implements Flow.Subscriber<ByteBuffer> {
+
+        /** Istante di pubblicazione per sequenza. */
+        private final long[] sentAt;
+
+        /** Istogramma delle latenze. */
+        private final AtomicLongArray latency;
+
+        /** Eventi ricevuti da tutti gli spettatori. */
+        private final LongAdder received;
+
+        /** Iscrizione. */
+        private Flow.Subscription subscription;
+
+        /**
+         * Crea lo spettatore.
+         *
+         * @param sentAtArg   istanti di pubblicazione
+         * @param latencyArg  istogramma delle latenze
+         * @param receivedArg contatore degli eventi ricevuti
+         */
+        FastViewer(final long[] sentAtArg, final AtomicLongArray latencyArg,
+                   final LongAdder receivedArg) {
+            this.sentAt = sentAtArg;
+            this.latency = latencyArg;
+            this.received = receivedArg;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription s) {
+            subscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(final ByteBuffer frame) {
+            long sequence = GameBroadcast.sequence(frame);
+            long sent = sequence < sentAt.length ? sentAt[(int) sequence] : 0;
+            if (GameBroadcast.type(frame) != GameBroadcast.SNAPSHOT
+                    && sent != 0) {
+                long micros = (System.nanoTime() - sent) / 1000;
+                int bucket = 64 - Long.numberOfLeadingZeros(micros);
+                latency.incrementAndGet(Math.min(bucket, LATENCY_BUCKETS - 1));
+            }
+            received.increment();
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            System.err.println("Spettatore interrotto: " + t);
+        }
+
+        @Override
+        public void onComplete() {
+            // fine della prova
+        }
+    }
+
+    /**
+     * Spettatore che chiede un evento a intervalli fissi, più lentamente
+     * di quanto vengano giocate le mosse.
+     */
+    private static final class SlowViewer
+            implements Flow.Subscriber<ByteBuffer> {
+
+        /** Timer delle richieste. */
+        private final ScheduledExecutorService timer;
+
+        /** Eventi ricevuti da tutti gli spettatori. */
+        private final LongAdder received;
+
+        /**
+         * Crea lo spettatore.
+         *
+         * @param timerArg    timer delle richieste
+         * @param receivedArg contatore degli eventi ricevuti
+         */
+        SlowViewer(final ScheduledExecutorService timerArg,
+                   final LongAdder receivedArg) {
+            this.timer = timerArg;
+            this.received = receivedArg;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription s) {
+            timer.scheduleAtFixedRate(() -> s.request(1), 0,
+                    SLOW_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onNext(final ByteBuffer frame) {
+            received.increment();
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            System.err.println("Spettatore interrotto: " + t);
+        }
+
+        @Override
+        public void onComplete() {
+            // fine della prova
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package it.unimol.dama;
+
+import java.util.List;
+
+/**
+ * Generatore delle sequenze di cattura (prese multiple).
+ *
+ * <p>Esplora i salti in profondità spostando il pezzo sulla scacchiera
+ * e riportandolo indietro al ritorno, senza copiare la scacchiera. I
+ * pezzi catturati restano al loro posto fino alla fine della sequenza
+ * (non possono essere saltati due volte né usati come casella di
+ * arrivo) e sono tenuti in una pila preallocata. Ogni sequenza completa
+ * diventa una sola {@link Move}; le sequenze equivalenti (stesso arrivo,
+ * stessi pezzi catturati in ordine diverso) vengono scartate
+ * confrontandole con le mosse già prodotte, senza strutture di appoggio.
+ *
+ * <p>Segue le regole della dama classica (pedine che catturano solo in
+ * avanti, dame di un passo, promozione che conclude la presa); la dama
+ * internazionale usa {@link Bitboard}.
+ *
+ * <p>Un'istanza non è thread-safe: {@link Move} ne usa una per thread.
+ */
+final class CaptureGenerator {
+
+    /** Direzioni delle colonne. */
+    private static final int[] DIR_COLS = {-1, 1};
+
+    /** Pila delle caselle catturate lungo il percorso corrente. */
+    private final byte[] stack = new byte[Variant.MAX_SQUARES];
+
+    /** Profondità corrente della pila. */
+    private int depth;
+
+    /** Caselle catturate lungo il percorso corrente, come maschera. */
+    private long capturedMask;
+
+    /** Scacchiera esplorata. */
+    private Board board;
+
+    /** Pezzo che cattura. */
+    private Piece piece;
+
+    /** Riga di partenza del pezzo. */
+    private int startRow;
+
+    /** Colonna di partenza del pezzo. */
+    private int startCol;
+
+    /** Lista di destinazione. */
+    private List<Move> out;
+
+    /** Indice della prima mossa prodotta per il pezzo corrente. */
+    private int firstOut;
+
+    /**
+     * Accoda tutte le sequenze di cattura del pezzo in (row, col).
+     *
+     * @param boardArg scacchiera
+     * @param row      riga del pezzo
+     * @param col      colonna del pezzo
+     * @param outArg   lista di destinazione
+     */
+    void generate(final Board boardArg, final int row, final int col,
+                  final List<Move> outArg) {
+        board = boardArg;
+        piece = board.getPiece(row, col);
+        if (piece == null) {
+            return;
+        }
+        startRow = row;
+        startCol = col;
+        out = outArg;
+        firstOut = out.size();
+        depth = 0;
+        capturedMask = 0;
+
+        // il pezzo viene sollevato: la casella di partenza è libera
+        board.setPiece(row, col, null);
+        try {
+            extend(row, col);
+        } finally {
+            board.setPiece(row, col, piece);
+            board = null;
+            piece = null;
+            out = null;
+        }
+    }
+
+    /**
+     * Prova a prolungare la sequenza dalla casella (row, col).
+     *
+     * @param row riga corrente del pezzo
+     * @param col colonna corrente del pezzo
+     */
+    private void extend(final int row, final int col) {
+        // il pezzo stesso, o null sulla casella di partenza già liberata
+        Piece here = board.getPiece(row, col);
+        boolean extended = false;
+        int forward = piece.isWhite() ? -1 : 1;
+
+        for (int r = 0; r < 2; r++) {
+            int dr = r == 0 ? forward : -forward;
+            if (dr != forward && !piece.isKing()) {
+                break;
+            }
+            for (int dc : DIR_COLS) {
+                int midRow = row + dr;
+                int midCol = col + dc;
+                int newRow = row + 2 * dr;
+                int newCol = col + 2 * dc;
+
+                if (!canJump(midRow, midCol, newRow, newCol)) {
+                    continue;
+                }
+
+                int mid = board.getVariant().squareIndex(midRow, midCol);
+                stack[depth++] = (byte) mid;
+                capturedMask |= 1L << mid;
+                // il pezzo lascia la casella, come quella di partenza
+                board.setPiece(row, col, null);
+                board.setPiece(newRow, newCol, piece);
+
+                if (!piece.isKing() && isPromotionRow(newRow)) {
+                    // la promozione conclude la mossa
+                    emit(newRow, newCol);
+                } else {
+                    extend(newRow, newCol);
+                }
+
+                board.setPiece(newRow, newCol, null);
+                board.setPiece(row, col, here);
+                capturedMask &= ~(1L << mid);
+                depth--;
+                extended = true;
+            }
+        }
+
+        if (!extended && depth > 0) {
+            emit(row, col);
+        }
+    }
+
+    /**
+     * Verifica se il pezzo può saltare il pezzo in (midRow, midCol)
+     * atterrando in (newRow, newCol).
+     *
+     * @param midRow riga del pezzo da catturare
+     * @param midCol colonna del pezzo da catturare
+     * @param newRow riga di arrivo
+     * @param newCol colonna di arrivo
+     * @return true se il salto è possibile
+     */
+    private boolean canJump(final int midRow, final int midCol,
+                            final int newRow, final int newCol) {
+        if (newRow < 0 || newRow >= board.getSize()
+                || newCol < 0 || newCol >= board.getSize()) {
+            return false;
+        }
+        if (board.getPiece(newRow, newCol) != null) {
+            return false;
+        }
+        Piece middle = board.getPiece(midRow, midCol);
+        if (middle == null || middle.isWhite() == piece.isWhite()) {
+            return false;
+        }
+        return (capturedMask
+                & 1L << board.getVariant().squareIndex(midRow, midCol)) == 0;
+    }
+
+    /**
+     * Indica se la riga è quella di promozione del pezzo che cattura.
+     *
+     * @param row riga di arrivo
+     * @return true se il pezzo verrebbe promosso
+     */
+    private boolean isPromotionRow(final int row) {
+        return piece.isWhite() ? row == 0 : row == board.getSize() - 1;
+    }
+
+    /**
+     * Produce la mossa della sequenza corrente, se non è un doppione.
+     *
+     * @param endRow riga di arrivo
+     * @param endCol colonna di arrivo
+     */
+    private void emit(final int endRow, final int endCol) {
+        int alternative = 0;
+        for (int i = firstOut; i < out.size(); i++) {
+            Move m = out.get(i);
+            if (m.getEndRow() == endRow && m.getEndCol() == endCol) {
+                if (m.getCapturedMask() == capturedMask) {
+                    return;
+                }
+                alternative++;
+            }
+        }
+        byte[] captured = new byte[depth];
+        System.arraycopy(stack, 0, captured, 0, depth);
+        out.add(new Move(board.getVariant(), startRow, startCol, endRow,
+                endCol, captured, capturedMask, alternative));
+    }
+}
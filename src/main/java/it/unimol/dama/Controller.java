@@ -1,23 +1,85 @@
 package it.unimol.dama;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Gestisce la logica della partita e coordina le regole di gioco.
+ *
+ * <p>La cronologia delle mosse permette di annullarle e ripeterle. Ogni
+ * semimossa è salvata come differenza compatta di due {@code long} (caselle
+ * di partenza e di arrivo, pezzi catturati e quali di essi erano dame,
+ * promozione), senza copie della scacchiera.
+ *
+ * <p>Il controller va usato da un solo thread. Gli altri thread (analisi,
+ * spettatori) leggono la posizione con {@link #getPosition()}: dopo ogni
+ * mossa, annullamento o ripetizione viene pubblicata una nuova
+ * {@link Position} immutabile tramite un riferimento {@code volatile}.
+ * Con {@link #setBroadcast} gli stessi cambiamenti vengono diffusi agli
+ * spettatori.
  */
 public class Controller {
 
+    /** Posizione della casella di partenza nella prima parola del delta. */
+    private static final int FROM_SHIFT = 50;
+
+    /** Posizione della casella di arrivo nella prima parola del delta. */
+    private static final int TO_SHIFT = 56;
+
+    /** Bit di promozione nella prima parola del delta. */
+    private static final long PROMOTED = 1L << 62;
+
+    /** Posizione del numero di alternativa nella seconda parola del delta. */
+    private static final int ALTERNATIVE_SHIFT = 56;
+
+    /** Maschera delle caselle giocabili in una parola del delta. */
+    private static final long SQUARES_MASK = (1L << FROM_SHIFT) - 1;
+
     /** Scacchiera corrente. */
     private Board board;
 
     /** Indica se è il turno del bianco. */
     private boolean whiteTurn; // true: bianco, false: nero
 
+    /**
+     * Delta delle semimosse, due parole per semimossa: caselle catturate,
+     * partenza, arrivo e promozione; dame catturate e alternativa.
+     */
+    private long[] deltas = new long[2 * 64];
+
+    /** Semimosse giocate fino alla posizione corrente. */
+    private int ply;
+
+    /** Semimosse in cronologia, comprese quelle annullate ripetibili. */
+    private int plies;
+
+    /** Ultima posizione pubblicata, leggibile da qualsiasi thread. */
+    private volatile Position position;
+
+    /** Diffusione della partita agli spettatori, o null. */
+    private GameBroadcast broadcast;
+
+    /** Hash delle posizioni fino a quella corrente, per le patte. */
+    private final PositionHistory history;
+
     /** Crea un controller con scacchiera inizializzata e turno al bianco. */
     public Controller() {
-        board = new Board();
+        this(Variant.CLASSIC);
+    }
+
+    /**
+     * Crea un controller per la variante indicata, con scacchiera
+     * inizializzata e turno al bianco.
+     *
+     * @param variant variante di gioco
+     */
+    public Controller(final Variant variant) {
+        board = new Board(variant);
         whiteTurn = true;
+        position = Position.of(board, whiteTurn, ply);
+        history = new PositionHistory(board, whiteTurn);
     }
 
     /**
@@ -29,6 +91,217 @@ public class Controller {
         return board;
     }
 
+    /**
+     * Restituisce le mosse giocate dall'inizio della partita fino alla
+     * posizione corrente (escluse quelle annullate).
+     *
+     * @return lista non modificabile delle mosse, in ordine di gioco
+     */
+    public List<Move> getMoveHistory() {
+        List<Move> moves = new ArrayList<>(ply);
+        for (int i = 0; i < ply; i++) {
+            moves.add(moveAt(i));
+        }
+        return Collections.unmodifiableList(moves);
+    }
+
+    /**
+     * Restituisce il numero di semimosse giocate fino alla posizione
+     * corrente.
+     *
+     * @return semimossa corrente
+     */
+    public int getPly() {
+        return ply;
+    }
+
+    /**
+     * Restituisce il numero di semimosse in cronologia, comprese quelle
+     * annullate che si possono ripetere.
+     *
+     * @return lunghezza della cronologia
+     */
+    public int getHistorySize() {
+        return plies;
+    }
+
+    /**
+     * Indica se c'è una mossa da annullare.
+     *
+     * @return true se la posizione corrente non è quella iniziale
+     */
+    public boolean canUndo() {
+        return ply > 0;
+    }
+
+    /**
+     * Indica se c'è una mossa annullata da ripetere.
+     *
+     * @return true se la cronologia prosegue oltre la posizione corrente
+     */
+    public boolean canRedo() {
+        return ply < plies;
+    }
+
+    /**
+     * Annulla l'ultima mossa giocata.
+     *
+     * @return true se una mossa è stata annullata
+     */
+    public boolean undo() {
+        if (ply == 0) {
+            return false;
+        }
+        undoStep();
+        publishPosition();
+        return true;
+    }
+
+    /**
+     * Annulla l'ultima mossa giocata senza pubblicare la posizione.
+     */
+    private void undoStep() {
+        ply--;
+        long first = deltas[2 * ply];
+        long second = deltas[2 * ply + 1];
+        Move move = moveAt(ply);
+
+        // i pezzi catturati sono del colore di chi non ha mosso
+        boolean capturedWhite = !board.getPiece(
+                move.getEndRow(), move.getEndCol()).isWhite();
+        Piece[] captured = new Piece[move.getCapturedCount()];
+        for (int i = 0; i < captured.length; i++) {
+            captured[i] = new Piece(capturedWhite);
+            if ((second & 1L << move.getCapturedSquare(i)) != 0) {
+                captured[i].crown();
+            }
+        }
+        board.undoMove(move, captured, (first & PROMOTED) != 0);
+        history.pop();
+        switchTurn();
+    }
+
+    /**
+     * Ripete l'ultima mossa annullata.
+     *
+     * @return true se una mossa è stata ripetuta
+     */
+    public boolean redo() {
+        if (ply == plies) {
+            return false;
+        }
+        redoStep();
+        publishPosition();
+        return true;
+    }
+
+    /**
+     * Ripete l'ultima mossa annullata senza pubblicare la posizione.
+     */
+    private void redoStep() {
+        Move move = moveAt(ply);
+        Piece[] captured = new Piece[move.getCapturedCount()];
+        history.push(board, move, board.applyMove(move, captured), captured);
+        ply++;
+        switchTurn();
+    }
+
+    /**
+     * Pubblica la posizione corrente sulla diffusione, se collegata.
+     */
+    private void publishPosition() {
+        if (broadcast != null) {
+            broadcast.positionChanged(position);
+        }
+    }
+
+    /**
+     * Porta la partita alla semimossa indicata, annullando o ripetendo
+     * le mosse della cronologia. Gli spettatori ricevono solo la
+     * posizione finale.
+     *
+     * @param target semimossa da raggiungere (0 per la posizione iniziale)
+     * @throws IllegalArgumentException se la semimossa non è in cronologia
+     */
+    public void goToPly(final int target) {
+        if (target < 0 || target > plies) {
+            throw new IllegalArgumentException(
+                    "Semimossa fuori dalla cronologia: " + target);
+        }
+        if (target == ply) {
+            return;
+        }
+        while (ply > target) {
+            undoStep();
+        }
+        while (ply < target) {
+            redoStep();
+        }
+        publishPosition();
+    }
+
+    /**
+     * Ricostruisce la mossa della semimossa indicata dal suo delta.
+     *
+     * @param index semimossa (da 0)
+     * @return mossa corrispondente
+     */
+    private Move moveAt(final int index) {
+        long first = deltas[2 * index];
+        long second = deltas[2 * index + 1];
+        Variant variant = board.getVariant();
+        int from = (int) (first >>> FROM_SHIFT) & Move.CODE_SQUARE_MASK;
+        int to = (int) (first >>> TO_SHIFT) & Move.CODE_SQUARE_MASK;
+        long mask = first & SQUARES_MASK;
+
+        if (mask == 0) {
+            return new Move(variant, variant.squareRow(from),
+                    variant.squareCol(from), variant.squareRow(to),
+                    variant.squareCol(to));
+        }
+        byte[] captured = new byte[Long.bitCount(mask)];
+        int i = 0;
+        for (long m = mask; m != 0; m &= m - 1) {
+            captured[i++] = (byte) Long.numberOfTrailingZeros(m);
+        }
+        return new Move(variant, variant.squareRow(from),
+                variant.squareCol(from), variant.squareRow(to),
+                variant.squareCol(to), captured, mask,
+                (int) (second >>> ALTERNATIVE_SHIFT));
+    }
+
+    /**
+     * Accoda alla cronologia il delta della mossa appena eseguita,
+     * scartando le mosse annullate.
+     *
+     * @param move     mossa eseguita
+     * @param captured pezzi rimossi dalla mossa
+     * @param promoted true se il pezzo è stato promosso
+     */
+    private void record(final Move move, final Piece[] captured,
+                        final boolean promoted) {
+        if (2 * ply + 1 >= deltas.length) {
+            deltas = Arrays.copyOf(deltas, deltas.length * 2);
+        }
+        Variant variant = board.getVariant();
+        long kings = 0;
+        for (int i = 0; i < captured.length; i++) {
+            if (captured[i].isKing()) {
+                kings |= 1L << move.getCapturedSquare(i);
+            }
+        }
+        deltas[2 * ply] = move.getCapturedMask()
+                | (long) variant.squareIndex(move.getStartRow(),
+                        move.getStartCol()) << FROM_SHIFT
+                | (long) variant.squareIndex(move.getEndRow(),
+                        move.getEndCol()) << TO_SHIFT
+                | (promoted ? PROMOTED : 0);
+        deltas[2 * ply + 1] = kings
+                | (long) move.getAlternative() << ALTERNATIVE_SHIFT;
+        ply++;
+        plies = ply;
+    }
+
     /**
      * Indica se è il turno del bianco.
      *
@@ -38,44 +311,57 @@ public class Controller {
         return whiteTurn;
     }
 
-    /** Cambia il turno. */
+    /**
+     * Restituisce l'ultima posizione pubblicata. Può essere chiamato da
+     * qualsiasi thread, senza lock.
+     *
+     * @return istantanea immutabile della posizione corrente
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * Collega la diffusione della partita: la posizione corrente viene
+     * pubblicata subito, poi ogni mossa, annullamento e ripetizione.
+     *
+     * @param broadcastArg diffusione, o null per scollegarla
+     */
+    public void setBroadcast(final GameBroadcast broadcastArg) {
+        this.broadcast = broadcastArg;
+        if (broadcast != null) {
+            broadcast.positionChanged(position);
+        }
+    }
+
+    /**
+     * Restituisce una copia della cronologia degli hash delle posizioni
+     * fino a quella corrente, ad esempio per far riconoscere alla
+     * ricerca le ripetizioni con la partita.
+     *
+     * @return copia indipendente della cronologia
+     */
+    public PositionHistory getHistory() {
+        return history.copy();
+    }
+
+    /** Cambia il turno e pubblica la nuova posizione. */
     public void switchTurn() {
         whiteTurn = !whiteTurn;
+        position = Position.of(board, whiteTurn, ply);
     }
 
     /**
      * Calcola tutte le mosse possibili per il colore indicato.
-     * Se esistono catture, restituisce solo le catture.
+     * Se esistono catture, restituisce solo le catture (nella dama
+     * internazionale, solo quelle con il numero massimo di prese).
      *
      * @param forWhite true per le mosse del bianco
      *
      * @return lista delle mosse possibili
      */
     public List<Move> getAllPossibleMoves(final boolean forWhite) {
-        List<Move> moves = new ArrayList<>();
-
-        for (int i = 0; i < Board.SIZE; i++) {
-            for (int j = 0; j < Board.SIZE; j++) {
-                Piece p = board.getPiece(i, j);
-                if (p != null && p.isWhite() == forWhite) {
-                    moves.addAll(Move.getPossibleMoves(board, i, j));
-                }
-            }
-        }
-
-        // Se esiste almeno una cattura, le catture sono obbligatorie
-        List<Move> captureMoves = new ArrayList<>();
-        for (Move m : moves) {
-            if (m.isCapture()) {
-                captureMoves.add(m);
-            }
-        }
-
-        if (!captureMoves.isEmpty()) {
-            return captureMoves;
-        }
-
-        return moves;
+        return Move.getAllMoves(board, forWhite);
     }
 
     /**
@@ -90,33 +376,15 @@ public class Controller {
             return false;
         }
 
-        List<Move> pieceMoves = Move.getPossibleMoves(
-                board, move.getStartRow(), move.getStartCol());
-
-        // Se esiste una cattura per il colore del pezzo, rendi obbligatorie
-        // solo le catture per quel pezzo.
-        List<Move> allMoves = getAllPossibleMoves(piece.isWhite());
-        boolean compulsoryExists = false;
-        for (Move m : allMoves) {
-            if (m.isCapture()) {
-                compulsoryExists = true;
-                break;
-            }
-        }
-        if (compulsoryExists) {
-            List<Move> captureMoves = new ArrayList<>();
-            for (Move m : pieceMoves) {
-                if (m.isCapture()) {
-                    captureMoves.add(m);
-                }
-            }
-            pieceMoves = captureMoves;
-        }
-
+        // Le mosse legali tengono già conto dell'obbligo di presa
         Move validMove = null;
-        for (Move m : pieceMoves) {
-            if (m.getEndRow() == move.getEndRow()
-                    && m.getEndCol() == move.getEndCol()) {
+        for (Move m : getAllPossibleMoves(piece.isWhite())) {
+            if (m.getStartRow() == move.getStartRow()
+                    && m.getStartCol() == move.getStartCol()
+                    && m.getEndRow() == move.getEndRow()
+                    && m.getEndCol() == move.getEndCol()
+                    && (!move.isCapture()
+                    || m.getCapturedMask() == move.getCapturedMask())) {
                 validMove = m;
                 break;
             }
@@ -126,31 +394,33 @@ public class Controller {
             return false;
         }
 
-        // Esegue la mossa sulla scacchiera
-        board.setPiece(validMove.getEndRow(), validMove.getEndCol(), piece);
-        board.setPiece(validMove.getStartRow(), validMove.getStartCol(), null);
-
-        if (validMove.isCapture()) {
-            board.setPiece(validMove.getCapturedRow(),
-                    validMove.getCapturedCol(), null);
-        }
-
-        // Promozione a dama
-        if (piece.isWhite() && validMove.getEndRow() == 0) {
-            piece.crown();
-        } else if (!piece.isWhite()
-                && validMove.getEndRow() == Board.SIZE - 1) {
-            piece.crown();
-        }
+        // Esegue la mossa (con l'intera sequenza di prese) e
+        // l'eventuale promozione a dama
+        Piece[] captured = new Piece[validMove.getCapturedCount()];
+        boolean promoted = board.applyMove(validMove, captured);
 
+        history.push(board, validMove, promoted, captured);
+        record(validMove, captured, promoted);
         switchTurn();
+        if (broadcast != null) {
+            broadcast.moveMade(validMove, position);
+            // chi deve muovere senza mosse legali ha perso
+            if (getAllPossibleMoves(whiteTurn).isEmpty()) {
+                broadcast.gameOver(position, whiteTurn
+                        ? GameRecord.BLACK_WIN : GameRecord.WHITE_WIN);
+            } else if (history.isDraw()) {
+                broadcast.gameOver(position, GameRecord.DRAW);
+            }
+        }
         return true;
     }
 
     /**
      * Verifica se la partita è terminata.
      *
-     * @return -1 se vince il nero, 1 se vince il bianco, 2 se il gioco continua
+     * @return -1 se vince il nero, 1 se vince il bianco, 0 se è patta
+     *         (per ripetizione o per il limite di mosse di
+     *         {@link PositionHistory}), 2 se il gioco continua
      */
     public int checkGameOver() {
         boolean whiteHasMove = false;
@@ -158,8 +428,8 @@ public class Controller {
         int whitePieces = 0;
         int blackPieces = 0;
 
-        for (int i = 0; i < Board.SIZE; i++) {
-            for (int j = 0; j < Board.SIZE; j++) {
+        for (int i = 0; i < board.getSize(); i++) {
+            for (int j = 0; j < board.getSize(); j++) {
                 Piece p = board.getPiece(i, j);
                 if (p != null) {
                     List<Move> moves = Move.getPossibleMoves(board, i, j);
@@ -188,6 +458,10 @@ public class Controller {
             return 1;
         }
 
+        if (history.isDraw()) {
+            return 0;
+        }
+
         // Gioco in corso
         return 2;
     }
@@ -0,0 +1,93 @@
+package it.unimol.dama;
+
+/**
+ * Livello di gioco dell'IA, definito dal numero di nodi che la ricerca
+ * può visitare per mossa invece che da una profondità fissa: i livelli
+ * deboli costano pochi millisecondi di CPU anche in posizioni complesse.
+ *
+ * <p>I livelli più bassi non giocano sempre la mossa migliore: scelgono a
+ * caso tra le prime {@link #getLines()} mosse il cui valore dista al più
+ * {@link #getMargin()} da quello della migliore.
+ */
+public enum Difficulty {
+
+    /** Principiante: sbaglia spesso, costa circa un millisecondo. */
+    BEGINNER(2_000, 4, 4, 150),
+
+    /** Facile: vede le prese vicine ma sceglie tra mosse simili. */
+    EASY(10_000, 6, 3, 60),
+
+    /** Medio: gioca quasi sempre una delle due mosse migliori. */
+    MEDIUM(50_000, 10, 2, 20),
+
+    /** Difficile: sempre la mossa migliore entro il budget. */
+    HARD(250_000, 20, 1, 0),
+
+    /** Esperto: ricerca profonda per i livelli più alti. */
+    EXPERT(2_000_000, 32, 1, 0);
+
+    /** Nodi massimi per mossa. */
+    private final long nodeBudget;
+
+    /** Profondità massima dell'approfondimento iterativo. */
+    private final int maxDepth;
+
+    /** Mosse candidate alla scelta casuale (1 per la sola migliore). */
+    private final int lines;
+
+    /** Distanza massima dal valore della mossa migliore. */
+    private final int margin;
+
+    /**
+     * Crea un livello.
+     *
+     * @param nodeBudgetArg nodi massimi per mossa
+     * @param maxDepthArg   profondità massima
+     * @param linesArg      mosse candidate
+     * @param marginArg     distanza massima dalla migliore
+     */
+    Difficulty(final long nodeBudgetArg, final int maxDepthArg,
+               final int linesArg, final int marginArg) {
+        this.nodeBudget = nodeBudgetArg;
+        this.maxDepth = maxDepthArg;
+        this.lines = linesArg;
+        this.margin = marginArg;
+    }
+
+    /**
+     * Restituisce i nodi che la ricerca può visitare per mossa.
+     *
+     * @return budget di nodi
+     */
+    public long getNodeBudget() {
+        return nodeBudget;
+    }
+
+    /**
+     * Restituisce la profondità massima della ricerca.
+     *
+     * @return profondità massima
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Restituisce quante delle mosse migliori possono essere scelte.
+     *
+     * @return mosse candidate (almeno 1)
+     */
+    public int getLines() {
+        return lines;
+    }
+
+    /**
+     * Restituisce la distanza massima, in punti di valutazione, tra il
+     * valore di una mossa candidata e quello della migliore.
+     *
+     * @return margine (0 per giocare solo la migliore)
+     */
+    public int getMargin() {
+        return margin;
+    }
+}
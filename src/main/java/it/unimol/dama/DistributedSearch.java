@@ -0,0 +1,512 @@
+package it.unimol.dama;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinatore di una ricerca distribuita su più processi
+ * {@link SearchWorker}, sulla stessa macchina o su macchine diverse.
+ *
+ * <p>Ogni iterazione dell'approfondimento iterativo divide le mosse della
+ * radice tra i worker. La prima mossa (la migliore dell'iterazione
+ * precedente) viene cercata da sola con la finestra piena; le altre
+ * vengono poi assegnate una alla volta al primo worker libero, con la
+ * finestra ristretta dal miglior valore trovato fino a quel momento. Se un
+ * valore supera la finestra della radice (o è una vittoria), le ricerche
+ * ancora in corso non servono più e vengono annullate.
+ *
+ * <p>Se un worker si disconnette, la sua mossa torna in coda per gli
+ * altri. Esempio con due worker locali:
+ * <pre>
+ * java -cp target/classes it.unimol.dama.SearchWorker 7421 &amp;
+ * java -cp target/classes it.unimol.dama.SearchWorker 7422 &amp;
+ * java -cp target/classes it.unimol.dama.DistributedSearch 8 \
+ *     localhost:7421 localhost:7422
+ * </pre>
+ */
+public final class DistributedSearch implements Closeable {
+
+    /** Connessioni ai worker. */
+    private final List<Connection> connections = new ArrayList<>();
+
+    /** Thread del coordinatore, uno per worker. */
+    private final ExecutorService pool;
+
+    /** Prossimo identificativo di lavoro. */
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /** Nodi visitati dai worker nell'ultima ricerca. */
+    private long nodes;
+
+    /**
+     * Si connette ai worker indicati.
+     *
+     * @param workers indirizzi dei worker
+     * @throws IOException se un worker non è raggiungibile o non risponde
+     *                     con il protocollo atteso
+     * @throws IllegalArgumentException se non ci sono worker
+     */
+    public DistributedSearch(final List<InetSocketAddress> workers)
+            throws IOException {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("Nessun worker indicato");
+        }
+        try {
+            for (InetSocketAddress address : workers) {
+                connections.add(new Connection(address));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        pool = Executors.newFixedThreadPool(workers.size(), r -> {
+            Thread t = new Thread(r, "dama-coordinator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Cerca la mossa migliore con la finestra piena.
+     *
+     * @param board     posizione
+     * @param whiteTurn true se tocca al bianco
+     * @param depth     profondità massima
+     * @return mossa migliore, valore (dal punto di vista del nero) e
+     *         profondità, o null se non ci sono mosse
+     * @throws UncheckedIOException se tutti i worker si disconnettono
+     */
+    public PvLine search(final Board board, final boolean whiteTurn,
+                         final int depth) {
+        return search(board, whiteTurn, depth, Integer.MIN_VALUE,
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Cerca la mossa migliore con approfondimento iterativo, entro la
+     * finestra indicata. Se il valore esce dalla finestra la ricerca
+     * dell'iterazione si ferma e il valore restituito è solo un limite.
+     *
+     * @param board     posizione
+     * @param whiteTurn true se tocca al bianco
+     * @param depth     profondità massima
+     * @param alpha     limite inferiore della radice
+     * @param beta      limite superiore della radice
+     * @return mossa migliore, valore (dal punto di vista del nero) e
+     *         profondità, o null se non ci sono mosse
+     * @throws UncheckedIOException se tutti i worker si disconnettono
+     */
+    public PvLine search(final Board board, final boolean whiteTurn,
+                         final int depth, final int alpha, final int beta) {
+        nodes = 0;
+        List<Move> moves = Move.getAllMoves(board, whiteTurn);
+        PvLine best = null;
+        for (int d = 1; d <= depth && !moves.isEmpty(); d++) {
+            if (best != null) {
+                moves.remove(best.getMove());
+                moves.add(0, best.getMove());
+            }
+            RootSplit split = new RootSplit(board, whiteTurn, moves, d,
+                    alpha, beta);
+            split.run();
+            nodes += split.nodes;
+            best = new PvLine(Collections.singletonList(split.best),
+                    split.bestValue, d);
+        }
+        return best;
+    }
+
+    /**
+     * Restituisce i nodi visitati dai worker nell'ultima ricerca.
+     *
+     * @return numero di nodi
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Chiude le connessioni: i worker interrompono i lavori in corso.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        for (Connection c : connections) {
+            c.close();
+        }
+    }
+
+    /**
+     * Avvia una ricerca distribuita sulla posizione iniziale e ne stampa
+     * il risultato.
+     *
+     * @param args profondità seguita dagli indirizzi {@code host:porta}
+     *             dei worker
+     * @throws IOException se un worker non è raggiungibile
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: DistributedSearch profondità "
+                    + "host:porta [host:porta ...]");
+            System.exit(2);
+        }
+        int depth = Integer.parseInt(args[0]);
+        List<InetSocketAddress> workers = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            workers.add(parseAddress(args[i]));
+        }
+        try (DistributedSearch search = new DistributedSearch(workers)) {
+            long start = System.nanoTime();
+            PvLine line = search.search(new Board(), true, depth);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(line + " nodi " + search.getNodes()
+                    + " in " + millis + " ms con " + workers.size()
+                    + " worker");
+        }
+    }
+
+    /**
+     * Interpreta un indirizzo nella forma {@code host:porta}.
+     *
+     * @param text indirizzo
+     * @return indirizzo del worker
+     * @throws IllegalArgumentException se manca la porta
+     */
+    static InetSocketAddress parseAddress(final String text) {
+        int colon = text.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException(
+                    "Indirizzo senza porta: " + text);
+        }
+        return new InetSocketAddress(text.substring(0, colon),
+                Integer.parseInt(text.substring(colon + 1)));
+    }
+
+    /**
+     * Una iterazione: mosse della radice distribuite tra i worker.
+     */
+    private final class RootSplit {
+
+        /** Posizione della radice. */
+        private final Board board;
+
+        /** True se alla radice tocca al bianco. */
+        private final boolean whiteTurn;
+
+        /** Mosse della radice, in ordine. */
+        private final List<Move> moves;
+
+        /** Profondità dell'iterazione. */
+        private final int depth;
+
+        /** Limite inferiore della radice. */
+        private final int alpha;
+
+        /** Limite superiore della radice. */
+        private final int beta;
+
+        /** Indici delle mosse ancora da cercare. */
+        private final ConcurrentLinkedQueue<Integer> pending =
+                new ConcurrentLinkedQueue<>();
+
+        /** Mossa migliore finora. */
+        private Move best;
+
+        /** Valore della mossa migliore. */
+        private int bestValue;
+
+        /** Nodi visitati (radice compresa). */
+        private long nodes = 1;
+
+        /** True se la finestra della radice è stata superata. */
+        private volatile boolean cutoff;
+
+        /**
+         * Prepara l'iterazione.
+         *
+         * @param boardArg     posizione della radice
+         * @param whiteTurnArg true se tocca al bianco
+         * @param movesArg     mosse della radice, in ordine
+         * @param depthArg     profondità
+         * @param alphaArg     limite inferiore
+         * @param betaArg      limite superiore
+         */
+        RootSplit(final Board boardArg, final boolean whiteTurnArg,
+                  final List<Move> movesArg, final int depthArg,
+                  final int alphaArg, final int betaArg) {
+            this.board = boardArg;
+            this.whiteTurn = whiteTurnArg;
+            this.moves = movesArg;
+            this.depth = depthArg;
+            this.alpha = alphaArg;
+            this.beta = betaArg;
+            this.bestValue = whiteTurnArg ? Integer.MAX_VALUE
+                    : Integer.MIN_VALUE;
+            for (int i = 0; i < movesArg.size(); i++) {
+                pending.add(i);
+            }
+        }
+
+        /**
+         * Esegue l'iterazione: la prima mossa da sola, poi le altre in
+         * parallelo finché la coda non è vuota.
+         */
+        void run() {
+            // la prima mossa fissa la finestra per le altre
+            while (best == null && !cutoff && !pending.isEmpty()) {
+                drain(firstLive(), 1);
+            }
+            while (!pending.isEmpty() && !cutoff) {
+                List<Future<?>> tasks = new ArrayList<>();
+                for (Connection c : connections) {
+                    if (!c.dead) {
+                        tasks.add(pool.submit(
+                                () -> drain(c, Integer.MAX_VALUE)));
+                    }
+                }
+                for (Future<?> task : tasks) {
+                    try {
+                        task.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException(
+                                "Ricerca distribuita interrotta", e);
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(e.getCause());
+                    }
+                }
+                // una mossa rimessa in coda da un worker caduto
+                if (!pending.isEmpty()) {
+                    firstLive();
+                }
+            }
+        }
+
+        /**
+         * Restituisce il primo worker ancora connesso.
+         *
+         * @return connessione attiva
+         * @throws UncheckedIOException se nessun worker è connesso
+         */
+        private Connection firstLive() {
+            for (Connection c : connections) {
+                if (!c.dead) {
+                    return c;
+                }
+            }
+            throw new UncheckedIOException(
+                    new IOException("Nessun worker disponibile"));
+        }
+
+        /**
+         * Cerca con il worker le mosse in coda.
+         *
+         * @param connection worker
+         * @param limit      numero massimo di mosse da cercare
+         */
+        private void drain(final Connection connection, final int limit) {
+            Piece[] captured = new Piece[Variant.MAX_SQUARES / 2];
+            for (int n = 0; n < limit && !cutoff; n++) {
+                Integer index = pending.poll();
+                if (index == null) {
+                    return;
+                }
+                Move move = moves.get(index);
+                Board child = board.clone();
+                child.applyMove(move, captured);
+
+                int a;
+                int b;
+                synchronized (this) {
+                    // finestra ristretta dal miglior valore attuale
+                    a = whiteTurn || best == null ? alpha
+                            : Math.max(alpha, bestValue);
+                    b = !whiteTurn || best == null ? beta
+                            : Math.min(beta, bestValue);
+                }
+                int id = nextId.incrementAndGet();
+                long[] reply;
+                try {
+                    reply = connection.run(id, child, !whiteTurn, depth - 1,
+                            a, b);
+                } catch (IOException e) {
+                    System.err.println("Worker perso: " + e);
+                    connection.dead = true;
+                    connection.close();
+                    pending.add(index);
+                    return;
+                }
+                record(connection, move, reply);
+            }
+        }
+
+        /**
+         * Registra il risultato di una mossa e annulla gli altri lavori se
+         * la finestra della radice è superata.
+         *
+         * @param from  worker che ha risposto
+         * @param move  mossa cercata
+         * @param reply esito, valore e nodi
+         */
+        private synchronized void record(final Connection from,
+                                         final Move move,
+                                         final long[] reply) {
+            nodes += reply[2];
+            if (reply[0] != SearchWorker.RESULT) {
+                return;
+            }
+            int value = (int) reply[1];
+            if (best == null
+                    || (whiteTurn ? value < bestValue : value > bestValue)) {
+                best = move;
+                bestValue = value;
+            }
+            if (whiteTurn ? bestValue <= alpha : bestValue >= beta) {
+                cutoff = true;
+                for (Connection c : connections) {
+                    if (c != from) {
+                        c.cancelRunning();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Connessione a un worker; un lavoro alla volta.
+     */
+    private static final class Connection {
+
+        /** Socket verso il worker. */
+        private final Socket socket;
+
+        /** Flusso in ingresso. */
+        private final DataInputStream in;
+
+        /** Flusso in uscita, condiviso con gli annullamenti. */
+        private final DataOutputStream out;
+
+        /** Lavoro in corso, o -1. */
+        private volatile int running = -1;
+
+        /** True se il worker non è più raggiungibile. */
+        private volatile boolean dead;
+
+        /**
+         * Si connette al worker e verifica il protocollo.
+         *
+         * @param address indirizzo del worker
+         * @throws IOException se il worker non risponde come previsto
+         */
+        Connection(final InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(address);
+                in = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+                if (in.readInt() != SearchWorker.MAGIC) {
+                    throw new IOException("Non è un worker: " + address);
+                }
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Invia un lavoro e ne attende l'esito.
+         *
+         * @param id        identificativo del lavoro
+         * @param board     posizione
+         * @param whiteTurn true se tocca al bianco
+         * @param depth     profondità
+         * @param alpha     limite inferiore
+         * @param beta      limite superiore
+         * @return tipo di risposta, valore e nodi visitati
+         * @throws IOException in caso di errore di comunicazione
+         */
+        long[] run(final int id, final Board board, final boolean whiteTurn,
+                   final int depth, final int alpha, final int beta)
+                throws IOException {
+            long[] masks = new long[3];
+            Bitboard.pack(board, masks, 0);
+            synchronized (out) {
+                out.writeByte(SearchWorker.JOB);
+                out.writeInt(id);
+                out.writeByte(board.getVariant().ordinal());
+                for (long mask : masks) {
+                    out.writeLong(mask);
+                }
+                out.writeBoolean(whiteTurn);
+                out.writeByte(depth);
+                out.writeInt(alpha);
+                out.writeInt(beta);
+                out.flush();
+                running = id;
+            }
+            try {
+                byte type = in.readByte();
+                int replyId = in.readInt();
+                int score = in.readInt();
+                long replyNodes = in.readLong();
+                if (replyId != id) {
+                    throw new IOException("Risposta inattesa: " + replyId);
+                }
+                return new long[] {type, score, replyNodes};
+            } finally {
+                running = -1;
+            }
+        }
+
+        /**
+         * Chiede al worker di annullare il lavoro in corso, se c'è.
+         */
+        void cancelRunning() {
+            synchronized (out) {
+                int id = running;
+                if (id < 0 || dead) {
+                    return;
+                }
+                try {
+                    out.writeByte(SearchWorker.CANCEL);
+                    out.writeInt(id);
+                    out.flush();
+                } catch (IOException e) {
+                    // il thread del lavoro se ne accorgerà leggendo
+                }
+            }
+        }
+
+        /**
+         * Chiude la connessione.
+         */
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // niente da fare
+            }
+        }
+    }
+}
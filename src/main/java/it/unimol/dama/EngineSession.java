@@ -0,0 +1,245 @@
+package it.unimol.dama;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Avversario IA di una singola partita: sceglie le mosse secondo un
+ * {@link Difficulty} e rispetta una quota di CPU della sessione.
+ *
+ * <p>Ogni ricerca ha un budget di nodi, il minimo tra quello del livello
+ * e quello pagabile con il credito di CPU della sessione. Il credito
+ * cresce con il tempo reale in proporzione alla quota (fino a
+ * {@value #BURST_MILLIS} ms di quota accumulata) e cala del tempo di CPU
+ * effettivamente usato da ogni ricerca; i nodi per nanosecondo con cui
+ * convertirlo sono stimati dalle ricerche precedenti. Una sessione senza
+ * credito gioca comunque una mossa, con la prima iterazione della
+ * ricerca. Così un server può ospitare molte partite a livelli deboli per
+ * core e riservare le ricerche profonde ai livelli alti.
+ *
+ * <p>Un'istanza appartiene a una sola partita e non è thread-safe.
+ */
+public final class EngineSession {
+
+    /** Credito massimo, in millisecondi di quota piena. */
+    private static final long BURST_MILLIS = 2_000;
+
+    /** Stima iniziale prudente della velocità: 500 mila nodi al secondo. */
+    private static final double INITIAL_NODES_PER_NANO = 0.0005;
+
+    /** Peso dell'ultima ricerca nella media della velocità. */
+    private static final double SMOOTHING = 0.25;
+
+    /** Ricerche più brevi di così non aggiornano la velocità. */
+    private static final long MIN_SAMPLE_NANOS = 1_000_000;
+
+    /** Orologi di CPU dei thread. */
+    private static final ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean();
+
+    /** Livello di gioco. */
+    private final Difficulty difficulty;
+
+    /** Frazione di un core concessa alla sessione (1 senza limiti). */
+    private final double cpuShare;
+
+    /** Generatore per la scelta tra mosse simili. */
+    private final Random random;
+
+    /** Nanosecondi di CPU disponibili (negativo se in debito). */
+    private long credit;
+
+    /** Istante dell'ultimo accredito. */
+    private long refilledAt;
+
+    /** Nodi visitati per nanosecondo di CPU, stimati. */
+    private double nodesPerNano = INITIAL_NODES_PER_NANO;
+
+    /** CPU usata da tutte le ricerche della sessione. */
+    private long cpuNanos;
+
+    /** Nodi visitati da tutte le ricerche della sessione. */
+    private long nodes;
+
+    /** Ricerche eseguite. */
+    private int searches;
+
+    /**
+     * Crea una sessione senza quota di CPU.
+     *
+     * @param difficultyArg livello di gioco
+     */
+    public EngineSession(final Difficulty difficultyArg) {
+        this(difficultyArg, 1, new Random());
+    }
+
+    /**
+     * Crea una sessione con quota di CPU.
+     *
+     * @param difficultyArg livello di gioco
+     * @param cpuShareArg   frazione media di un core concessa alla
+     *                      sessione, tra 0 (escluso) e 1
+     * @param randomArg     generatore per la scelta tra mosse simili
+     * @throws IllegalArgumentException se la quota non è valida
+     */
+    public EngineSession(final Difficulty difficultyArg,
+                         final double cpuShareArg, final Random randomArg) {
+        if (!(cpuShareArg > 0 && cpuShareArg <= 1)) {
+            throw new IllegalArgumentException("Quota di CPU non valida: "
+                    + cpuShareArg);
+        }
+        this.difficulty = difficultyArg;
+        this.cpuShare = cpuShareArg;
+        this.random = randomArg;
+        this.credit = maxCredit();
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Sceglie la mossa per chi deve muovere nella partita, tenendo conto
+     * delle posizioni già giocate.
+     *
+     * @param controller partita in corso
+     * @return mossa scelta, o null se chi muove non ha mosse
+     */
+    public Move chooseMove(final Controller controller) {
+        SearchState state = new SearchState();
+        state.setNodeLimit(nodeBudget());
+        int depth = difficulty.getMaxDepth();
+
+        long cpuStart = cpuTime();
+        Move move;
+        if (difficulty.getLines() > 1) {
+            move = pick(MinMax.searchMultiPv(controller, depth,
+                    difficulty.getLines(), state));
+        } else {
+            move = MinMax.search(controller, depth, state);
+        }
+        charge(cpuTime() - cpuStart, state.getNodes());
+        return move;
+    }
+
+    /**
+     * Restituisce i nodi concessi alla prossima ricerca.
+     *
+     * @return budget del livello, ridotto al credito di CPU disponibile
+     */
+    long nodeBudget() {
+        long budget = difficulty.getNodeBudget();
+        if (cpuShare >= 1) {
+            return budget;
+        }
+        long now = System.nanoTime();
+        credit = Math.min(maxCredit(),
+                credit + (long) ((now - refilledAt) * cpuShare));
+        refilledAt = now;
+        long affordable = (long) (Math.max(0, credit) * nodesPerNano);
+        return Math.max(1, Math.min(budget, affordable));
+    }
+
+    /**
+     * Addebita una ricerca alla sessione e aggiorna la stima della
+     * velocità.
+     *
+     * @param usedNanos   CPU usata dalla ricerca
+     * @param searchNodes nodi visitati dalla ricerca
+     */
+    private void charge(final long usedNanos, final long searchNodes) {
+        credit -= usedNanos;
+        cpuNanos += usedNanos;
+        nodes += searchNodes;
+        searches++;
+        if (usedNanos >= MIN_SAMPLE_NANOS) {
+            nodesPerNano += SMOOTHING
+                    * ((double) searchNodes / usedNanos - nodesPerNano);
+        }
+    }
+
+    /**
+     * Sceglie a caso tra le linee che distano dalla migliore al più il
+     * margine del livello.
+     *
+     * @param ranked linee in ordine di merito per chi muove
+     * @return mossa scelta, o null se non ci sono linee
+     */
+    private Move pick(final List<PvLine> ranked) {
+        if (ranked.isEmpty()) {
+            return null;
+        }
+        long best = ranked.get(0).getScore();
+        int candidates = 1;
+        while (candidates < ranked.size()
+                && Math.abs(ranked.get(candidates).getScore() - best)
+                <= difficulty.getMargin()) {
+            candidates++;
+        }
+        return ranked.get(random.nextInt(candidates)).getMove();
+    }
+
+    /**
+     * Restituisce il credito massimo accumulabile.
+     *
+     * @return nanosecondi di CPU
+     */
+    private long maxCredit() {
+        return (long) (BURST_MILLIS * 1_000_000 * cpuShare);
+    }
+
+    /**
+     * Restituisce il tempo di CPU del thread corrente, o il tempo reale
+     * se la JVM non lo misura.
+     *
+     * @return nanosecondi
+     */
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported()
+                ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Restituisce il livello di gioco.
+     *
+     * @return livello
+     */
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Restituisce la quota di CPU della sessione.
+     *
+     * @return frazione di un core (1 senza limiti)
+     */
+    public double getCpuShare() {
+        return cpuShare;
+    }
+
+    /**
+     * Restituisce la CPU usata da tutte le ricerche della sessione.
+     *
+     * @return nanosecondi di CPU
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * Restituisce i nodi visitati da tutte le ricerche della sessione.
+     *
+     * @return nodi
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Restituisce il numero di ricerche eseguite.
+     *
+     * @return ricerche
+     */
+    public int getSearches() {
+        return searches;
+    }
+}
@@ -0,0 +1,187 @@
+package it.unimol.dama;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Statistiche cumulative del motore, esposte via JMX.
+ *
+ * <p>I contatori sono {@link LongAdder}, suddivisi in celle per thread:
+ * ogni ricerca accumula i propri valori in {@link SearchState} e li
+ * riversa qui una sola volta, al termine, senza contesa tra thread.
+ */
+public final class EngineStats implements EngineStatsMBean {
+
+    /** Nome JMX dell'MBean. */
+    public static final String OBJECT_NAME = "it.unimol.dama:type=EngineStats";
+
+    /** Numero di fasce dell'istogramma delle latenze. */
+    public static final int LATENCY_BUCKETS = 17;
+
+    /** Nanosecondi in un millisecondo. */
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /** Istanza unica, registrata al primo utilizzo. */
+    private static final EngineStats INSTANCE = register(new EngineStats());
+
+    /** Ricerche completate. */
+    private final LongAdder searches = new LongAdder();
+
+    /** Nodi visitati. */
+    private final LongAdder nodes = new LongAdder();
+
+    /** Nodi interni. */
+    private final LongAdder interiorNodes = new LongAdder();
+
+    /** Mosse generate. */
+    private final LongAdder generatedMoves = new LongAdder();
+
+    /** Tagli alpha-beta. */
+    private final LongAdder cutoffs = new LongAdder();
+
+    /** Consultazioni di tabelle. */
+    private final LongAdder tableProbes = new LongAdder();
+
+    /** Consultazioni di tabelle riuscite. */
+    private final LongAdder tableHits = new LongAdder();
+
+    /** Tempo totale di ricerca in nanosecondi. */
+    private final LongAdder searchNanos = new LongAdder();
+
+    /** Istogramma delle latenze per mossa. */
+    private final LongAdder[] latency = new LongAdder[LATENCY_BUCKETS];
+
+    /** Costruttore privato: si usa {@link #get()}. */
+    private EngineStats() {
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            latency[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Restituisce l'istanza condivisa.
+     *
+     * @return statistiche del motore
+     */
+    public static EngineStats get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registra le statistiche sul server MBean della piattaforma.
+     * Se JMX non è disponibile le statistiche restano solo in memoria.
+     *
+     * @param stats istanza da registrare
+     * @return la stessa istanza
+     */
+    private static EngineStats register(final EngineStats stats) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    stats, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            System.err.println("EngineStats non registrato su JMX: "
+                    + e.getMessage());
+        }
+        return stats;
+    }
+
+    /**
+     * Riversa nelle statistiche i contatori di una ricerca conclusa.
+     *
+     * @param state       stato della ricerca
+     * @param elapsedNanos durata della ricerca in nanosecondi
+     */
+    void record(final SearchState state, final long elapsedNanos) {
+        searches.increment();
+        nodes.add(state.nodes);
+        interiorNodes.add(state.interiorNodes);
+        generatedMoves.add(state.generatedMoves);
+        cutoffs.add(state.cutoffs);
+        tableProbes.add(state.tableProbes);
+        tableHits.add(state.tableHits);
+        searchNanos.add(elapsedNanos);
+
+        long millis = elapsedNanos / NANOS_PER_MILLI;
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        latency[Math.min(bucket, LATENCY_BUCKETS - 1)].increment();
+    }
+
+    @Override
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    @Override
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    @Override
+    public double getNodesPerSecond() {
+        long nanos = searchNanos.sum();
+        return nanos == 0 ? 0 : nodes.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public double getCutoffRate() {
+        long interior = interiorNodes.sum();
+        return interior == 0 ? 0 : (double) cutoffs.sum() / interior;
+    }
+
+    @Override
+    public double getTableHitRate() {
+        long probes = tableProbes.sum();
+        return probes == 0 ? 0 : (double) tableHits.sum() / probes;
+    }
+
+    @Override
+    public double getBranchingFactor() {
+        long interior = interiorNodes.sum();
+        return interior == 0 ? 0 : (double) generatedMoves.sum() / interior;
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        long count = searches.sum();
+        return count == 0 ? 0
+                : (double) searchNanos.sum() / count / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        long[] result = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            result[i] = latency[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        searches.reset();
+        nodes.reset();
+        interiorNodes.reset();
+        generatedMoves.reset();
+        cutoffs.reset();
+        tableProbes.reset();
+        tableHits.reset();
+        searchNanos.reset();
+        for (LongAdder bucket : latency) {
+            bucket.reset();
+        }
+    }
+
+    @Override
+    public String dumpTrace(final String file) {
+        try {
+            return SearchTrace.dump(Paths.get(file)) + " eventi scritti in "
+                    + file;
+        } catch (IOException e) {
+            return "Traccia non scritta: " + e.getMessage();
+        }
+    }
+}
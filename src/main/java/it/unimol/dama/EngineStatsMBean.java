@@ -0,0 +1,78 @@
+package it.unimol.dama;
+
+/**
+ * Interfaccia JMX delle statistiche cumulative del motore.
+ * Esposta come {@value EngineStats#OBJECT_NAME}.
+ */
+public interface EngineStatsMBean {
+
+    /**
+     * Restituisce il numero di ricerche completate.
+     *
+     * @return ricerche completate
+     */
+    long getSearches();
+
+    /**
+     * Restituisce i nodi visitati in tutte le ricerche.
+     *
+     * @return nodi totali
+     */
+    long getNodes();
+
+    /**
+     * Restituisce i nodi al secondo medi sul tempo totale di ricerca.
+     *
+     * @return nodi al secondo
+     */
+    double getNodesPerSecond();
+
+    /**
+     * Restituisce la frazione di nodi interni terminati da un taglio.
+     *
+     * @return tasso di tagli (0..1)
+     */
+    double getCutoffRate();
+
+    /**
+     * Restituisce la frazione di consultazioni di tabelle riuscite.
+     *
+     * @return tasso di successo (0..1)
+     */
+    double getTableHitRate();
+
+    /**
+     * Restituisce il fattore di ramificazione medio.
+     *
+     * @return mosse generate per nodo interno
+     */
+    double getBranchingFactor();
+
+    /**
+     * Restituisce il tempo medio per mossa in millisecondi.
+     *
+     * @return latenza media
+     */
+    double getMeanLatencyMillis();
+
+    /**
+     * Restituisce l'istogramma delle latenze per mossa: l'elemento
+     * {@code i} conta le ricerche durate meno di {@code 2^i} ms
+     * (e almeno {@code 2^(i-1)}); l'ultimo raccoglie le più lunghe.
+     *
+     * @return conteggi per fascia di latenza
+     */
+    long[] getLatencyHistogram();
+
+    /** Azzera tutte le statistiche. */
+    void reset();
+
+    /**
+     * Scrive su file la traccia delle ultime ricerche di ogni thread
+     * (vedi {@link SearchTrace}).
+     *
+     * @param file percorso del file da scrivere
+     * @return esito, con il numero di eventi scritti
+     */
+    String dumpTrace(String file);
+}
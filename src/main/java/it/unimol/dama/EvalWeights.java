@@ -0,0 +1,326 @@
+package it.unimol.dama;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Pesi dei termini di valutazione usati da {@link MinMax}.
+ *
+ * <p>Ogni pezzo contribuisce con la somma pesata delle proprie
+ * caratteristiche (vedi {@link #addFeatures}); i pezzi neri sommano,
+ * i bianchi sottraggono. All'avvio i pesi vengono letti dal file
+ * indicato dalla proprietà di sistema {@code dama.weights} oppure,
+ * se presente, da {@value #DEFAULT_FILE} nella directory corrente.
+ */
+public final class EvalWeights {
+
+    /** Nome del file dei pesi cercato nella directory corrente. */
+    public static final String DEFAULT_FILE = "dama-weights.properties";
+
+    /** Proprietà di sistema con il percorso del file dei pesi. */
+    public static final String WEIGHTS_PROPERTY = "dama.weights";
+
+    /** Termine: pedina semplice. */
+    public static final int MAN = 0;
+
+    /** Termine: dama. */
+    public static final int KING = 1;
+
+    /** Termine: righe avanzate da una pedina verso la promozione. */
+    public static final int ADVANCE = 2;
+
+    /** Termine: pedina ancora sulla propria riga di fondo. */
+    public static final int BACK_ROW = 3;
+
+    /** Termine: pezzo nel quadrato centrale 4x4. */
+    public static final int CENTER = 4;
+
+    /** Numero di termini di valutazione. */
+    public static final int TERMS = 5;
+
+    /** Nomi dei termini, usati come chiavi nel file dei pesi. */
+    private static final String[] NAMES = {
+        "man", "king", "advance", "backRow", "center"
+    };
+
+    /** Pesi predefiniti: solo materiale, pedina 1 e dama 2 (in centesimi). */
+    private static final int[] DEFAULTS = {100, 200, 0, 0, 0};
+
+    /** Distanza dal centro della prima riga (inclusa) del quadrato centrale. */
+    private static final int CENTER_HALF = 2;
+
+    /** Pesi caricati all'avvio. */
+    private static final EvalWeights CURRENT = loadStartup();
+
+    /** Valori dei pesi, indicizzati per termine. */
+    private final int[] values;
+
+    /**
+     * Punteggio precalcolato per variante, colore e tipo, casella
+     * giocabile, già con il segno dal punto di vista del nero.
+     */
+    private final int[][][] tables;
+
+    /**
+     * Crea un insieme di pesi.
+     *
+     * @param valuesArg pesi indicizzati per termine (TERMS elementi)
+     */
+    public EvalWeights(final int[] valuesArg) {
+        if (valuesArg.length != TERMS) {
+            throw new IllegalArgumentException(
+                    "Attesi " + TERMS + " pesi, trovati " + valuesArg.length);
+        }
+        this.values = valuesArg.clone();
+        this.tables = new int[Variant.values().length][][];
+        for (Variant v : Variant.values()) {
+            tables[v.ordinal()] = buildTable(v, values);
+        }
+    }
+
+    /**
+     * Restituisce i pesi caricati all'avvio.
+     *
+     * @return pesi correnti del valutatore
+     */
+    public static EvalWeights current() {
+        return CURRENT;
+    }
+
+    /**
+     * Restituisce i pesi predefiniti.
+     *
+     * @return pesi predefiniti (solo materiale)
+     */
+    public static EvalWeights defaults() {
+        return new EvalWeights(DEFAULTS);
+    }
+
+    /**
+     * Restituisce il peso del termine indicato.
+     *
+     * @param term indice del termine
+     * @return valore del peso
+     */
+    public int get(final int term) {
+        return values[term];
+    }
+
+    /**
+     * Restituisce una copia dei pesi.
+     *
+     * @return array dei pesi indicizzato per termine
+     */
+    public int[] toArray() {
+        return values.clone();
+    }
+
+    /**
+     * Restituisce un'impronta a 64 bit dei pesi, per distinguere i
+     * risultati salvati con pesi diversi.
+     *
+     * @return impronta dei pesi
+     */
+    public long fingerprint() {
+        long h = TERMS;
+        for (int v : values) {
+            h = (h ^ v) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    /**
+     * Restituisce il nome del termine indicato.
+     *
+     * @param term indice del termine
+     * @return nome usato nel file dei pesi
+     */
+    public static String name(final int term) {
+        return NAMES[term];
+    }
+
+    /**
+     * Punteggio di un pezzo della dama classica dal punto di vista del nero.
+     *
+     * @param square indice della casella giocabile
+     * @param white  true se il pezzo è bianco
+     * @param king   true se il pezzo è una dama
+     * @return contributo del pezzo alla valutazione
+     */
+    public int pieceScore(final int square, final boolean white,
+                          final boolean king) {
+        return pieceScore(Variant.CLASSIC, square, white, king);
+    }
+
+    /**
+     * Punteggio di un pezzo dal punto di vista del nero.
+     *
+     * @param variant variante della scacchiera
+     * @param square  indice della casella giocabile
+     * @param white   true se il pezzo è bianco
+     * @param king    true se il pezzo è una dama
+     * @return contributo del pezzo alla valutazione
+     */
+    public int pieceScore(final Variant variant, final int square,
+                          final boolean white, final boolean king) {
+        return tables[variant.ordinal()]
+                [(white ? 2 : 0) + (king ? 1 : 0)][square];
+    }
+
+    /**
+     * Somma le caratteristiche di un pezzo della dama classica al
+     * vettore indicato, con segno positivo per il nero e negativo per
+     * il bianco.
+     *
+     * @param features vettore delle caratteristiche (TERMS elementi)
+     * @param row      riga del pezzo
+     * @param col      colonna del pezzo
+     * @param white    true se il pezzo è bianco
+     * @param king     true se il pezzo è una dama
+     */
+    public static void addFeatures(final int[] features,
+                                   final int row, final int col,
+                                   final boolean white, final boolean king) {
+        addFeatures(features, Board.SIZE, row, col, white, king);
+    }
+
+    /**
+     * Somma le caratteristiche del pezzo al vettore indicato,
+     * con segno positivo per il nero e negativo per il bianco.
+     *
+     * @param features vettore delle caratteristiche (TERMS elementi)
+     * @param size     lato della scacchiera
+     * @param row      riga del pezzo
+     * @param col      colonna del pezzo
+     * @param white    true se il pezzo è bianco
+     * @param king     true se il pezzo è una dama
+     */
+    public static void addFeatures(final int[] features, final int size,
+                                   final int row, final int col,
+                                   final boolean white, final boolean king) {
+        int sign = white ? -1 : 1;
+        int homeRow = white ? size - 1 : 0;
+        int centerLow = size / 2 - CENTER_HALF;
+        int centerHigh = size / 2 + CENTER_HALF - 1;
+
+        if (king) {
+            features[KING] += sign;
+        } else {
+            features[MAN] += sign;
+            features[ADVANCE] += sign * Math.abs(row - homeRow);
+            if (row == homeRow) {
+                features[BACK_ROW] += sign;
+            }
+        }
+
+        if (row >= centerLow && row <= centerHigh
+                && col >= centerLow && col <= centerHigh) {
+            features[CENTER] += sign;
+        }
+    }
+
+    /**
+     * Precalcola il punteggio di ogni pezzo su ogni casella della variante.
+     *
+     * @param variant variante della scacchiera
+     * @param weights pesi indicizzati per termine
+     * @return tabella [colore e tipo][casella]
+     */
+    private static int[][] buildTable(final Variant variant,
+                                      final int[] weights) {
+        int[][] result = new int[4][variant.getSquares()];
+        int[] features = new int[TERMS];
+
+        for (int kind = 0; kind < 4; kind++) {
+            for (int sq = 0; sq < variant.getSquares(); sq++) {
+                Arrays.fill(features, 0);
+                addFeatures(features, variant.getSize(),
+                        variant.squareRow(sq), variant.squareCol(sq),
+                        kind >= 2, (kind & 1) == 1);
+                int score = 0;
+                for (int t = 0; t < TERMS; t++) {
+                    score += features[t] * weights[t];
+                }
+                result[kind][sq] = score;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Legge i pesi da un file di proprietà.
+     * I termini assenti mantengono il valore predefinito.
+     *
+     * @param file percorso del file
+     * @return pesi letti
+     * @throws IOException in caso di errore di lettura
+     */
+    public static EvalWeights load(final Path file) throws IOException {
+        Properties props = new Properties();
+        try (Reader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            props.load(in);
+        }
+
+        int[] result = DEFAULTS.clone();
+        for (int t = 0; t < TERMS; t++) {
+            String value = props.getProperty(NAMES[t]);
+            if (value != null) {
+                try {
+                    result[t] = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Peso non valido per "
+                            + NAMES[t] + ": " + value, e);
+                }
+            }
+        }
+        return new EvalWeights(result);
+    }
+
+    /**
+     * Scrive i pesi in un file di proprietà.
+     *
+     * @param file percorso del file
+     * @throws IOException in caso di errore di scrittura
+     */
+    public void save(final Path file) throws IOException {
+        Properties props = new Properties();
+        for (int t = 0; t < TERMS; t++) {
+            props.setProperty(NAMES[t], Integer.toString(values[t]));
+        }
+        try (Writer out = Files.newBufferedWriter(file,
+                StandardCharsets.UTF_8)) {
+            props.store(out, "Pesi di valutazione dama");
+        }
+    }
+
+    /**
+     * Carica i pesi di avvio; in caso di errore usa quelli predefiniti.
+     *
+     * @return pesi da usare per la valutazione
+     */
+    private static EvalWeights loadStartup() {
+        String configured = System.getProperty(WEIGHTS_PROPERTY);
+        Path file = Paths.get(configured != null ? configured : DEFAULT_FILE);
+
+        if (configured == null && !Files.isRegularFile(file)) {
+            return defaults();
+        }
+
+        try {
+            return load(file);
+        } catch (IOException e) {
+            System.err.println("Impossibile leggere i pesi da " + file
+                    + ": " + e.getMessage() + " (uso i pesi predefiniti)");
+            return defaults();
+        }
+    }
+}
@@ -17,6 +17,6 @@
          * @param args Argomenti da riga di comando.
          */
         public static void main(final String[] args) {
-            Application.launch(Graphic.class);
+            Application.launch(Graphic.class, args);
         }
     }
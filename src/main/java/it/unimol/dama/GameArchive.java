@@ -0,0 +1,437 @@
+package it.unimol.dama;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Archivio binario compatto di partite, con accesso casuale.
+ *
+ * <p>Formato del file:
+ * <ul>
+ *   <li>intestazione di {@value #HEADER_BYTES} byte: numero magico,
+ *       versione, numero di partite, posizione dell'indice, ordinale
+ *       della {@link Variant} comune a tutte le partite;</li>
+ *   <li>partite in sequenza: risultato (byte), numero di semimosse
+ *       (short senza segno), mosse compatte (short, vedi
+ *       {@link Move#encode()});</li>
+ *   <li>indice finale: per ogni partita la posizione (long) nel file.</li>
+ * </ul>
+ * La lettura mappa il file in memoria a segmenti parzialmente
+ * sovrapposti, così che ogni partita sia contenuta per intero in un
+ * segmento anche per archivi più grandi di 2 GiB.
+ *
+ * <p>Uso da riga di comando: {@code GameArchive <input.pdn> <output.dga>}
+ * converte un file PDN, {@code GameArchive -pdn <input.dga> <output.pdn>}
+ * esegue la conversione inversa.
+ */
+public final class GameArchive implements Closeable {
+
+    /** Numero magico dell'intestazione ("DGA1"). */
+    public static final int MAGIC = 0x44474131;
+
+    /** Versione del formato. */
+    public static final int VERSION = 1;
+
+    /** Dimensione dell'intestazione in byte. */
+    public static final int HEADER_BYTES = 32;
+
+    /** Posizione nell'intestazione dell'ordinale della variante. */
+    private static final int VARIANT_OFFSET = 24;
+
+    /** Byte fissi di ogni partita (risultato e numero di semimosse). */
+    private static final int GAME_HEADER_BYTES = 3;
+
+    /** Numero massimo di semimosse per partita. */
+    public static final int MAX_PLIES = 0xFFFF;
+
+    /** Dimensione nominale di un segmento mappato (1 GiB). */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    /** Sovrapposizione tra segmenti: la partita più lunga possibile. */
+    private static final long OVERLAP =
+            GAME_HEADER_BYTES + 2L * MAX_PLIES + Long.BYTES;
+
+    /** Canale del file aperto. */
+    private final FileChannel channel;
+
+    /** Segmenti mappati in sola lettura. */
+    private final MappedByteBuffer[] segments;
+
+    /** Numero di partite. */
+    private final long size;
+
+    /** Posizione dell'indice nel file. */
+    private final long indexOffset;
+
+    /** Variante di tutte le partite dell'archivio. */
+    private final Variant variant;
+
+    /**
+     * Apre in lettura un archivio esistente.
+     *
+     * @param file percorso dell'archivio
+     * @throws IOException se il file non è leggibile o non è un archivio
+     */
+    public GameArchive(final Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            ByteBuffer header = readHeader(channel, file);
+            size = header.getLong(8);
+            indexOffset = header.getLong(16);
+            variant = variantOf(header, file);
+            if (indexOffset + size * Long.BYTES > length) {
+                throw new IOException("Archivio troncato: " + file);
+            }
+
+            int count = (int) ((length + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+            segments = new MappedByteBuffer[count];
+            for (int s = 0; s < count; s++) {
+                long start = s * SEGMENT_BYTES;
+                long len = Math.min(SEGMENT_BYTES + OVERLAP, length - start);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, len);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Legge e verifica l'intestazione dell'archivio.
+     *
+     * @param ch   canale del file
+     * @param file percorso (per i messaggi di errore)
+     * @return intestazione letta
+     * @throws IOException se l'intestazione non è valida
+     */
+    private static ByteBuffer readHeader(final FileChannel ch,
+                                         final Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (ch.read(header, header.position()) < 0) {
+                throw new IOException("Archivio troppo corto: " + file);
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Formato archivio non valido: " + file);
+        }
+        return header;
+    }
+
+    /**
+     * Legge la variante dall'intestazione. Gli archivi scritti prima
+     * dell'introduzione delle varianti hanno zero, cioè la dama classica.
+     *
+     * @param header intestazione letta
+     * @param file   percorso dell'archivio, per i messaggi di errore
+     * @return variante dell'archivio
+     * @throws IOException se la variante è sconosciuta
+     */
+    private static Variant variantOf(final ByteBuffer header, final Path file)
+            throws IOException {
+        int ordinal = header.getInt(VARIANT_OFFSET);
+        if (ordinal < 0 || ordinal >= Variant.values().length) {
+            throw new IOException("Variante sconosciuta " + ordinal
+                    + ": " + file);
+        }
+        return Variant.values()[ordinal];
+    }
+
+    /**
+     * Restituisce il numero di partite.
+     *
+     * @return numero di partite nell'archivio
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Restituisce la posizione della partita nel file.
+     *
+     * @param game indice della partita
+     * @return offset in byte
+     */
+    private long offsetOf(final long game) {
+        if (game < 0 || game >= size) {
+            throw new IndexOutOfBoundsException("Partita " + game);
+        }
+        long pos = indexOffset + game * Long.BYTES;
+        return segments[(int) (pos / SEGMENT_BYTES)]
+                .getLong((int) (pos % SEGMENT_BYTES));
+    }
+
+    /**
+     * Restituisce il risultato della partita.
+     *
+     * @param game indice della partita
+     * @return risultato (vedi {@link GameRecord})
+     */
+    public byte result(final long game) {
+        long pos = offsetOf(game);
+        return segments[(int) (pos / SEGMENT_BYTES)]
+                .get((int) (pos % SEGMENT_BYTES));
+    }
+
+    /**
+     * Restituisce il numero di semimosse della partita.
+     *
+     * @param game indice della partita
+     * @return numero di semimosse
+     */
+    public int plyCount(final long game) {
+        long pos = offsetOf(game);
+        return segments[(int) (pos / SEGMENT_BYTES)]
+                .getChar((int) (pos % SEGMENT_BYTES) + 1);
+    }
+
+    /**
+     * Copia le mosse della partita nell'array indicato, senza allocare.
+     *
+     * @param game  indice della partita
+     * @param moves destinazione (almeno {@link #plyCount} elementi)
+     * @return numero di semimosse copiate
+     */
+    public int moves(final long game, final short[] moves) {
+        long pos = offsetOf(game);
+        MappedByteBuffer segment = segments[(int) (pos / SEGMENT_BYTES)];
+        int base = (int) (pos % SEGMENT_BYTES);
+        int plies = segment.getChar(base + 1);
+        for (int i = 0; i < plies; i++) {
+            moves[i] = segment.getShort(base + GAME_HEADER_BYTES + 2 * i);
+        }
+        return plies;
+    }
+
+    /**
+     * Restituisce la variante delle partite dell'archivio.
+     *
+     * @return variante di gioco
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Legge la partita indicata.
+     *
+     * @param game indice della partita
+     * @return partita registrata (con la sola intestazione GameType)
+     */
+    public GameRecord read(final long game) {
+        short[] moves = new short[plyCount(game)];
+        moves(game, moves);
+        return new GameRecord(Collections.singletonMap(
+                GameRecord.GAME_TYPE_TAG, variant.getGameType()),
+                moves, result(game));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Scrittore in streaming di un archivio. L'indice viene scritto
+     * alla chiusura; aprendo un archivio esistente in accodamento le
+     * nuove partite seguono il vecchio indice, che resta valido finché
+     * la chiusura non aggiorna l'intestazione: un'interruzione durante
+     * l'accodamento lascia l'archivio com'era prima, e il vecchio indice
+     * diventa spazio inutilizzato solo a scrittura completata.
+     */
+    public static final class Writer implements Closeable {
+
+        /** Canale del file. */
+        private final FileChannel channel;
+
+        /** Flusso bufferizzato sul canale. */
+        private final DataOutputStream out;
+
+        /** Posizioni delle partite scritte. */
+        private long[] offsets;
+
+        /** Numero di partite scritte. */
+        private long count;
+
+        /** Posizione corrente nel file. */
+        private long position;
+
+        /** Variante delle partite, fissata dalla prima partita scritta. */
+        private Variant variant;
+
+        /**
+         * Crea un nuovo archivio (sovrascrivendo un file esistente).
+         *
+         * @param file percorso dell'archivio
+         * @throws IOException in caso di errore di scrittura
+         */
+        public Writer(final Path file) throws IOException {
+            this(file, false);
+        }
+
+        /**
+         * Crea un archivio o ne apre uno esistente per accodare partite.
+         *
+         * @param file   percorso dell'archivio
+         * @param append true per accodare a un archivio esistente
+         * @throws IOException in caso di errore di lettura o scrittura
+         */
+        public Writer(final Path file, final boolean append)
+                throws IOException {
+            boolean existing = append && Files.exists(file);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                if (existing) {
+                    ByteBuffer header = readHeader(channel, file);
+                    count = header.getLong(8);
+                    position = header.getLong(16);
+                    variant = variantOf(header, file);
+                    offsets = new long[(int) Math.max(16, count * 2)];
+                    ByteBuffer index = ByteBuffer.allocate(
+                            (int) count * Long.BYTES);
+                    while (index.hasRemaining()) {
+                        if (channel.read(index, position
+                                + index.position()) < 0) {
+                            throw new IOException("Archivio troncato: " + file);
+                        }
+                    }
+                    index.flip();
+                    index.asLongBuffer().get(offsets, 0, (int) count);
+                    // i resti di un accodamento interrotto seguono l'indice
+                    position += count * Long.BYTES;
+                } else {
+                    position = HEADER_BYTES;
+                    offsets = new long[16];
+                }
+                channel.truncate(position);
+                channel.position(position);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+        }
+
+        /**
+         * Accoda una partita. Tutte le partite di un archivio devono
+         * essere della stessa variante.
+         *
+         * @param game partita da scrivere
+         * @throws IOException in caso di errore di scrittura o se la
+         *                     variante è diversa da quella dell'archivio
+         */
+        public void append(final GameRecord game) throws IOException {
+            int plies = game.getPlyCount();
+            if (plies > MAX_PLIES) {
+                throw new IOException("Partita troppo lunga: " + plies);
+            }
+            if (variant == null) {
+                variant = game.getVariant();
+            } else if (variant != game.getVariant()) {
+                throw new IOException("Variante " + game.getVariant()
+                        + " diversa da quella dell'archivio: " + variant);
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[(int) count++] = position;
+
+            out.writeByte(game.getResult());
+            out.writeShort(plies);
+            for (int i = 0; i < plies; i++) {
+                out.writeShort(game.getMove(i));
+            }
+            position += GAME_HEADER_BYTES + 2L * plies;
+        }
+
+        /**
+         * Restituisce il numero di partite nell'archivio.
+         *
+         * @return partite scritte (comprese quelle preesistenti)
+         */
+        public long size() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                for (long i = 0; i < count; i++) {
+                    out.writeLong(offsets[(int) i]);
+                }
+                out.flush();
+                // indice su disco prima dell'intestazione che lo pubblica
+                channel.force(false);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION)
+                        .putLong(count).putLong(position)
+                        .putInt(variant == null ? 0 : variant.ordinal());
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Converte tra PDN e archivio binario.
+     *
+     * @param args file di ingresso e di uscita, con {@code -pdn} in testa
+     *             per convertire un archivio in PDN
+     * @throws IOException in caso di errore di lettura o scrittura
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 3 && "-pdn".equals(args[0])) {
+            try (GameArchive archive = new GameArchive(Paths.get(args[1]));
+                 PdnWriter pdn = new PdnWriter(Files.newBufferedWriter(
+                         Paths.get(args[2]), StandardCharsets.UTF_8))) {
+                for (long g = 0; g < archive.size(); g++) {
+                    pdn.write(archive.read(g));
+                }
+            }
+            return;
+        }
+        if (args.length != 2) {
+            System.err.println("Uso: GameArchive <input.pdn> <output.dga>\n"
+                    + "     GameArchive -pdn <input.dga> <output.pdn>");
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (Reader reader = Files.newBufferedReader(Paths.get(args[0]),
+                StandardCharsets.UTF_8);
+             PdnReader pdn = new PdnReader(reader);
+             Writer archive = new Writer(Paths.get(args[1]))) {
+            GameRecord game;
+            while ((game = pdn.read()) != null) {
+                archive.append(game);
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(archive.size() + " partite in "
+                    + millis + " ms");
+        }
+    }
+}
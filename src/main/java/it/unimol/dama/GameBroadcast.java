@@ -0,0 +1,485 @@
+package it.unimol.dama;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Diffusione di una partita in corso agli spettatori.
+ *
+ * <p>Ogni evento (mossa, annullamento o ripetizione, fine partita) viene
+ * codificato una sola volta dal thread di gioco in un {@link ByteBuffer}
+ * di sola lettura di {@value #FRAME_BYTES} byte e accodato in un registro
+ * circolare condiviso. Il thread di gioco non fa altro: un thread di
+ * smistamento si accorge del nuovo evento e affida la consegna di ogni
+ * spettatore a un {@link Executor}.
+ *
+ * <p>Gli spettatori sono {@link Flow.Subscriber} con contropressione: un
+ * iscritto riceve eventi solo fino alla domanda richiesta e può restare
+ * indietro al più di {@code maxLag} eventi (la sua coda limitata). Chi è
+ * più lento, o si è appena iscritto, riceve invece un'istantanea
+ * ({@link #SNAPSHOT}) dell'ultima posizione e riprende dagli eventi
+ * successivi. Ogni evento contiene comunque la posizione completa, quindi
+ * uno spettatore non deve mai ricostruirla dagli eventi precedenti.
+ *
+ * <p>Formato (big-endian): tipo, sequenza ({@code long}), variante, tre
+ * maschere di {@link Position}, turno, semimossa ({@code int}), codice
+ * della mossa ({@code short}, -1 se assente) ed esito come in
+ * {@link GameRecord}. Ogni spettatore riceve una vista propria dello
+ * stesso contenuto; i metodi statici {@link #type}, {@link #position} e
+ * gli altri leggono i campi con accessi assoluti.
+ */
+public final class GameBroadcast implements Flow.Publisher<ByteBuffer>,
+        AutoCloseable {
+
+    /** Evento: mossa giocata. */
+    public static final byte MOVE = 1;
+
+    /** Evento: posizione cambiata da un annullamento o una ripetizione. */
+    public static final byte POSITION = 2;
+
+    /** Evento: partita finita. */
+    public static final byte GAME_OVER = 3;
+
+    /** Evento: istantanea per uno spettatore nuovo o rimasto indietro. */
+    public static final byte SNAPSHOT = 4;
+
+    /** Dimensione di un evento codificato. */
+    public static final int FRAME_BYTES = 42;
+
+    /** Ritardo massimo predefinito di uno spettatore, in eventi. */
+    public static final int DEFAULT_MAX_LAG = 64;
+
+    /** Posizione della sequenza nell'evento. */
+    private static final int SEQUENCE_AT = 1;
+
+    /** Posizione della variante nell'evento. */
+    private static final int VARIANT_AT = 9;
+
+    /** Posizione delle caselle del bianco nell'evento. */
+    private static final int WHITE_AT = 10;
+
+    /** Posizione delle caselle del nero nell'evento. */
+    private static final int BLACK_AT = 18;
+
+    /** Posizione delle dame nell'evento. */
+    private static final int KINGS_AT = 26;
+
+    /** Posizione del turno nell'evento. */
+    private static final int TURN_AT = 34;
+
+    /** Posizione della semimossa nell'evento. */
+    private static final int PLY_AT = 35;
+
+    /** Posizione del codice della mossa nell'evento. */
+    private static final int MOVE_AT = 39;
+
+    /** Posizione dell'esito nell'evento. */
+    private static final int RESULT_AT = 41;
+
+    /** Esecutore delle consegne. */
+    private final Executor executor;
+
+    /** Ritardo massimo di uno spettatore prima dell'istantanea. */
+    private final int maxLag;
+
+    /** Registro circolare degli ultimi eventi. */
+    private final ByteBuffer[] log;
+
+    /** Spettatori iscritti. */
+    private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+
+    /** Thread di smistamento. */
+    private final Thread dispatcher;
+
+    /** Sequenza dell'ultimo evento pubblicato, -1 se nessuno. */
+    private volatile long published = -1;
+
+    /** Ultima istantanea costruita, o null. */
+    private volatile ByteBuffer snapshot;
+
+    /** True dopo {@link #close()}. */
+    private volatile boolean closed;
+
+    /** Eventi consegnati agli spettatori. */
+    private final LongAdder delivered = new LongAdder();
+
+    /** Istantanee consegnate al posto degli eventi persi. */
+    private final LongAdder snapshots = new LongAdder();
+
+    /**
+     * Crea la diffusione con il ritardo massimo predefinito, consegnando
+     * gli eventi con il pool comune.
+     */
+    public GameBroadcast() {
+        this(ForkJoinPool.commonPool(), DEFAULT_MAX_LAG);
+    }
+
+    /**
+     * Crea la diffusione.
+     *
+     * @param executorArg esecutore delle consegne agli spettatori
+     * @param maxLagArg   eventi che uno spettatore può avere in coda
+     * @throws IllegalArgumentException se il ritardo non è positivo
+     */
+    public GameBroadcast(final Executor executorArg, final int maxLagArg) {
+        if (maxLagArg <= 0) {
+            throw new IllegalArgumentException(
+                    "Ritardo non valido: " + maxLagArg);
+        }
+        this.executor = executorArg;
+        this.maxLag = maxLagArg;
+        // almeno il doppio del ritardo: un evento in consegna non viene
+        // sovrascritto finché lo spettatore resta entro il limite
+        this.log = new ByteBuffer[Integer.highestOneBit(maxLagArg) << 2];
+        this.dispatcher = new Thread(this::dispatch, "dama-broadcast");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Pubblica una mossa giocata. Va chiamato dal thread di gioco. Una
+     * presa senza codice compatto (vedi {@link Move#isEncodable()}) viene
+     * pubblicata come semplice cambio di posizione.
+     *
+     * @param move     mossa
+     * @param position posizione dopo la mossa
+     */
+    public void moveMade(final Move move, final Position position) {
+        if (!move.isEncodable()) {
+            positionChanged(position);
+            return;
+        }
+        publish(MOVE, position, move.encode(), GameRecord.UNFINISHED);
+    }
+
+    /**
+     * Pubblica una posizione cambiata senza una nuova mossa (annullamento
+     * o ripetizione). Va chiamato dal thread di gioco.
+     *
+     * @param position nuova posizione
+     */
+    public void positionChanged(final Position position) {
+        publish(POSITION, position, (short) -1, GameRecord.UNFINISHED);
+    }
+
+    /**
+     * Pubblica la fine della partita. Va chiamato dal thread di gioco.
+     *
+     * @param position posizione finale
+     * @param result   esito ({@link GameRecord#WHITE_WIN},
+     *                 {@link GameRecord#BLACK_WIN} o {@link GameRecord#DRAW})
+     */
+    public void gameOver(final Position position, final byte result) {
+        publish(GAME_OVER, position, (short) -1, result);
+    }
+
+    /**
+     * Codifica l'evento, lo accoda nel registro e sveglia lo smistamento.
+     *
+     * @param type     tipo dell'evento
+     * @param position posizione
+     * @param move     codice della mossa, o -1
+     * @param result   esito della partita
+     */
+    private void publish(final byte type, final Position position,
+                         final short move, final byte result) {
+        long sequence = published + 1;
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES);
+        frame.put(type).putLong(sequence)
+                .put((byte) position.getVariant().ordinal())
+                .putLong(position.getWhite()).putLong(position.getBlack())
+                .putLong(position.getKings())
+                .put((byte) (position.isWhiteTurn() ? 1 : 0))
+                .putInt(position.getPly()).putShort(move).put(result);
+        frame.flip();
+        log[(int) sequence & (log.length - 1)] = frame.asReadOnlyBuffer();
+        published = sequence;
+        LockSupport.unpark(dispatcher);
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ByteBuffer> s) {
+        Viewer viewer = new Viewer(s);
+        viewers.add(viewer);
+        s.onSubscribe(viewer);
+        if (closed) {
+            viewer.schedule();
+        }
+    }
+
+    /**
+     * Restituisce la sequenza dell'ultimo evento pubblicato.
+     *
+     * @return sequenza, o -1 se non è stato pubblicato nulla
+     */
+    public long getSequence() {
+        return published;
+    }
+
+    /**
+     * Restituisce il numero di spettatori iscritti.
+     *
+     * @return spettatori
+     */
+    public int getSubscriberCount() {
+        return viewers.size();
+    }
+
+    /**
+     * Restituisce gli eventi consegnati, istantanee comprese.
+     *
+     * @return eventi consegnati a tutti gli spettatori
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * Restituisce le istantanee consegnate a spettatori nuovi o rimasti
+     * indietro.
+     *
+     * @return istantanee consegnate
+     */
+    public long getSnapshots() {
+        return snapshots.sum();
+    }
+
+    /**
+     * Termina la diffusione: gli spettatori ricevono gli eventi ancora
+     * consegnabili e poi {@code onComplete}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Ciclo del thread di smistamento: a ogni nuovo evento pianifica la
+     * consegna per gli spettatori che hanno domanda.
+     */
+    private void dispatch() {
+        long seen = -1;
+        while (true) {
+            boolean ending = closed;
+            long head = published;
+            if (head != seen || ending) {
+                seen = head;
+                for (Viewer viewer : viewers) {
+                    viewer.schedule();
+                }
+                if (ending) {
+                    return;
+                }
+            }
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Restituisce l'istantanea dell'ultimo evento, costruendola una sola
+     * volta per sequenza.
+     *
+     * @param head sequenza dell'ultimo evento
+     * @return istantanea di sola lettura, o null se l'evento è già stato
+     *         sovrascritto
+     */
+    private ByteBuffer snapshotOf(final long head) {
+        ByteBuffer current = snapshot;
+        if (current != null && current.getLong(SEQUENCE_AT) == head) {
+            return current;
+        }
+        ByteBuffer frame = log[(int) head & (log.length - 1)];
+        if (frame == null || frame.getLong(SEQUENCE_AT) != head) {
+            return null;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(FRAME_BYTES);
+        copy.put(frame.duplicate()).put(0, SNAPSHOT).flip();
+        current = copy.asReadOnlyBuffer();
+        snapshot = current;
+        return current;
+    }
+
+    /**
+     * Restituisce il tipo dell'evento.
+     *
+     * @param frame evento ricevuto
+     * @return {@link #MOVE}, {@link #POSITION}, {@link #GAME_OVER} o
+     *         {@link #SNAPSHOT}
+     */
+    public static byte type(final ByteBuffer frame) {
+        return frame.get(0);
+    }
+
+    /**
+     * Restituisce la sequenza dell'evento: un salto indica eventi persi
+     * (sostituiti da un'istantanea).
+     *
+     * @param frame evento ricevuto
+     * @return numero progressivo dell'evento
+     */
+    public static long sequence(final ByteBuffer frame) {
+        return frame.getLong(SEQUENCE_AT);
+    }
+
+    /**
+     * Decodifica la posizione dell'evento.
+     *
+     * @param frame evento ricevuto
+     * @return posizione dopo l'evento
+     */
+    public static Position position(final ByteBuffer frame) {
+        return Position.of(Variant.values()[frame.get(VARIANT_AT)],
+                frame.getLong(WHITE_AT), frame.getLong(BLACK_AT),
+                frame.getLong(KINGS_AT), frame.get(TURN_AT) != 0,
+                frame.getInt(PLY_AT));
+    }
+
+    /**
+     * Restituisce il codice della mossa dell'evento.
+     *
+     * @param frame evento ricevuto
+     * @return codice di {@link Move#encode()}, o -1 se non è una mossa
+     */
+    public static short moveCode(final ByteBuffer frame) {
+        return frame.getShort(MOVE_AT);
+    }
+
+    /**
+     * Restituisce l'esito della partita al momento dell'evento.
+     *
+     * @param frame evento ricevuto
+     * @return esito come in {@link GameRecord}
+     */
+    public static byte result(final ByteBuffer frame) {
+        return frame.get(RESULT_AT);
+    }
+
+    /**
+     * Iscrizione di uno spettatore. La consegna è serializzata da
+     * {@link #wip}: una sola esecuzione di {@link #drain()} alla volta,
+     * ripetuta se nel frattempo è arrivato altro lavoro.
+     */
+    private final class Viewer implements Flow.Subscription, Runnable {
+
+        /** Spettatore. */
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+        /** Eventi richiesti e non ancora consegnati. */
+        private final AtomicLong demand = new AtomicLong();
+
+        /** Consegne pianificate o in corso. */
+        private final AtomicInteger wip = new AtomicInteger();
+
+        /** Prossima sequenza da consegnare, -1 prima dell'istantanea. */
+        private long cursor = -1;
+
+        /** True dopo la cancellazione o la terminazione. */
+        private volatile boolean done;
+
+        /**
+         * Crea l'iscrizione.
+         *
+         * @param subscriberArg spettatore
+         */
+        Viewer(final Flow.Subscriber<? super ByteBuffer> subscriberArg) {
+            this.subscriber = subscriberArg;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                done = true;
+                viewers.remove(this);
+                subscriber.onError(new IllegalArgumentException(
+                        "Domanda non positiva: " + n));
+                return;
+            }
+            long current;
+            do {
+                current = demand.get();
+            } while (!demand.compareAndSet(current,
+                    current + n < 0 ? Long.MAX_VALUE : current + n));
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            viewers.remove(this);
+        }
+
+        /**
+         * Pianifica la consegna se non è già in corso.
+         */
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Consegna gli eventi disponibili fino alla domanda, sostituendo
+         * con un'istantanea quelli che non sono più nel registro.
+         */
+        private void drain() {
+            while (!done) {
+                long head = published;
+                if (cursor > head || demand.get() == 0 || head < 0) {
+                    break;
+                }
+                ByteBuffer frame;
+                if (cursor < 0 || head - cursor >= maxLag) {
+                    frame = snapshotOf(head);
+                    if (frame == null) {
+                        continue;
+                    }
+                    snapshots.increment();
+                    cursor = head + 1;
+                } else {
+                    frame = log[(int) cursor & (log.length - 1)];
+                    if (frame.getLong(SEQUENCE_AT) != cursor) {
+                        // sovrascritto nel frattempo: si riparte
+                        // dall'istantanea
+                        cursor = -1;
+                        continue;
+                    }
+                    cursor++;
+                }
+                demand.decrementAndGet();
+                delivered.increment();
+                try {
+                    subscriber.onNext(frame.duplicate());
+                } catch (RuntimeException e) {
+                    cancel();
+                    subscriber.onError(e);
+                }
+            }
+            // senza domanda si attende la prossima request: l'ultimo
+            // evento va consegnato prima della terminazione
+            long head = published;
+            if (!done && closed && (head < 0 || cursor > head)) {
+                done = true;
+                viewers.remove(this);
+                subscriber.onComplete();
+            }
+        }
+    }
+}
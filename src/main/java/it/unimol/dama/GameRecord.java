@@ -0,0 +1,168 @@
+package it.unimol.dama;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partita registrata: intestazioni, mosse in forma compatta
+ * (vedi {@link Move#encode()}) e risultato.
+ */
+public final class GameRecord {
+
+    /** Risultato: vittoria del bianco. */
+    public static final byte WHITE_WIN = TrainingSet.WHITE_WIN;
+
+    /** Risultato: patta. */
+    public static final byte DRAW = TrainingSet.DRAW;
+
+    /** Risultato: vittoria del nero. */
+    public static final byte BLACK_WIN = TrainingSet.BLACK_WIN;
+
+    /** Risultato: partita non terminata o sconosciuto. */
+    public static final byte UNFINISHED = 3;
+
+    /** Intestazione PDN con la variante di gioco. */
+    public static final String GAME_TYPE_TAG = "GameType";
+
+    /** Intestazioni (coppie nome/valore) nell'ordine originale. */
+    private final Map<String, String> tags;
+
+    /** Mosse in forma compatta. */
+    private final short[] moves;
+
+    /** Risultato della partita. */
+    private final byte result;
+
+    /**
+     * Crea una partita registrata.
+     *
+     * @param tagsArg   intestazioni
+     * @param movesArg  mosse in forma compatta
+     * @param resultArg risultato
+     */
+    public GameRecord(final Map<String, String> tagsArg,
+                      final short[] movesArg, final byte resultArg) {
+        this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(tagsArg));
+        this.moves = movesArg.clone();
+        this.result = resultArg;
+    }
+
+    /**
+     * Registra la partita giocata finora dal controller.
+     *
+     * @param controller controller della partita
+     * @param resultArg  risultato da associare
+     * @return partita registrata
+     * @throws IllegalStateException se una presa non ha un codice
+     *                               compatto (vedi {@link Move#isEncodable()})
+     */
+    public static GameRecord of(final Controller controller,
+                                final byte resultArg) {
+        List<Move> history = controller.getMoveHistory();
+        short[] codes = new short[history.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = history.get(i).encode();
+        }
+        return new GameRecord(Collections.singletonMap(GAME_TYPE_TAG,
+                controller.getBoard().getVariant().getGameType()),
+                codes, resultArg);
+    }
+
+    /**
+     * Converte il valore di {@link Controller#checkGameOver()} in risultato.
+     *
+     * @param status 1 vince il bianco, -1 vince il nero, 0 patta, altro
+     *               in corso
+     * @return risultato corrispondente
+     */
+    public static byte resultOf(final int status) {
+        if (status == 1) {
+            return WHITE_WIN;
+        }
+        if (status == -1) {
+            return BLACK_WIN;
+        }
+        if (status == 0) {
+            return DRAW;
+        }
+        return UNFINISHED;
+    }
+
+    /**
+     * Restituisce le intestazioni.
+     *
+     * @return mappa non modificabile delle intestazioni
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Restituisce la variante indicata dall'intestazione GameType.
+     *
+     * @return variante della partita ({@link Variant#CLASSIC} in mancanza
+     *         dell'intestazione)
+     */
+    public Variant getVariant() {
+        return Variant.fromGameType(tags.get(GAME_TYPE_TAG));
+    }
+
+    /**
+     * Restituisce il numero di semimosse.
+     *
+     * @return numero di mosse
+     */
+    public int getPlyCount() {
+        return moves.length;
+    }
+
+    /**
+     * Restituisce la mossa compatta alla semimossa indicata.
+     *
+     * @param ply indice della semimossa (da 0)
+     * @return codice della mossa
+     */
+    public short getMove(final int ply) {
+        return moves[ply];
+    }
+
+    /**
+     * Restituisce una copia delle mosse compatte.
+     *
+     * @return codici delle mosse
+     */
+    public short[] getMoves() {
+        return moves.clone();
+    }
+
+    /**
+     * Restituisce il risultato.
+     *
+     * @return {@link #WHITE_WIN}, {@link #DRAW}, {@link #BLACK_WIN}
+     *         o {@link #UNFINISHED}
+     */
+    public byte getResult() {
+        return result;
+    }
+
+    /**
+     * Rigioca le mosse su un nuovo controller della variante della partita.
+     *
+     * @return controller nella posizione finale
+     * @throws IllegalStateException se una mossa non è legale
+     */
+    public Controller replay() {
+        Controller controller = new Controller(getVariant());
+        for (int ply = 0; ply < moves.length; ply++) {
+            Move move = Move.decode(moves[ply],
+                    controller.getAllPossibleMoves(controller.isWhiteTurn()));
+            if (move == null || !controller.makeMove(move)) {
+                throw new IllegalStateException(
+                        "Mossa illegale alla semimossa " + (ply + 1));
+            }
+        }
+        return controller;
+    }
+}
@@ -1,14 +1,20 @@
 package it.unimol.dama;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Slider;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.scene.shape.Rectangle;
@@ -17,12 +23,25 @@ import javafx.stage.Stage;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Gestisce l'interfaccia grafica del gioco tramite JavaFX.
  */
 public class Graphic extends Application {
 
+    /** Parametro dell'applicazione con la variante ({@code --variant=...}). */
+    public static final String VARIANT_PARAMETER = "variant";
+
+    /** Proprietà di sistema con la variante, se manca il parametro. */
+    public static final String VARIANT_PROPERTY = "dama.variant";
+
+    /** Parametro dell'applicazione con il livello ({@code --level=...}). */
+    public static final String LEVEL_PARAMETER = "level";
+
+    /** Proprietà di sistema con il livello, se manca il parametro. */
+    public static final String LEVEL_PROPERTY = "dama.level";
+
     /** Lato di una singola casella della scacchiera (in px). */
     private static final int TILE_SIZE = 80;
 
@@ -38,9 +57,24 @@ public class Graphic extends Application {
     /** Opacità del marker per una mossa possibile. */
     private static final double MOVE_MARKER_ALPHA = 0.5;
 
+    /** Altezza riservata al cursore della cronologia (in px). */
+    private static final int TIMELINE_HEIGHT = 40;
+
+    /** Larghezza della barra di valutazione (in px). */
+    private static final int EVAL_BAR_WIDTH = 20;
+
+    /** Valore (una pedina di vantaggio) che riempie circa 7/8 della barra. */
+    private static final double EVAL_SCALE = 100.0;
+
+    /** Opacità dell'evidenziazione della mossa consigliata. */
+    private static final double HINT_ALPHA = 0.35;
+
     /** Controller della logica di gioco. */
     private Controller controller;
 
+    /** Avversario con livello di gioco, o null per la profondità fissa. */
+    private EngineSession opponent;
+
     /** Griglia principale con le caselle. */
     private GridPane grid;
 
@@ -53,6 +87,33 @@ public class Graphic extends Application {
     /** Mosse disponibili per la pedina selezionata. */
     private List<Move> availableMoves = new ArrayList<>();
 
+    /** Cursore per rivedere la partita semimossa per semimossa. */
+    private Slider timelineSlider;
+
+    /** Posizioni della partita per il cursore, o null se da ricreare. */
+    private ReplayTimeline timeline;
+
+    /** Posizione passata mostrata dal cursore, o null per quella attuale. */
+    private Board reviewBoard;
+
+    /** Ultima semimossa richiesta al cursore. */
+    private int requestedPly;
+
+    /** Analisi in background della posizione corrente. */
+    private LiveAnalysis analysis;
+
+    /** Legge l'analisi una volta per frame. */
+    private AnimationTimer analysisTimer;
+
+    /** Parte nera della barra di valutazione (in alto). */
+    private Rectangle evalBlack;
+
+    /** Parte bianca della barra di valutazione (in basso). */
+    private Rectangle evalWhite;
+
+    /** Ultimo risultato dell'analisi per la posizione corrente, o null. */
+    private PvLine hint;
+
     /**
      * Inizializza e mostra la scena della scacchiera.
      *
@@ -60,30 +121,180 @@ public class Graphic extends Application {
      */
     @Override
     public void start(final Stage primaryStage) {
-        controller = new Controller();
+        controller = new Controller(selectedVariant());
+        Difficulty level = selectedLevel();
+        opponent = level == null ? null : new EngineSession(level);
         grid = new GridPane();
         grid.setAlignment(Pos.CENTER);
         drawBoard();
 
-        int size = Board.SIZE * TILE_SIZE;
-        Scene scene = new Scene(grid, size, size);
+        timelineSlider = new Slider(0, 0, 0);
+        timelineSlider.setBlockIncrement(1);
+        timelineSlider.setMajorTickUnit(1);
+        timelineSlider.setMinorTickCount(0);
+        timelineSlider.setSnapToTicks(true);
+        timelineSlider.valueProperty().addListener((obs, old, value) ->
+                seek((int) Math.round(value.doubleValue())));
+
+        int size = controller.getBoard().getSize() * TILE_SIZE;
+        evalBlack = new Rectangle(EVAL_BAR_WIDTH, size / 2.0, Color.BLACK);
+        evalWhite = new Rectangle(EVAL_BAR_WIDTH, size / 2.0, Color.WHITE);
+        evalWhite.setStroke(Color.GRAY);
+        VBox evalBar = new VBox(evalBlack, evalWhite);
+
+        VBox root = new VBox(new HBox(evalBar, grid), timelineSlider);
+        Scene scene = new Scene(root, size + EVAL_BAR_WIDTH,
+                size + TIMELINE_HEIGHT);
+        scene.addEventHandler(KeyEvent.KEY_PRESSED, this::handleKey);
         primaryStage.setTitle("Dama");
         primaryStage.setScene(scene);
         primaryStage.show();
 
+        analysis = new LiveAnalysis();
+        analysis.analyze(controller.getPosition());
+        analysisTimer = new AnimationTimer() {
+            @Override
+            public void handle(final long now) {
+                // al più un aggiornamento per frame, qualunque sia il
+                // numero di risultati prodotti nel frattempo
+                PvLine update = analysis.takeUpdate();
+                if (update != null) {
+                    showAnalysis(update);
+                }
+            }
+        };
+        analysisTimer.start();
+
         if (!controller.isWhiteTurn()) {
             Platform.runLater(this::performAIMove);
         }
     }
 
+    /**
+     * Ferma l'analisi in background alla chiusura della finestra.
+     */
+    @Override
+    public void stop() {
+        if (analysisTimer != null) {
+            analysisTimer.stop();
+        }
+        if (analysis != null) {
+            analysis.close();
+        }
+    }
+
+    /**
+     * Aggiorna la barra di valutazione e la mossa consigliata.
+     *
+     * @param line risultato dell'analisi della posizione corrente
+     */
+    private void showAnalysis(final PvLine line) {
+        hint = line;
+        double height = evalBlack.getHeight() + evalWhite.getHeight();
+        // il valore è dal punto di vista del nero
+        double black = (1 + Math.tanh(line.getScore() / EVAL_SCALE)) / 2;
+        evalBlack.setHeight(height * black);
+        evalWhite.setHeight(height - height * black);
+        drawBoard();
+    }
+
+    /**
+     * Legge la variante dal parametro {@value #VARIANT_PARAMETER} o dalla
+     * proprietà {@value #VARIANT_PROPERTY} (ad esempio
+     * {@code international}); in mancanza usa la dama classica.
+     *
+     * @return variante di gioco
+     */
+    private Variant selectedVariant() {
+        String name = getParameters().getNamed().get(VARIANT_PARAMETER);
+        if (name == null) {
+            name = System.getProperty(VARIANT_PROPERTY);
+        }
+        if (name == null) {
+            return Variant.CLASSIC;
+        }
+        try {
+            return Variant.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Variante sconosciuta: " + name
+                    + " (uso la dama classica)");
+            return Variant.CLASSIC;
+        }
+    }
+
+    /**
+     * Legge il livello dell'IA dal parametro {@value #LEVEL_PARAMETER} o
+     * dalla proprietà {@value #LEVEL_PROPERTY} (ad esempio {@code easy}).
+     *
+     * @return livello scelto, o null per la ricerca a profondità fissa
+     */
+    private Difficulty selectedLevel() {
+        String name = getParameters().getNamed().get(LEVEL_PARAMETER);
+        if (name == null) {
+            name = System.getProperty(LEVEL_PROPERTY);
+        }
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Difficulty.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Livello sconosciuto: " + name
+                    + " (uso la profondità fissa)");
+            return null;
+        }
+    }
+
+    /**
+     * Mostra la posizione dopo le semimosse indicate. Le posizioni passate
+     * vengono ricostruite in background da {@link ReplayTimeline} e
+     * disegnate quando sono pronte; la posizione attuale torna giocabile.
+     *
+     * @param ply semimosse da mostrare
+     */
+    private void seek(final int ply) {
+        requestedPly = ply;
+        if (ply >= controller.getPly()) {
+            reviewBoard = null;
+            drawBoard();
+            return;
+        }
+        if (timeline == null) {
+            timeline = new ReplayTimeline(controller.getBoard().getVariant(),
+                    controller.getMoveHistory());
+        }
+        timeline.seek(ply).thenAcceptAsync(position -> {
+            // scarta le posizioni superate da una richiesta più recente
+            if (requestedPly == ply) {
+                reviewBoard = position;
+                drawBoard();
+            }
+        }, Platform::runLater);
+    }
+
+    /**
+     * Aggiorna il cursore e riavvia l'analisi dopo una mossa, un
+     * annullamento o una ripetizione, tornando alla posizione attuale.
+     */
+    private void positionChanged() {
+        hint = null;
+        analysis.analyze(controller.getPosition());
+        timeline = null;
+        timelineSlider.setMax(controller.getPly());
+        timelineSlider.setValue(controller.getPly());
+        seek(controller.getPly());
+    }
+
     /**
      * Disegna (o ridisegna) la scacchiera e i pezzi.
      */
     private void drawBoard() {
         grid.getChildren().clear();
+        Board shown = reviewBoard != null ? reviewBoard : controller.getBoard();
+        int boardSize = shown.getSize();
 
-        for (int row = 0; row < Board.SIZE; row++) {
-            for (int col = 0; col < Board.SIZE; col++) {
+        for (int row = 0; row < boardSize; row++) {
+            for (int col = 0; col < boardSize; col++) {
                 StackPane square = new StackPane();
                 Rectangle rect = new Rectangle(TILE_SIZE, TILE_SIZE);
 
@@ -95,7 +306,7 @@ public class Graphic extends Application {
                 }
                 square.getChildren().add(rect);
 
-                Piece piece = controller.getBoard().getPiece(row, col);
+                Piece piece = shown.getPiece(row, col);
                 if (piece != null) {
                     Circle circle = new Circle(
                             TILE_SIZE * PIECE_RADIUS_FACTOR
@@ -139,6 +350,23 @@ public class Graphic extends Application {
             }
         }
 
+        // Evidenzia la mossa consigliata dall'analisi al giocatore
+        if (hint != null && reviewBoard == null && controller.isWhiteTurn()
+                && selectedRow == -1) {
+            Move move = hint.getMove();
+            StackPane[] squares = {
+                getSquare(move.getStartRow(), move.getStartCol()),
+                getSquare(move.getEndRow(), move.getEndCol())
+            };
+            for (StackPane square : squares) {
+                if (square != null) {
+                    Rectangle highlight = new Rectangle(TILE_SIZE, TILE_SIZE);
+                    highlight.setFill(new Color(0, 0, 1, HINT_ALPHA));
+                    square.getChildren().add(highlight);
+                }
+            }
+        }
+
         // Marca le mosse disponibili della pedina selezionata
         for (Move move : availableMoves) {
             StackPane square = getSquare(move.getEndRow(), move.getEndCol());
@@ -161,7 +389,7 @@ public class Graphic extends Application {
      * @param col colonna cliccata
      */
     private void handleClick(final int row, final int col) {
-        if (!controller.isWhiteTurn()) {
+        if (!controller.isWhiteTurn() || reviewBoard != null) {
             return;
         }
 
@@ -188,7 +416,7 @@ public class Graphic extends Application {
                     availableMoves.clear();
                     selectedRow = -1;
                     selectedCol = -1;
-                    drawBoard();
+                    positionChanged();
 
                     int result = controller.checkGameOver();
                     if (result != 2) {
@@ -207,9 +435,45 @@ public class Graphic extends Application {
         }
     }
 
+    /**
+     * Gestisce le scorciatoie da tastiera: Ctrl+Z annulla e Ctrl+Y ripete
+     * un turno intero (la mossa del giocatore e la risposta dell'IA).
+     *
+     * @param event tasto premuto
+     */
+    private void handleKey(final KeyEvent event) {
+        if (!event.isShortcutDown() || !controller.isWhiteTurn()) {
+            return;
+        }
+        if (event.getCode() == KeyCode.Z) {
+            // torna sempre a una posizione con il bianco al tratto
+            controller.undo();
+            if (!controller.isWhiteTurn()) {
+                controller.undo();
+            }
+        } else if (event.getCode() == KeyCode.Y) {
+            controller.redo();
+            if (!controller.isWhiteTurn()) {
+                controller.redo();
+            }
+        } else {
+            return;
+        }
+        selectedRow = -1;
+        selectedCol = -1;
+        availableMoves.clear();
+        positionChanged();
+        event.consume();
+        if (!controller.isWhiteTurn()) {
+            // la cronologia finiva con la mossa del bianco
+            Platform.runLater(this::performAIMove);
+        }
+    }
+
     /**
      * Calcola le mosse disponibili per la pedina alla posizione indicata.
-     * Se esistono catture obbligatorie, restituisce solo le catture.
+     * Se esistono catture obbligatorie, restituisce solo le catture
+     * (nella dama internazionale, solo quelle con più prese).
      *
      * @param row riga della pedina
      * @param col colonna della pedina
@@ -217,29 +481,14 @@ public class Graphic extends Application {
      * @return lista delle mosse disponibili
      */
     private List<Move> getAvailableMoves(final int row, final int col) {
-        List<Move> moves =
-                Move.getPossibleMoves(controller.getBoard(), row, col);
-
-        List<Move> allValidMoves = controller.getAllPossibleMoves(true);
-        boolean compulsoryExists = false;
+        List<Move> moves = new ArrayList<>();
 
-        for (Move m : allValidMoves) {
-            if (m.isCapture()) {
-                compulsoryExists = true;
-                break;
+        for (Move m : controller.getAllPossibleMoves(true)) {
+            if (m.getStartRow() == row && m.getStartCol() == col) {
+                moves.add(m);
             }
         }
 
-        if (compulsoryExists) {
-            List<Move> captureMoves = new ArrayList<>();
-            for (Move m : moves) {
-                if (m.isCapture()) {
-                    captureMoves.add(m);
-                }
-            }
-            return captureMoves;
-        }
-
         return moves;
     }
 
@@ -270,10 +519,11 @@ public class Graphic extends Application {
             return;
         }
 
-        Move aiMove = MinMax.getBestMove(controller);
+        Move aiMove = opponent == null ? MinMax.getBestMove(controller)
+                : opponent.chooseMove(controller);
         if (aiMove != null) {
             controller.makeMove(aiMove);
-            drawBoard();
+            positionChanged();
 
             int result = controller.checkGameOver();
             if (result != 2) {
@@ -0,0 +1,34 @@
+package it.unimol.dama;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR emesso al termine di ogni iterazione dell'approfondimento
+ * iterativo di {@link MinMax}.
+ */
+@Name("it.unimol.dama.Iteration")
+@Label("Iterazione IA")
+@Category({"Dama", "Ricerca"})
+@Description("Singola iterazione dell'approfondimento iterativo")
+final class IterationEvent extends Event {
+
+    /** Profondità dell'iterazione. */
+    @Label("Profondità")
+    int depth;
+
+    /** Nodi visitati nell'iterazione. */
+    @Label("Nodi")
+    long nodes;
+
+    /** Rapporto tra i nodi di questa iterazione e della precedente. */
+    @Label("Ramificazione effettiva")
+    double effectiveBranching;
+
+    /** Valore della mossa migliore dell'iterazione. */
+    @Label("Valore")
+    int score;
+}
@@ -0,0 +1,220 @@
+package it.unimol.dama;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Analisi continua in background della posizione corrente, per mostrare
+ * la valutazione e la mossa consigliata mentre si gioca.
+ *
+ * <p>Un thread dedicato esegue {@link MinMax#search} con approfondimento
+ * iterativo fino a {@link #MAX_DEPTH}. A ogni nuova posizione indicata con
+ * {@link #analyze} la ricerca in corso viene interrotta e riparte subito da
+ * profondità 1, così la prima stima arriva in pochi millisecondi e
+ * migliora a ogni iterazione. La ricerca usa al più la quota di CPU
+ * indicata (proprietà {@value #CPU_PROPERTY}, predefinita
+ * {@value #DEFAULT_CPU_SHARE}).
+ *
+ * <p>I risultati non vengono spinti verso l'interfaccia: si conserva solo
+ * l'ultimo, che chi disegna legge con {@link #takeUpdate()} al ritmo che
+ * preferisce (ad esempio una volta per frame), senza code di eventi.
+ */
+public final class LiveAnalysis implements AutoCloseable {
+
+    /** Proprietà di sistema con la quota di CPU dell'analisi. */
+    public static final String CPU_PROPERTY = "dama.analysis.cpu";
+
+    /** Quota di CPU predefinita (metà di un core). */
+    public static final double DEFAULT_CPU_SHARE = 0.5;
+
+    /** Profondità massima dell'analisi. */
+    public static final int MAX_DEPTH = 12;
+
+    /** Thread dell'analisi. */
+    private final Thread worker;
+
+    /** Stato della ricerca, riusato tra le posizioni. */
+    private final SearchState state = new SearchState();
+
+    /** Posizione da analizzare, o null se nessuna. */
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+
+    /** Ultimo risultato non ancora letto, o null. */
+    private final AtomicReference<Update> latest = new AtomicReference<>();
+
+    /** Numero della posizione corrente, per scartare i risultati vecchi. */
+    private volatile long generation;
+
+    /** True dopo {@link #close()}. */
+    private volatile boolean closed;
+
+    /**
+     * Crea l'analisi con la quota di CPU della proprietà
+     * {@value #CPU_PROPERTY}.
+     */
+    public LiveAnalysis() {
+        this(configuredShare());
+    }
+
+    /**
+     * Crea l'analisi e ne avvia il thread, in attesa di una posizione.
+     *
+     * @param cpuShare frazione di un core, tra 0 (escluso) e 1
+     * @throws IllegalArgumentException se la quota non è valida
+     */
+    public LiveAnalysis(final double cpuShare) {
+        state.setCpuShare(cpuShare);
+        worker = new Thread(this::run, "dama-analysis");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * Indica la nuova posizione da analizzare, interrompendo l'analisi
+     * della precedente. La posizione è immutabile: non viene copiata.
+     *
+     * @param position posizione, con il turno
+     */
+    public synchronized void analyze(final Position position) {
+        long next = ++generation;
+        latest.set(null);
+        pending.set(new Request(position, next));
+        state.stop();
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Restituisce l'ultimo risultato per la posizione corrente, se non è
+     * già stato letto.
+     *
+     * @return linea con mossa consigliata, valore (dal punto di vista del
+     *         nero) e profondità, o null se non c'è nulla di nuovo
+     */
+    public PvLine takeUpdate() {
+        Update update = latest.getAndSet(null);
+        return update == null || update.generation != generation
+                ? null : update.line;
+    }
+
+    /**
+     * Ferma il thread dell'analisi.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        state.stop();
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Ciclo del thread: analizza l'ultima posizione indicata, poi attende
+     * la successiva.
+     */
+    private void run() {
+        while (!closed) {
+            Request request = pending.getAndSet(null);
+            if (request == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            // reset() cancella anche una stop() arrivata dopo la lettura:
+            // in quel caso c'è già una richiesta più recente, o la chiusura
+            state.reset();
+            if (closed || pending.get() != null) {
+                continue;
+            }
+            state.setIterationListener(s -> publish(request.generation, s));
+            try {
+                MinMax.search(request.position, MAX_DEPTH, state);
+            } catch (RuntimeException e) {
+                System.err.println("Analisi interrotta: " + e);
+            }
+        }
+    }
+
+    /**
+     * Pubblica il risultato di un'iterazione, se la posizione è ancora
+     * quella corrente.
+     *
+     * @param gen numero della posizione analizzata
+     * @param s   stato della ricerca
+     */
+    private void publish(final long gen, final SearchState s) {
+        if (gen == generation && s.getBestMove() != null) {
+            latest.set(new Update(gen, new PvLine(
+                    Collections.singletonList(s.getBestMove()),
+                    s.getScore(), s.getCompletedDepth())));
+        }
+    }
+
+    /**
+     * Legge la quota di CPU dalla proprietà di sistema.
+     *
+     * @return quota configurata, o {@link #DEFAULT_CPU_SHARE}
+     */
+    private static double configuredShare() {
+        String configured = System.getProperty(CPU_PROPERTY);
+        if (configured == null) {
+            return DEFAULT_CPU_SHARE;
+        }
+        try {
+            double share = Double.parseDouble(configured.trim());
+            if (share > 0 && share <= 1) {
+                return share;
+            }
+        } catch (NumberFormatException e) {
+            // segnalato sotto
+        }
+        System.err.println("Quota di CPU non valida: " + configured
+                + " (uso " + DEFAULT_CPU_SHARE + ")");
+        return DEFAULT_CPU_SHARE;
+    }
+
+    /**
+     * Posizione da analizzare.
+     */
+    private static final class Request {
+
+        /** Posizione immutabile. */
+        private final Position position;
+
+        /** Numero della posizione. */
+        private final long generation;
+
+        /**
+         * Crea la richiesta.
+         *
+         * @param positionArg   posizione
+         * @param generationArg numero della posizione
+         */
+        Request(final Position positionArg, final long generationArg) {
+            this.position = positionArg;
+            this.generation = generationArg;
+        }
+    }
+
+    /**
+     * Risultato di un'iterazione per una posizione.
+     */
+    private static final class Update {
+
+        /** Numero della posizione. */
+        private final long generation;
+
+        /** Mossa consigliata, valore e profondità. */
+        private final PvLine line;
+
+        /**
+         * Crea il risultato.
+         *
+         * @param generationArg numero della posizione
+         * @param lineArg       linea trovata
+         */
+        Update(final long generationArg, final PvLine lineArg) {
+            this.generation = generationArg;
+            this.line = lineArg;
+        }
+    }
+}
@@ -4,14 +4,26 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * IA basata su Minimax con potatura alpha-beta.
- * Fornisce metodi statici per calcolare la mossa migliore.
+ * IA basata su Minimax con potatura alpha-beta e approfondimento iterativo.
+ * Fornisce metodi statici per calcolare la mossa migliore; lo stato di
+ * ogni ricerca (contatori, risultato) vive in un {@link SearchState}.
+ * Una ricerca interrotta con {@link SearchState#stop()} restituisce il
+ * risultato dell'ultima iterazione completata.
  */
 public final class MinMax {
 
     /** Profondità massima della ricerca Minimax. */
     private static final int MAX_DEPTH = 3;
 
+    /** Distanza massima dalla radice dei nodi cercati nella cache. */
+    private static final int CACHE_PLIES = 2;
+
+    /** Profondità residua minima dei nodi cercati nella cache. */
+    private static final int CACHE_MIN_DEPTH = 2;
+
+    /** Valore di una patta per ripetizione o per limite di mosse. */
+    private static final int DRAW_SCORE = 0;
+
     /** Costruttore privato: classe di utilità con soli metodi statici. */
     private MinMax() {
         // no instances
@@ -25,52 +37,533 @@ public final class MinMax {
      * @return mossa migliore trovata oppure null se non esiste
      */
     public static Move getBestMove(final Controller controller) {
-        return minimaxDecision(controller.getBoard(), MAX_DEPTH, false);
+        return search(controller, MAX_DEPTH, new SearchState());
+    }
+
+    /**
+     * Ricerca come {@link #search(Board, boolean, int, SearchState)} dalla
+     * posizione corrente della partita, tenendo conto delle posizioni già
+     * giocate: le linee che le ripetono valgono patta.
+     *
+     * @param controller controller del gioco
+     * @param depth      profondità massima di ricerca
+     * @param state      stato della ricerca (contatori e risultato)
+     *
+     * @return mossa migliore trovata oppure null se non esiste
+     */
+    public static Move search(final Controller controller, final int depth,
+                              final SearchState state) {
+        return searchPrivate(controller.getBoard().clone(),
+                controller.isWhiteTurn(), depth, state,
+                controller.getHistory());
+    }
+
+    /**
+     * Restituisce la mossa migliore per il colore indicato,
+     * cercando fino alla profondità richiesta.
+     *
+     * @param board     scacchiera di partenza
+     * @param whiteTurn true se tocca al bianco
+     * @param depth     profondità massima di ricerca
+     *
+     * @return mossa migliore trovata oppure null se non esiste
+     */
+    public static Move getBestMove(final Board board,
+                                   final boolean whiteTurn,
+                                   final int depth) {
+        return search(board, whiteTurn, depth, new SearchState());
+    }
+
+    /**
+     * Ricerca con approfondimento iterativo da profondità 1 a
+     * {@code depth}; ogni iterazione prova per prima la mossa migliore
+     * della precedente. Al termine i contatori di {@code state} vengono
+     * riversati in {@link EngineStats} e viene emesso un
+     * {@link SearchEvent}.
+     *
+     * @param board     scacchiera di partenza
+     * @param whiteTurn true se tocca al bianco
+     * @param depth     profondità massima di ricerca
+     * @param state     stato della ricerca (contatori e risultato)
+     *
+     * @return mossa migliore trovata oppure null se non esiste
+     */
+    public static Move search(final Board board,
+                              final boolean whiteTurn,
+                              final int depth,
+                              final SearchState state) {
+        // la ricerca esegue e disfa le mosse su una copia privata
+        return searchPrivate(board.clone(), whiteTurn, depth, state,
+                new PositionHistory(board, whiteTurn));
+    }
+
+    /**
+     * Ricerca come {@link #search(Board, boolean, int, SearchState)}
+     * partendo da un'istantanea immutabile: la scacchiera di lavoro viene
+     * ricostruita dalle maschere, senza copiare una scacchiera condivisa.
+     *
+     * @param position posizione di partenza (con il turno)
+     * @param depth    profondità massima di ricerca
+     * @param state    stato della ricerca (contatori e risultato)
+     *
+     * @return mossa migliore trovata oppure null se non esiste
+     */
+    public static Move search(final Position position, final int depth,
+                              final SearchState state) {
+        Board work = position.toBoard();
+        return searchPrivate(work, position.isWhiteTurn(), depth, state,
+                new PositionHistory(work, position.isWhiteTurn()));
+    }
+
+    /**
+     * Ricerca con approfondimento iterativo su una scacchiera di lavoro
+     * che appartiene solo a questa ricerca.
+     *
+     * @param work      scacchiera privata, modificata e ripristinata
+     * @param whiteTurn true se tocca al bianco
+     * @param depth     profondità massima di ricerca
+     * @param state     stato della ricerca
+     * @param history   posizioni fino a quella di partenza, di proprietà
+     *                  di questa ricerca
+     *
+     * @return mossa migliore trovata oppure null se non esiste
+     */
+    private static Move searchPrivate(final Board work,
+                                      final boolean whiteTurn,
+                                      final int depth,
+                                      final SearchState state,
+                                      final PositionHistory history) {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        long start = System.nanoTime();
+        state.trace = SearchTrace.current();
+        state.history = history;
+
+        List<Move> moves = Move.getAllMoves(work, whiteTurn);
+        Move bestMove = null;
+        long previousNodes = 0;
+        int firstDepth = 1;
+
+        // un risultato esatto abbastanza profondo evita la ricerca;
+        // altrimenti la mossa salvata viene provata per prima. La cache
+        // è indicizzata per forma canonica (vedi Symmetry). Dopo mosse
+        // reversibili la cronologia può rendere patta la linea salvata,
+        // quindi la mossa serve solo a ordinare la ricerca
+        AnalysisCache cache = AnalysisCache.shared();
+        long rootKey = 0;
+        long rootDrawsBefore = state.historyDraws;
+        boolean rootFlipped = false;
+        if (cache != null && !moves.isEmpty()) {
+            long mirror = history.topMirror();
+            rootFlipped = Symmetry.isFlipped(history.top(), mirror);
+            rootKey = Symmetry.canonicalKey(history.top(), mirror);
+            state.tableProbes++;
+            long entry = cache.probe(rootKey);
+            Move cached = entry == 0 ? null
+                    : Symmetry.decode(work.getVariant(),
+                            AnalysisCache.move(entry), rootFlipped, moves);
+            if (cached != null) {
+                state.tableHits++;
+                bestMove = cached;
+                if (AnalysisCache.bound(entry) == AnalysisCache.EXACT
+                        && AnalysisCache.depth(entry) >= depth
+                        && history.getReversiblePlies() == 0) {
+                    state.completedDepth = AnalysisCache.depth(entry);
+                    state.score = Symmetry.score(AnalysisCache.score(entry),
+                            rootFlipped);
+                    firstDepth = depth + 1;
+                    // il risultato salvato vale come iterazione completata
+                    state.iterationCompleted(bestMove);
+                    IterationEvent iteration = new IterationEvent();
+                    if (iteration.shouldCommit()) {
+                        iteration.depth = state.completedDepth;
+                        iteration.score = state.score;
+                        iteration.commit();
+                    }
+                }
+            }
+        }
+
+        for (int d = firstDepth; d <= depth && !moves.isEmpty(); d++) {
+            IterationEvent iteration = new IterationEvent();
+            iteration.begin();
+            long nodesBefore = state.nodes;
+
+            if (bestMove != null) {
+                moves.remove(bestMove);
+                moves.add(0, bestMove);
+            }
+            try {
+                bestMove = minimaxDecision(work, moves, d, whiteTurn, state);
+            } catch (SearchState.Aborted e) {
+                break;
+            }
+            state.completedDepth = d;
+            state.iterationCompleted(bestMove);
+
+            long iterationNodes = state.nodes - nodesBefore;
+            iteration.end();
+            if (iteration.shouldCommit()) {
+                iteration.depth = d;
+                iteration.nodes = iterationNodes;
+                iteration.effectiveBranching = previousNodes == 0 ? 0
+                        : (double) iterationNodes / previousNodes;
+                iteration.score = state.score;
+                iteration.commit();
+            }
+            previousNodes = iterationNodes;
+        }
+
+        if (cache != null && bestMove != null && firstDepth == 1
+                && state.completedDepth > 0
+                && state.historyDraws == rootDrawsBefore) {
+            cache.store(rootKey, state.completedDepth,
+                    Symmetry.score(state.score, rootFlipped),
+                    AnalysisCache.EXACT,
+                    Symmetry.encode(work.getVariant(), bestMove, rootFlipped));
+        }
+
+        EngineStats.get().record(state, System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.whiteTurn = whiteTurn;
+            event.depth = state.completedDepth;
+            event.nodes = state.nodes;
+            event.cutoffs = state.cutoffs;
+            event.branchingFactor = state.getBranchingFactor();
+            event.score = state.score;
+            event.move = bestMove == null ? null : bestMove.toString();
+            event.commit();
+        }
+        return bestMove;
+    }
+
+    /**
+     * Ricerca multi-PV: restituisce le migliori {@code lines} mosse della
+     * radice con valore esatto e variante principale, ordinate dalla
+     * migliore per chi muove. Con approfondimento iterativo come
+     * {@link #search}; ogni iterazione prova per prime le mosse nell'ordine
+     * della classifica precedente.
+     *
+     * @param board     scacchiera di partenza
+     * @param whiteTurn true se tocca al bianco
+     * @param depth     profondità massima di ricerca
+     * @param lines     numero di linee richieste
+     * @param state     stato della ricerca (contatori e risultato)
+     *
+     * @return linee in ordine di merito, al più {@code lines}
+     */
+    public static List<PvLine> searchMultiPv(final Board board,
+                                             final boolean whiteTurn,
+                                             final int depth,
+                                             final int lines,
+                                             final SearchState state) {
+        return searchMultiPvPrivate(board.clone(), whiteTurn, depth, lines,
+                state, new PositionHistory(board, whiteTurn));
+    }
+
+    /**
+     * Ricerca multi-PV come
+     * {@link #searchMultiPv(Board, boolean, int, int, SearchState)} dalla
+     * posizione corrente della partita, con le ripetizioni della partita
+     * valutate come patta.
+     *
+     * @param controller controller del gioco
+     * @param depth      profondità massima di ricerca
+     * @param lines      numero di linee richieste
+     * @param state      stato della ricerca (contatori e risultato)
+     *
+     * @return linee in ordine di merito, al più {@code lines}
+     */
+    public static List<PvLine> searchMultiPv(final Controller controller,
+                                             final int depth,
+                                             final int lines,
+                                             final SearchState state) {
+        return searchMultiPvPrivate(controller.getBoard().clone(),
+                controller.isWhiteTurn(), depth, lines, state,
+                controller.getHistory());
+    }
+
+    /**
+     * Ricerca multi-PV su una scacchiera di lavoro che appartiene solo a
+     * questa ricerca.
+     *
+     * @param work      scacchiera privata, modificata e ripristinata
+     * @param whiteTurn true se tocca al bianco
+     * @param depth     profondità massima di ricerca
+     * @param lines     numero di linee richieste
+     * @param state     stato della ricerca
+     * @param history   posizioni fino a quella di partenza, di proprietà
+     *                  di questa ricerca
+     *
+     * @return linee in ordine di merito, al più {@code lines}
+     */
+    private static List<PvLine> searchMultiPvPrivate(
+            final Board work, final boolean whiteTurn, final int depth,
+            final int lines, final SearchState state,
+            final PositionHistory history) {
+        if (lines < 1) {
+            throw new IllegalArgumentException(
+                    "Numero di linee non valido: " + lines);
+        }
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        long start = System.nanoTime();
+        state.trace = SearchTrace.current();
+        state.history = history;
+
+        List<Move> moves = Move.getAllMoves(work, whiteTurn);
+        List<PvLine> ranked = new ArrayList<>();
+        long previousNodes = 0;
+        state.collectPv(depth);
+
+        for (int d = 1; d <= depth && !moves.isEmpty(); d++) {
+            IterationEvent iteration = new IterationEvent();
+            iteration.begin();
+            long nodesBefore = state.nodes;
+
+            for (int i = ranked.size() - 1; i >= 0; i--) {
+                Move m = ranked.get(i).getMove();
+                moves.remove(m);
+                moves.add(0, m);
+            }
+            try {
+                ranked = multiPvDecision(work, moves, d, whiteTurn, lines,
+                        state);
+            } catch (SearchState.Aborted e) {
+                break;
+            }
+            state.completedDepth = d;
+            state.score = ranked.get(0).getScore();
+            state.iterationCompleted(ranked.get(0).getMove());
+
+            long iterationNodes = state.nodes - nodesBefore;
+            iteration.end();
+            if (iteration.shouldCommit()) {
+                iteration.depth = d;
+                iteration.nodes = iterationNodes;
+                iteration.effectiveBranching = previousNodes == 0 ? 0
+                        : (double) iterationNodes / previousNodes;
+                iteration.score = state.score;
+                iteration.commit();
+            }
+            previousNodes = iterationNodes;
+        }
+
+        EngineStats.get().record(state, System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.whiteTurn = whiteTurn;
+            event.depth = state.completedDepth;
+            event.nodes = state.nodes;
+            event.cutoffs = state.cutoffs;
+            event.branchingFactor = state.getBranchingFactor();
+            event.score = state.score;
+            event.move = ranked.isEmpty() ? null
+                    : ranked.get(0).getMove().toString();
+            event.commit();
+        }
+        return ranked;
+    }
+
+    /**
+     * Decisione multi-PV a profondità fissa. Le prime {@code lines} mosse
+     * sono cercate con finestra piena; le altre con una finestra nulla
+     * attorno al valore dell'ultima linea, e solo quelle che lo superano
+     * vengono ricercate con finestra aperta per averne il valore esatto.
+     *
+     * @param board     scacchiera di partenza
+     * @param moves     mosse della radice, nell'ordine in cui provarle
+     * @param depth     profondità di ricerca
+     * @param whiteTurn true se tocca al bianco
+     * @param lines     numero di linee richieste
+     * @param state     stato della ricerca
+     * @return linee in ordine di merito
+     */
+    private static List<PvLine> multiPvDecision(final Board board,
+                                                final List<Move> moves,
+                                                final int depth,
+                                                final boolean whiteTurn,
+                                                final int lines,
+                                                final SearchState state) {
+        List<PvLine> top = new ArrayList<>(lines + 1);
+
+        state.nodes++;
+        state.interiorNodes++;
+        state.generatedMoves += moves.size();
+        Piece[] undo = state.undoBuffer(0);
+        if (SearchTrace.ENABLED) {
+            state.trace.root(depth, whiteTurn);
+        }
+        int index = 0;
+
+        for (Move move : moves) {
+            if (SearchTrace.ENABLED) {
+                state.trace.move(0, move, index++);
+            }
+            boolean promoted = board.applyMove(move, undo);
+            state.history.push(board, move, promoted, undo);
+            int value;
+            boolean exact;
+
+            if (top.size() < lines) {
+                value = minimax(board, depth - 1, !whiteTurn,
+                        Integer.MIN_VALUE, Integer.MAX_VALUE, 1, state);
+                exact = true;
+            } else {
+                int bound = top.get(lines - 1).getScore();
+                if (bound == (whiteTurn ? Integer.MIN_VALUE
+                        : Integer.MAX_VALUE)) {
+                    // l'ultima linea è già una vittoria: non si migliora
+                    value = bound;
+                } else if (whiteTurn) {
+                    value = minimax(board, depth - 1, false,
+                            bound - 1, bound, 1, state);
+                    if (value < bound) {
+                        value = minimax(board, depth - 1, false,
+                                Integer.MIN_VALUE, bound, 1, state);
+                    }
+                } else {
+                    value = minimax(board, depth - 1, true,
+                            bound, bound + 1, 1, state);
+                    if (value > bound) {
+                        value = minimax(board, depth - 1, true,
+                                bound, Integer.MAX_VALUE, 1, state);
+                    }
+                }
+                exact = whiteTurn ? value < bound : value > bound;
+                if (!exact) {
+                    state.cutoffs++;
+                }
+            }
+
+            if (exact) {
+                insertLine(top, pvLine(move, value, depth, state), whiteTurn);
+                if (top.size() > lines) {
+                    top.remove(lines);
+                }
+            }
+            state.history.pop();
+            board.undoMove(move, undo, promoted);
+        }
+
+        return top;
+    }
+
+    /**
+     * Costruisce la linea della mossa della radice appena cercata,
+     * leggendo la variante principale raccolta al livello 1.
+     *
+     * @param move  mossa della radice
+     * @param value valore esatto della mossa
+     * @param depth profondità di ricerca
+     * @param state stato della ricerca
+     * @return linea della mossa
+     */
+    private static PvLine pvLine(final Move move, final int value,
+                                 final int depth, final SearchState state) {
+        List<Move> line = new ArrayList<>();
+        line.add(move);
+        for (int i = 1; i < state.pvLength[1]; i++) {
+            line.add(state.pv[1][i]);
+        }
+        return new PvLine(line, value, depth);
+    }
+
+    /**
+     * Inserisce la linea nella classifica, dopo quelle di pari valore.
+     *
+     * @param top       classifica in ordine di merito
+     * @param line      linea da inserire
+     * @param whiteTurn true se muove il bianco (valori bassi migliori)
+     */
+    private static void insertLine(final List<PvLine> top, final PvLine line,
+                                   final boolean whiteTurn) {
+        int i = top.size();
+        while (i > 0 && (whiteTurn
+                ? line.getScore() < top.get(i - 1).getScore()
+                : line.getScore() > top.get(i - 1).getScore())) {
+            i--;
+        }
+        top.add(i, line);
+    }
+
+    /**
+     * Valore della posizione con una finestra alpha-beta data, senza
+     * approfondimento iterativo: è il lavoro di un sottoalbero in
+     * {@link DistributedSearch}. Un valore fuori dalla finestra è solo un
+     * limite (superiore se non supera {@code alpha}, inferiore se non
+     * è sotto {@code beta}).
+     *
+     * @param board     posizione
+     * @param whiteTurn true se tocca al bianco
+     * @param depth     profondità di ricerca
+     * @param alpha     limite inferiore
+     * @param beta      limite superiore
+     * @param state     stato della ricerca
+     * @return valore dal punto di vista del nero
+     * @throws SearchState.Aborted se la ricerca viene interrotta
+     */
+    static int searchWindow(final Board board, final boolean whiteTurn,
+                            final int depth, final int alpha, final int beta,
+                            final SearchState state) {
+        state.trace = SearchTrace.current();
+        state.history = new PositionHistory(board, whiteTurn);
+        return minimax(board.clone(), depth, whiteTurn, alpha, beta, 0,
+                state);
     }
 
     /**
      * Esegue la decisione Minimax con alpha-beta sullo stato corrente.
      *
      * @param board     scacchiera di partenza
+     * @param moves     mosse della radice, nell'ordine in cui provarle
      * @param depth     profondità massima di ricerca
      * @param whiteTurn true se tocca al bianco
+     * @param state     stato della ricerca
      * @return la mossa ritenuta migliore, o null se nessuna
      */
     private static Move minimaxDecision(final Board board,
+                                        final List<Move> moves,
                                         final int depth,
-                                        final boolean whiteTurn) {
-        List<Move> moves = getAllMoves(board, whiteTurn);
+                                        final boolean whiteTurn,
+                                        final SearchState state) {
         Move bestMove = null;
 
-        int bestValue = Integer.MIN_VALUE;
+        int bestValue = whiteTurn ? Integer.MAX_VALUE : Integer.MIN_VALUE;
         int alpha = Integer.MIN_VALUE;
         int beta = Integer.MAX_VALUE;
 
-        for (Move move : moves) {
-            Board newBoard = board.clone();
-            Piece piece = newBoard.getPiece(move.getStartRow(),
-                    move.getStartCol());
-            newBoard.setPiece(move.getEndRow(), move.getEndCol(), piece);
-            newBoard.setPiece(move.getStartRow(), move.getStartCol(), null);
+        state.nodes++;
+        state.interiorNodes++;
+        state.generatedMoves += moves.size();
+        Piece[] undo = state.undoBuffer(0);
+        if (SearchTrace.ENABLED) {
+            state.trace.root(depth, whiteTurn);
+        }
+        int index = 0;
 
-            if (move.isCapture()) {
-                newBoard.setPiece(move.getCapturedRow(),
-                        move.getCapturedCol(), null);
+        for (Move move : moves) {
+            if (SearchTrace.ENABLED) {
+                state.trace.move(0, move, index);
             }
-
-            int boardValue = minimax(newBoard, depth - 1, !whiteTurn,
-                    alpha, beta);
+            boolean promoted = board.applyMove(move, undo);
+            state.history.push(board, move, promoted, undo);
+            int boardValue = minimax(board, depth - 1, !whiteTurn,
+                    alpha, beta, 1, state);
+            state.history.pop();
+            board.undoMove(move, undo, promoted);
 
             if (whiteTurn) {
                 // minimizza per il bianco
-                if (boardValue < bestValue) {
+                if (bestMove == null || boardValue < bestValue) {
                     bestValue = boardValue;
                     bestMove = move;
                 }
                 beta = Math.min(beta, bestValue);
             } else {
                 // massimizza per il nero
-                if (boardValue > bestValue) {
+                if (bestMove == null || boardValue > bestValue) {
                     bestValue = boardValue;
                     bestMove = move;
                 }
@@ -78,10 +571,19 @@ public final class MinMax {
             }
 
             if (beta <= alpha) {
+                state.cutoffs++;
+                if (SearchTrace.ENABLED) {
+                    state.trace.cutoff(0, index);
+                }
                 break;
             }
+            index++;
         }
 
+        state.score = bestValue;
+        if (SearchTrace.ENABLED) {
+            state.trace.exit(0, bestValue);
+        }
         return bestMove;
     }
 
@@ -93,6 +595,8 @@ public final class MinMax {
      * @param whiteTurn true se tocca al bianco
      * @param alpha     limite inferiore
      * @param beta      limite superiore
+     * @param ply       distanza dalla radice
+     * @param state     stato della ricerca
      *
      * @return valore della posizione dal punto di vista del nero
      */
@@ -100,107 +604,169 @@ public final class MinMax {
                                final int depth,
                                final boolean whiteTurn,
                                final int alpha,
-                               final int beta) {
+                               final int beta,
+                               final int ply,
+                               final SearchState state) {
         int a = alpha;
         int b = beta;
+        if ((++state.nodes & SearchState.POLL_MASK) == 0) {
+            state.poll();
+        }
+        if (state.pv != null) {
+            state.pvLength[ply] = ply;
+        }
+        if (SearchTrace.ENABLED) {
+            state.trace.enter(ply, depth, whiteTurn, alpha, beta);
+        }
+
+        // una posizione già vista nella linea o nella partita, o senza
+        // progressi da troppe semimosse, è patta
+        if (ply > 0 && (state.history.isRepeated()
+                || state.history.getReversiblePlies()
+                >= PositionHistory.MOVE_LIMIT_PLIES)) {
+            state.historyDraws++;
+            return traced(state, ply, DRAW_SCORE);
+        }
 
         if (depth == 0) {
-            return evaluateBoard(board);
+            return traced(state, ply, evaluateBoard(board));
         }
 
-        List<Move> moves = getAllMoves(board, whiteTurn);
+        List<Move> moves = Move.getAllMoves(board, whiteTurn);
 
         if (moves.isEmpty()) {
-            return whiteTurn ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+            return traced(state, ply,
+                    whiteTurn ? Integer.MAX_VALUE : Integer.MIN_VALUE);
         }
 
-        int value = Integer.MIN_VALUE;
+        AnalysisCache cache = ply <= CACHE_PLIES && depth >= CACHE_MIN_DEPTH
+                ? AnalysisCache.shared() : null;
+        long key = 0;
+        boolean flipped = false;
+        long drawsBefore = state.historyDraws;
+        if (cache != null) {
+            long hash = state.history.top();
+            long mirror = state.history.topMirror();
+            flipped = Symmetry.isFlipped(hash, mirror);
+            key = Symmetry.canonicalKey(hash, mirror);
+            state.tableProbes++;
+            long entry = cache.probe(key);
+            if (entry != 0) {
+                state.tableHits++;
+                int cachedScore = Symmetry.score(AnalysisCache.score(entry),
+                        flipped);
+                int bound = Symmetry.bound(AnalysisCache.bound(entry),
+                        flipped);
+                if (AnalysisCache.depth(entry) >= depth
+                        && (bound == AnalysisCache.EXACT
+                        || bound == AnalysisCache.LOWER && cachedScore >= b
+                        || bound == AnalysisCache.UPPER && cachedScore <= a)) {
+                    return SearchTrace.ENABLED
+                            ? state.trace.hit(ply, cachedScore) : cachedScore;
+                }
+                Move hint = Symmetry.decode(board.getVariant(),
+                        AnalysisCache.move(entry), flipped, moves);
+                if (hint != null) {
+                    moves.remove(hint);
+                    moves.add(0, hint);
+                }
+            }
+        }
 
-        for (Move move : moves) {
-            Board newBoard = board.clone();
-            Piece piece = newBoard.getPiece(move.getStartRow(),
-                    move.getStartCol());
-            newBoard.setPiece(move.getEndRow(), move.getEndCol(), piece);
-            newBoard.setPiece(move.getStartRow(), move.getStartCol(), null);
+        state.interiorNodes++;
+        state.generatedMoves += moves.size();
+        int value = whiteTurn ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        Move best = null;
+        Piece[] undo = state.undoBuffer(ply);
+        int index = 0;
 
-            if (move.isCapture()) {
-                newBoard.setPiece(move.getCapturedRow(),
-                        move.getCapturedCol(), null);
+        for (Move move : moves) {
+            if (SearchTrace.ENABLED) {
+                state.trace.move(ply, move, index);
+            }
+            boolean promoted = board.applyMove(move, undo);
+            state.history.push(board, move, promoted, undo);
+            int childValue = minimax(board, depth - 1, !whiteTurn, a, b,
+                    ply + 1, state);
+            state.history.pop();
+            board.undoMove(move, undo, promoted);
+            if (whiteTurn ? childValue < value : childValue > value) {
+                value = childValue;
+                best = move;
+                if (state.pv != null) {
+                    state.updatePv(ply, move);
+                }
+            }
+            if (whiteTurn) {
+                // il bianco minimizza
+                b = Math.min(b, value);
+            } else {
+                // il nero massimizza
+                a = Math.max(a, value);
             }
-
-            value = Math.max(value,
-                    minimax(newBoard, depth - 1, !whiteTurn, a, b));
-            a = Math.max(a, value);
 
             if (b <= a) {
+                state.cutoffs++;
+                if (SearchTrace.ENABLED) {
+                    state.trace.cutoff(ply, index);
+                }
                 break;
             }
+            index++;
         }
 
-        return value;
+        // un valore che dipende da patte per ripetizione o per limite di
+        // mosse vale solo per questa partita e non va condiviso
+        if (cache != null && state.historyDraws == drawsBefore) {
+            int bound = value <= alpha ? AnalysisCache.UPPER
+                    : value >= beta ? AnalysisCache.LOWER
+                    : AnalysisCache.EXACT;
+            cache.store(key, depth, Symmetry.score(value, flipped),
+                    Symmetry.bound(bound, flipped),
+                    Symmetry.encode(board.getVariant(), best, flipped));
+        }
+        return traced(state, ply, value);
+    }
+
+    /**
+     * Registra nella traccia il valore restituito da un nodo, se la
+     * traccia è attiva.
+     *
+     * @param state stato della ricerca
+     * @param ply   distanza dalla radice
+     * @param value valore del nodo
+     * @return lo stesso valore
+     */
+    private static int traced(final SearchState state, final int ply,
+                              final int value) {
+        return SearchTrace.ENABLED ? state.trace.exit(ply, value) : value;
     }
 
     /**
      * Valuta la scacchiera dal punto di vista del nero.
-     * I pezzi neri sommano il punteggio, i bianchi lo sottraggono.
+     * I pezzi neri sommano il punteggio, i bianchi lo sottraggono,
+     * secondo i pesi di {@link EvalWeights#current()}.
      *
      * @param board scacchiera
      *
      * @return valore stimato della posizione
      */
-    private static int evaluateBoard(final Board board) {
+    static int evaluateBoard(final Board board) {
+        EvalWeights weights = EvalWeights.current();
+        Variant variant = board.getVariant();
         int value = 0;
 
-        for (int i = 0; i < Board.SIZE; i++) {
-            for (int j = 0; j < Board.SIZE; j++) {
+        for (int i = 0; i < board.getSize(); i++) {
+            for (int j = 0; j < board.getSize(); j++) {
                 Piece p = board.getPiece(i, j);
                 if (p != null) {
-                    int pieceValue = p.isKing() ? 2 : 1;
-                    if (p.isWhite()) {
-                        value -= pieceValue;
-                    } else {
-                        value += pieceValue;
-                    }
+                    value += weights.pieceScore(variant,
+                            variant.squareIndex(i, j),
+                            p.isWhite(), p.isKing());
                 }
             }
         }
 
         return value;
     }
-
-    /**
-     * Restituisce tutte le mosse possibili per il colore richiesto.
-     * Se esistono catture, restituisce solo le catture.
-     *
-     * @param board    scacchiera
-     * @param forWhite true per il bianco
-     *
-     * @return lista delle mosse
-     */
-    private static List<Move> getAllMoves(final Board board,
-                                          final boolean forWhite) {
-        List<Move> moves = new ArrayList<>();
-
-        for (int i = 0; i < Board.SIZE; i++) {
-            for (int j = 0; j < Board.SIZE; j++) {
-                Piece p = board.getPiece(i, j);
-                if (p != null && p.isWhite() == forWhite) {
-                    moves.addAll(Move.getPossibleMoves(board, i, j));
-                }
-            }
-        }
-
-        List<Move> captureMoves = new ArrayList<>();
-        for (Move m : moves) {
-            if (m.isCapture()) {
-                captureMoves.add(m);
-            }
-        }
-
-        if (!captureMoves.isEmpty()) {
-            return captureMoves;
-        }
-
-        return moves;
-    }
 }
@@ -6,10 +6,48 @@ import java.util.List;
 /**
  * Rappresenta una mossa nel gioco della dama.
  * Contiene coordinate di partenza/arrivo e, in caso di cattura,
- * la posizione del pezzo avversario rimosso.
+ * le caselle dei pezzi avversari rimossi (più di uno nelle prese
+ * multiple), nell'ordine in cui vengono saltati.
  */
 public class Move {
 
+    /** Bit usati per ciascuna casella nel codice compatto. */
+    public static final int CODE_SQUARE_BITS = 6;
+
+    /** Maschera di una casella nel codice compatto. */
+    public static final int CODE_SQUARE_MASK = (1 << CODE_SQUARE_BITS) - 1;
+
+    /** Bit di cattura nel codice compatto. */
+    public static final int CODE_CAPTURE = 1 << (2 * CODE_SQUARE_BITS);
+
+    /**
+     * Posizione nel codice compatto del numero di alternativa, che
+     * distingue le prese con stesse caselle di partenza e di arrivo ma
+     * pezzi catturati diversi.
+     */
+    public static final int CODE_ALTERNATIVE_SHIFT = 2 * CODE_SQUARE_BITS + 1;
+
+    /**
+     * Numero di alternativa massimo rappresentabile nel codice compatto:
+     * le prese oltre questo numero non hanno un codice (vedi
+     * {@link #isEncodable()}).
+     */
+    public static final int MAX_ALTERNATIVE = 7;
+
+    /** Generatore delle prese multiple, uno per thread. */
+    private static final ThreadLocal<CaptureGenerator> CAPTURES =
+            ThreadLocal.withInitial(CaptureGenerator::new);
+
+    /** Generatore a maschere di bit della dama internazionale, uno per thread. */
+    private static final ThreadLocal<Bitboard> BITBOARDS =
+            ThreadLocal.withInitial(Bitboard::new);
+
+    /** Nessun pezzo catturato. */
+    private static final byte[] NO_CAPTURES = new byte[0];
+
+    /** Variante a cui si riferiscono le coordinate. */
+    private final Variant variant;
+
     /** Riga di partenza. */
     private final int startRow;
 
@@ -25,14 +63,26 @@ public class Move {
     /** Indica se la mossa è una cattura. */
     private final boolean isCapture;
 
-    /** Riga del pezzo catturato (solo per cattura). */
+    /** Riga del primo pezzo catturato (solo per cattura). */
     private int capturedRow;
 
-    /** Colonna del pezzo catturato (solo per cattura). */
+    /** Colonna del primo pezzo catturato (solo per cattura). */
     private int capturedCol;
 
+    /** Caselle giocabili dei pezzi catturati, in ordine di presa. */
+    private final byte[] captured;
+
+    /** Caselle giocabili dei pezzi catturati, come maschera di bit. */
+    private final long capturedMask;
+
     /**
-     * Crea una mossa semplice (senza cattura).
+     * Ordine di generazione tra le prese con le stesse caselle di
+     * partenza e di arrivo (0 per la prima e per le mosse semplici).
+     */
+    private final int alternative;
+
+    /**
+     * Crea una mossa semplice (senza cattura) della dama classica.
      *
      * @param startRowArg riga di partenza
      * @param startColArg colonna di partenza
@@ -41,15 +91,33 @@ public class Move {
      */
     public Move(final int startRowArg, final int startColArg,
                 final int endRowArg, final int endColArg) {
+        this(Variant.CLASSIC, startRowArg, startColArg, endRowArg, endColArg);
+    }
+
+    /**
+     * Crea una mossa semplice (senza cattura) della variante indicata.
+     *
+     * @param variantArg  variante di gioco
+     * @param startRowArg riga di partenza
+     * @param startColArg colonna di partenza
+     * @param endRowArg   riga di arrivo
+     * @param endColArg   colonna di arrivo
+     */
+    Move(final Variant variantArg, final int startRowArg,
+         final int startColArg, final int endRowArg, final int endColArg) {
+        this.variant = variantArg;
         this.startRow = startRowArg;
         this.startCol = startColArg;
         this.endRow = endRowArg;
         this.endCol = endColArg;
         this.isCapture = false;
+        this.captured = NO_CAPTURES;
+        this.capturedMask = 0;
+        this.alternative = 0;
     }
 
     /**
-     * Crea una mossa con cattura.
+     * Crea una mossa con cattura della dama classica.
      *
      * @param startRowArg     riga di partenza
      * @param startColArg     colonna di partenza
@@ -61,6 +129,7 @@ public class Move {
     public Move(final int startRowArg, final int startColArg,
                 final int endRowArg, final int endColArg,
                 final int capturedRowArg, final int capturedColArg) {
+        this.variant = Variant.CLASSIC;
         this.startRow = startRowArg;
         this.startCol = startColArg;
         this.endRow = endRowArg;
@@ -68,6 +137,40 @@ public class Move {
         this.isCapture = true;
         this.capturedRow = capturedRowArg;
         this.capturedCol = capturedColArg;
+        int square = Board.squareIndex(capturedRowArg, capturedColArg);
+        this.captured = new byte[] {(byte) square};
+        this.capturedMask = 1L << square;
+        this.alternative = 0;
+    }
+
+    /**
+     * Crea una presa multipla. L'array delle catture non viene copiato.
+     *
+     * @param variantArg  variante di gioco
+     * @param startRowArg riga di partenza
+     * @param startColArg colonna di partenza
+     * @param endRowArg   riga di arrivo
+     * @param endColArg   colonna di arrivo
+     * @param capturedArg    caselle giocabili catturate, in ordine di presa
+     * @param maskArg        le stesse caselle come maschera di bit
+     * @param alternativeArg prese già generate con le stesse caselle di
+     *                       partenza e di arrivo
+     */
+    Move(final Variant variantArg, final int startRowArg,
+         final int startColArg, final int endRowArg, final int endColArg,
+         final byte[] capturedArg, final long maskArg,
+         final int alternativeArg) {
+        this.variant = variantArg;
+        this.startRow = startRowArg;
+        this.startCol = startColArg;
+        this.endRow = endRowArg;
+        this.endCol = endColArg;
+        this.isCapture = true;
+        this.captured = capturedArg;
+        this.capturedMask = maskArg;
+        this.alternative = alternativeArg;
+        this.capturedRow = variantArg.squareRow(capturedArg[0]);
+        this.capturedCol = variantArg.squareCol(capturedArg[0]);
     }
 
     /**
@@ -134,7 +237,213 @@ public class Move {
     }
 
     /**
-     * Calcola le mosse possibili per il pezzo in (row, col).
+     * Restituisce il numero di pezzi catturati.
+     *
+     * @return pezzi catturati (0 se non è una cattura)
+     */
+    public int getCapturedCount() {
+        return captured.length;
+    }
+
+    /**
+     * Restituisce la casella giocabile dell'i-esimo pezzo catturato.
+     *
+     * @param index posizione nella sequenza di presa
+     * @return indice della casella giocabile
+     */
+    public int getCapturedSquare(final int index) {
+        return captured[index];
+    }
+
+    /**
+     * Restituisce le caselle catturate come maschera di bit
+     * (bit i = casella giocabile i).
+     *
+     * @return maschera delle catture
+     */
+    public long getCapturedMask() {
+        return capturedMask;
+    }
+
+    /**
+     * Restituisce il numero di alternativa della presa.
+     *
+     * @return ordine tra le prese con le stesse caselle di partenza e
+     *         di arrivo (0 per le mosse semplici)
+     */
+    int getAlternative() {
+        return alternative;
+    }
+
+    /**
+     * Restituisce le caselle su cui il pezzo atterra dopo ciascuna
+     * cattura, fino a quella di arrivo compresa: è il percorso della
+     * notazione PDN completa ({@code 32x23x14}). Per una dama a lungo
+     * raggio che prosegue nella stessa direzione si sceglie la prima
+     * casella dopo il pezzo catturato.
+     *
+     * @return caselle giocabili di atterraggio (vuoto per le mosse
+     *         semplici)
+     */
+    public int[] getLandingSquares() {
+        int[] landings = new int[captured.length];
+        int row = startRow;
+        int col = startCol;
+        for (int i = 0; i < captured.length; i++) {
+            if (i == captured.length - 1) {
+                landings[i] = variant.squareIndex(endRow, endCol);
+                break;
+            }
+            int capRow = variant.squareRow(captured[i]);
+            int capCol = variant.squareCol(captured[i]);
+            int nextRow = variant.squareRow(captured[i + 1]);
+            int nextCol = variant.squareCol(captured[i + 1]);
+            int dr = Integer.signum(capRow - row);
+            int dc = Integer.signum(capCol - col);
+            // si gira dove la cattura successiva è su una diagonale
+            row = capRow + dr;
+            col = capCol + dc;
+            while (Math.abs(nextRow - row) != Math.abs(nextCol - col)) {
+                row += dr;
+                col += dc;
+            }
+            landings[i] = variant.squareIndex(row, col);
+        }
+        return landings;
+    }
+
+    /**
+     * Indica se la mossa ha un codice compatto: le prese con più di
+     * {@value #MAX_ALTERNATIVE} alternative precedenti con le stesse
+     * caselle di partenza e di arrivo non sono rappresentabili.
+     *
+     * @return true se {@link #encode()} è utilizzabile
+     */
+    public boolean isEncodable() {
+        return alternative <= MAX_ALTERNATIVE;
+    }
+
+    /**
+     * Codifica la mossa in uno short: casella di partenza (6 bit),
+     * casella di arrivo (6 bit), indicatore di cattura e, per le prese
+     * ambigue, numero di alternativa (3 bit, 0 per tutte le altre mosse).
+     *
+     * @return codice compatto della mossa
+     * @throws IllegalStateException se la mossa non è rappresentabile
+     *                               (vedi {@link #isEncodable()})
+     */
+    public short encode() {
+        if (!isEncodable()) {
+            throw new IllegalStateException("Presa " + this
+                    + " non codificabile: alternativa " + alternative);
+        }
+        return (short) (encodeSquares()
+                | alternative << CODE_ALTERNATIVE_SHIFT);
+    }
+
+    /**
+     * Codifica le sole caselle di partenza e di arrivo e l'indicatore di
+     * cattura, senza il numero di alternativa: sempre disponibile, ma
+     * ambiguo tra prese con le stesse caselle.
+     *
+     * @return codice compatto senza numero di alternativa
+     */
+    short encodeSquares() {
+        return encode(variant.squareIndex(startRow, startCol),
+                variant.squareIndex(endRow, endCol), isCapture);
+    }
+
+    /**
+     * Codifica una mossa a partire dalle caselle giocabili.
+     *
+     * @param from    casella giocabile di partenza
+     * @param to      casella giocabile di arrivo
+     * @param capture true se la mossa è una cattura
+     * @return codice compatto della mossa
+     */
+    public static short encode(final int from, final int to,
+                               final boolean capture) {
+        return (short) (from | to << CODE_SQUARE_BITS
+                | (capture ? CODE_CAPTURE : 0));
+    }
+
+    /**
+     * Cerca tra le mosse legali quella corrispondente al codice.
+     *
+     * @param code  codice prodotto da {@link #encode()}
+     * @param legal mosse legali nella posizione corrente
+     * @return la mossa corrispondente, o null se il codice non è legale
+     */
+    public static Move decode(final short code, final List<Move> legal) {
+        for (Move m : legal) {
+            if (m.isEncodable() && m.encode() == code) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Restituisce la mossa in notazione numerica (caselle giocabili
+     * numerate da 1), ad esempio {@code 11-15} o {@code 11x18}.
+     *
+     * @return rappresentazione testuale della mossa
+     */
+    @Override
+    public String toString() {
+        return (variant.squareIndex(startRow, startCol) + 1)
+                + (isCapture ? "x" : "-")
+                + (variant.squareIndex(endRow, endCol) + 1);
+    }
+
+    /**
+     * Calcola le mosse legali del colore indicato secondo le regole
+     * della variante della scacchiera: se esistono catture sono
+     * obbligatorie e, nella dama internazionale, vanno scelte tra quelle
+     * che prendono il numero massimo di pezzi.
+     *
+     * @param board    scacchiera
+     * @param forWhite true per le mosse del bianco
+     * @return lista delle mosse legali
+     */
+    public static List<Move> getAllMoves(final Board board,
+                                         final boolean forWhite) {
+        List<Move> moves = new ArrayList<>();
+
+        if (board.getVariant().isInternational()) {
+            Bitboard bitboard = BITBOARDS.get();
+            bitboard.load(board);
+            bitboard.generateLegal(forWhite, moves);
+            return moves;
+        }
+
+        for (int i = 0; i < board.getSize(); i++) {
+            for (int j = 0; j < board.getSize(); j++) {
+                Piece p = board.getPiece(i, j);
+                if (p != null && p.isWhite() == forWhite) {
+                    moves.addAll(getPossibleMoves(board, i, j));
+                }
+            }
+        }
+
+        // Se esiste almeno una cattura, le catture sono obbligatorie
+        List<Move> captureMoves = new ArrayList<>();
+        for (Move m : moves) {
+            if (m.isCapture()) {
+                captureMoves.add(m);
+            }
+        }
+
+        if (!captureMoves.isEmpty()) {
+            return captureMoves;
+        }
+
+        return moves;
+    }
+
+    /**
+     * Calcola le mosse possibili per il pezzo in (row, col), senza
+     * tenere conto dell'obbligo di presa.
      *
      * @param board scacchiera
      * @param row   riga del pezzo
@@ -151,6 +460,14 @@ public class Move {
             return moves;
         }
 
+        if (board.getVariant().isInternational()) {
+            Bitboard bitboard = BITBOARDS.get();
+            bitboard.load(board);
+            bitboard.generatePiece(
+                    board.getVariant().squareIndex(row, col), moves);
+            return moves;
+        }
+
         int direction = piece.isWhite() ? -1 : 1;
         int[] dirCols = new int[] {-1, 1};
         int[] dirRows = piece.isKing()
@@ -169,21 +486,8 @@ public class Move {
             }
         }
 
-        // Catture
-        for (int dr : dirRows) {
-            for (int dc : dirCols) {
-                int midRow = row + dr;
-                int midCol = col + dc;
-                int newRow = row + 2 * dr;
-                int newCol = col + 2 * dc;
-
-                if (isValidCapture(board, row, col, midRow, midCol,
-                        newRow, newCol)) {
-                    moves.add(new Move(row, col, newRow, newCol,
-                            midRow, midCol));
-                }
-            }
-        }
+        // Catture, anche multiple
+        CAPTURES.get().generate(board, row, col, moves);
 
         return moves;
     }
@@ -199,8 +503,8 @@ public class Move {
     private static boolean isValidMove(final Board board,
                                        final int newRow,
                                        final int newCol) {
-        if (newRow < 0 || newRow >= Board.SIZE
-                || newCol < 0 || newCol >= Board.SIZE) {
+        if (newRow < 0 || newRow >= board.getSize()
+                || newCol < 0 || newCol >= board.getSize()) {
             return false;
         }
 
@@ -210,39 +514,4 @@ public class Move {
 
         return true;
     }
-
-    /**
-     * Verifica se la cattura è valida.
-     *
-     * @param board  scacchiera
-     * @param row    riga del pezzo
-     * @param col    colonna del pezzo
-     * @param midRow riga del pezzo intermedio
-     * @param midCol colonna del pezzo intermedio
-     * @param newRow riga di arrivo
-     * @param newCol colonna di arrivo
-     * @return {@code true} se valida, altrimenti {@code false}
-     */
-    private static boolean isValidCapture(final Board board,
-                                          final int row, final int col,
-                                          final int midRow, final int midCol,
-                                          final int newRow, final int newCol) {
-        if (newRow < 0 || newRow >= Board.SIZE
-                || newCol < 0 || newCol >= Board.SIZE) {
-            return false;
-        }
-
-        if (board.getPiece(newRow, newCol) != null) {
-            return false;
-        }
-
-        Piece piece = board.getPiece(row, col);
-        Piece middlePiece = board.getPiece(midRow, midCol);
-
-        if (middlePiece == null) {
-            return false;
-        }
-
-        return middlePiece.isWhite() != piece.isWhite();
-    }
 }
@@ -0,0 +1,405 @@
+package it.unimol.dama;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lettore in streaming di file PDN (Portable Draughts Notation).
+ *
+ * <p>Ogni chiamata a {@link #read()} consuma dal flusso solo la partita
+ * successiva, così che file con milioni di partite possano essere letti
+ * senza caricarli in memoria. Commenti, varianti e annotazioni vengono
+ * ignorati.
+ *
+ * <p>Le mosse vengono rigiocate dalla posizione iniziale della variante
+ * indicata da GameType, così che ogni token corrisponda a una mossa
+ * legale con il suo codice compatto completo. Una presa multipla si
+ * riconosce dalle caselle di atterraggio intermedie della notazione
+ * completa ({@code 32x23x14}, anche solo in parte); un token che resta
+ * compatibile con più prese viene rifiutato invece di sceglierne una.
+ */
+public final class PdnReader implements Closeable {
+
+    /** Nome dell'intestazione con il risultato. */
+    static final String RESULT_TAG = "Result";
+
+    /** Lunghezza massima di un token o di un'intestazione. */
+    private static final int MAX_TOKEN = 256;
+
+    /** Flusso di ingresso. */
+    private final PushbackReader in;
+
+    /** Mosse della partita in lettura. */
+    private short[] moves = new short[64];
+
+    /** Numero di mosse della partita in lettura. */
+    private int moveCount;
+
+    /** Buffer per il token corrente. */
+    private final StringBuilder token = new StringBuilder();
+
+    /** Scacchiera della partita in lettura, o null prima della prima mossa. */
+    private Board board;
+
+    /** True se nella partita in lettura tocca al bianco. */
+    private boolean whiteTurn;
+
+    /**
+     * Crea un lettore sul flusso indicato.
+     *
+     * @param reader flusso di caratteri PDN
+     */
+    public PdnReader(final Reader reader) {
+        Reader buffered = reader instanceof BufferedReader ? reader
+                : new BufferedReader(reader);
+        this.in = new PushbackReader(buffered, 1);
+    }
+
+    /**
+     * Legge la partita successiva.
+     *
+     * @return la partita letta, o null a fine flusso
+     * @throws IOException in caso di errore di lettura o di formato
+     */
+    public GameRecord read() throws IOException {
+        Map<String, String> tags = new LinkedHashMap<>();
+        moveCount = 0;
+        board = null;
+        boolean started = false;
+
+        int c;
+        while ((c = in.read()) != -1) {
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+
+            switch (c) {
+                case '[':
+                    if (moveCount > 0) {
+                        // nuova partita senza risultato esplicito
+                        in.unread(c);
+                        return finish(tags, resultFromTag(tags));
+                    }
+                    readTag(tags);
+                    started = true;
+                    break;
+                case '{':
+                    skipUntil('}');
+                    break;
+                case ';':
+                    skipUntil('\n');
+                    break;
+                case '(':
+                    skipVariation();
+                    break;
+                default:
+                    in.unread(c);
+                    String text = readToken();
+                    byte result = parseResult(text);
+                    if (result >= 0) {
+                        return finish(tags, result);
+                    }
+                    parseMove(text, tags);
+                    started = true;
+                    break;
+            }
+        }
+
+        return started ? finish(tags, resultFromTag(tags)) : null;
+    }
+
+    /**
+     * Conclude la partita corrente.
+     *
+     * @param tags   intestazioni lette
+     * @param result risultato
+     * @return partita registrata
+     */
+    private GameRecord finish(final Map<String, String> tags,
+                              final byte result) {
+        return new GameRecord(tags, Arrays.copyOf(moves, moveCount), result);
+    }
+
+    /**
+     * Legge un'intestazione {@code [Nome "valore"]}; la parentesi
+     * di apertura è già stata consumata.
+     *
+     * @param tags mappa in cui inserire l'intestazione
+     * @throws IOException in caso di errore di lettura o di formato
+     */
+    private void readTag(final Map<String, String> tags) throws IOException {
+        token.setLength(0);
+        int c = in.read();
+        while (c != -1 && !Character.isWhitespace(c) && c != '"'
+                && c != ']') {
+            append(c);
+            c = in.read();
+        }
+        String name = token.toString();
+
+        while (c != -1 && c != '"' && c != ']') {
+            c = in.read();
+        }
+
+        token.setLength(0);
+        if (c == '"') {
+            c = in.read();
+            while (c != -1 && c != '"') {
+                if (c == '\\') {
+                    c = in.read();
+                    if (c == -1) {
+                        break;
+                    }
+                }
+                append(c);
+                c = in.read();
+            }
+            if (c != -1) {
+                c = skipUntil(']');
+            }
+        }
+
+        if (c == -1) {
+            throw new IOException("Intestazione PDN non terminata: " + name);
+        }
+        tags.put(name, token.toString());
+    }
+
+    /**
+     * Legge un token di testo della sezione delle mosse.
+     *
+     * @return il token letto
+     * @throws IOException in caso di errore di lettura o di formato
+     */
+    private String readToken() throws IOException {
+        token.setLength(0);
+        int c = in.read();
+        while (c != -1 && !Character.isWhitespace(c)
+                && c != '[' && c != '{' && c != '(' && c != ';') {
+            append(c);
+            c = in.read();
+        }
+        if (c != -1 && !Character.isWhitespace(c)) {
+            in.unread(c);
+        }
+        return token.toString();
+    }
+
+    /**
+     * Accoda un carattere al token corrente.
+     *
+     * @param c carattere da accodare
+     * @throws IOException se il token supera la lunghezza massima
+     */
+    private void append(final int c) throws IOException {
+        if (token.length() >= MAX_TOKEN) {
+            throw new IOException("Token PDN troppo lungo");
+        }
+        token.append((char) c);
+    }
+
+    /**
+     * Interpreta un token di mossa, ignorando numerazione e annotazioni,
+     * e lo esegue sulla scacchiera della partita.
+     *
+     * @param text token letto
+     * @param tags intestazioni lette, con la variante della partita
+     * @throws IOException se la mossa non è valida, non è legale o è
+     *                     ambigua
+     */
+    private void parseMove(final String text,
+                           final Map<String, String> tags)
+            throws IOException {
+        int begin = 0;
+        int end = text.length();
+
+        // numero di mossa: "12." o "12..." eventualmente attaccato
+        int dot = text.lastIndexOf('.');
+        if (dot >= 0) {
+            begin = dot + 1;
+        }
+        while (end > begin && (text.charAt(end - 1) == '!'
+                || text.charAt(end - 1) == '?')) {
+            end--;
+        }
+        if (begin >= end || text.charAt(begin) == '$') {
+            return;
+        }
+
+        if (board == null) {
+            board = new Board(Variant.fromGameType(
+                    tags.get(GameRecord.GAME_TYPE_TAG)));
+            whiteTurn = true;
+        }
+        String move = text.substring(begin, end);
+        boolean capture = move.indexOf('x') >= 0;
+        String[] squares = move.split("[-x]");
+        int[] path = new int[squares.length];
+        try {
+            for (int i = 0; i < path.length; i++) {
+                path[i] = Integer.parseInt(squares[i]) - 1;
+                if (path[i] < 0 || path[i] >= board.getVariant().getSquares()) {
+                    throw new IOException("Mossa PDN non valida: " + text);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Mossa PDN non valida: " + text, e);
+        }
+        if (path.length < 2 || !capture && path.length > 2) {
+            throw new IOException("Mossa PDN non valida: " + text);
+        }
+
+        Move played = legalMove(path, capture, text);
+        if (!played.isEncodable()) {
+            throw new IOException("Presa PDN non rappresentabile: " + text);
+        }
+        if (moveCount == moves.length) {
+            moves = Arrays.copyOf(moves, moves.length * 2);
+        }
+        moves[moveCount++] = played.encode();
+        board.applyMove(played, new Piece[played.getCapturedCount()]);
+        whiteTurn = !whiteTurn;
+    }
+
+    /**
+     * Cerca la mossa legale descritta dalle caselle di un token.
+     *
+     * @param path    caselle giocabili del token: partenza, eventuali
+     *                atterraggi intermedi, arrivo
+     * @param capture true se il token è una presa
+     * @param text    token letto, per i messaggi di errore
+     * @return l'unica mossa legale compatibile
+     * @throws IOException se nessuna mossa o più di una è compatibile
+     */
+    private Move legalMove(final int[] path, final boolean capture,
+                           final String text) throws IOException {
+        Variant variant = board.getVariant();
+        Move found = null;
+        for (Move m : Move.getAllMoves(board, whiteTurn)) {
+            if (m.isCapture() != capture
+                    || variant.squareIndex(m.getStartRow(), m.getStartCol())
+                    != path[0]
+                    || variant.squareIndex(m.getEndRow(), m.getEndCol())
+                    != path[path.length - 1]
+                    || !followsPath(m, path)) {
+                continue;
+            }
+            if (found != null) {
+                throw new IOException("Mossa PDN ambigua: " + text);
+            }
+            found = m;
+        }
+        if (found == null) {
+            throw new IOException("Mossa PDN illegale: " + text);
+        }
+        return found;
+    }
+
+    /**
+     * Indica se le caselle intermedie del token sono, nell'ordine,
+     * caselle di atterraggio della presa.
+     *
+     * @param move presa candidata
+     * @param path caselle del token
+     * @return true se il percorso è compatibile con la presa
+     */
+    private static boolean followsPath(final Move move, final int[] path) {
+        int[] landings = move.getLandingSquares();
+        int next = 0;
+        for (int i = 1; i < path.length - 1; i++) {
+            while (next < landings.length - 1 && landings[next] != path[i]) {
+                next++;
+            }
+            if (next >= landings.length - 1) {
+                return false;
+            }
+            next++;
+        }
+        return true;
+    }
+
+    /**
+     * Interpreta un token di risultato.
+     *
+     * @param text token letto
+     * @return risultato, oppure -1 se il token non è un risultato
+     */
+    static byte parseResult(final String text) {
+        switch (text) {
+            case "1-0":
+            case "2-0":
+                return GameRecord.WHITE_WIN;
+            case "0-1":
+            case "0-2":
+                return GameRecord.BLACK_WIN;
+            case "1/2-1/2":
+            case "1-1":
+                return GameRecord.DRAW;
+            case "*":
+                return GameRecord.UNFINISHED;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Ricava il risultato dall'intestazione {@code Result}, se presente.
+     *
+     * @param tags intestazioni
+     * @return risultato indicato, o {@link GameRecord#UNFINISHED}
+     */
+    private static byte resultFromTag(final Map<String, String> tags) {
+        String value = tags.get(RESULT_TAG);
+        byte result = value == null ? -1 : parseResult(value);
+        return result >= 0 ? result : GameRecord.UNFINISHED;
+    }
+
+    /**
+     * Salta i caratteri fino al terminatore indicato (incluso).
+     *
+     * @param terminator carattere di chiusura
+     * @return il terminatore, o -1 se il flusso finisce prima
+     * @throws IOException in caso di errore di lettura
+     */
+    private int skipUntil(final int terminator) throws IOException {
+        int c = in.read();
+        while (c != -1 && c != terminator) {
+            c = in.read();
+        }
+        return c;
+    }
+
+    /**
+     * Salta una variante tra parentesi tonde, anche annidata;
+     * la parentesi di apertura è già stata consumata.
+     *
+     * @throws IOException in caso di errore di lettura
+     */
+    private void skipVariation() throws IOException {
+        int depth = 1;
+        int c = in.read();
+        while (c != -1 && depth > 0) {
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '{') {
+                skipUntil('}');
+            }
+            if (depth > 0) {
+                c = in.read();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,197 @@
+package it.unimol.dama;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Scrittore in streaming di file PDN (Portable Draughts Notation).
+ * Le partite vengono scritte una alla volta, separate da una riga vuota.
+ * Le prese multiple sono scritte con tutte le caselle di atterraggio
+ * ({@code 32x23x14}), così che {@link PdnReader} distingua le prese con
+ * le stesse caselle di partenza e di arrivo.
+ */
+public final class PdnWriter implements Closeable, Flushable {
+
+    /** Valore predefinito dell'intestazione GameType (dama classica). */
+    static final String GAME_TYPE = Variant.CLASSIC.getGameType();
+
+    /** Lunghezza massima di una riga della sezione delle mosse. */
+    private static final int LINE_WIDTH = 79;
+
+    /** Flusso di uscita. */
+    private final Writer out;
+
+    /**
+     * Crea uno scrittore sul flusso indicato.
+     *
+     * @param writer flusso di caratteri di destinazione
+     */
+    public PdnWriter(final Writer writer) {
+        this.out = writer instanceof BufferedWriter ? writer
+                : new BufferedWriter(writer);
+    }
+
+    /**
+     * Scrive una partita.
+     *
+     * @param game partita da scrivere
+     * @throws IOException in caso di errore di scrittura o se una mossa
+     *                     non è legale
+     */
+    public void write(final GameRecord game) throws IOException {
+        String[] moves = movesText(game);
+        String result = resultText(game.getResult());
+        Map<String, String> tags = game.getTags();
+
+        if (!tags.containsKey(GameRecord.GAME_TYPE_TAG)) {
+            writeTag(GameRecord.GAME_TYPE_TAG, GAME_TYPE);
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!PdnReader.RESULT_TAG.equals(tag.getKey())) {
+                writeTag(tag.getKey(), tag.getValue());
+            }
+        }
+        writeTag(PdnReader.RESULT_TAG, result);
+
+        StringBuilder line = new StringBuilder();
+        for (int ply = 0; ply < moves.length; ply++) {
+            String move = moves[ply];
+            if (ply % 2 == 0) {
+                move = (ply / 2 + 1) + ". " + move;
+            }
+            appendWrapped(line, move);
+        }
+        appendWrapped(line, result);
+        out.write(line.toString());
+        out.write("\n\n");
+    }
+
+    /**
+     * Accoda un elemento alla riga, andando a capo se necessario.
+     *
+     * @param line riga corrente
+     * @param text elemento da accodare
+     * @throws IOException in caso di errore di scrittura
+     */
+    private void appendWrapped(final StringBuilder line, final String text)
+            throws IOException {
+        if (line.length() > 0
+                && line.length() + 1 + text.length() > LINE_WIDTH) {
+            out.write(line.toString());
+            out.write('\n');
+            line.setLength(0);
+        }
+        if (line.length() > 0) {
+            line.append(' ');
+        }
+        line.append(text);
+    }
+
+    /**
+     * Scrive un'intestazione.
+     *
+     * @param name  nome dell'intestazione
+     * @param value valore
+     * @throws IOException in caso di errore di scrittura
+     */
+    private void writeTag(final String name, final String value)
+            throws IOException {
+        out.write('[');
+        out.write(name);
+        out.write(" \"");
+        out.write(value.replace("\\", "\\\\").replace("\"", "\\\""));
+        out.write("\"]\n");
+    }
+
+    /**
+     * Rigioca la partita e ne scrive le mosse in notazione numerica.
+     *
+     * @param game partita da scrivere
+     * @return testo di ogni semimossa
+     * @throws IOException se una mossa non è legale
+     */
+    private static String[] movesText(final GameRecord game)
+            throws IOException {
+        Board board = new Board(game.getVariant());
+        boolean whiteTurn = true;
+        String[] text = new String[game.getPlyCount()];
+        for (int ply = 0; ply < text.length; ply++) {
+            Move move = Move.decode(game.getMove(ply),
+                    Move.getAllMoves(board, whiteTurn));
+            if (move == null) {
+                throw new IOException("Mossa illegale alla semimossa "
+                        + (ply + 1));
+            }
+            text[ply] = moveText(move);
+            board.applyMove(move, new Piece[move.getCapturedCount()]);
+            whiteTurn = !whiteTurn;
+        }
+        return text;
+    }
+
+    /**
+     * Scrive una mossa in notazione numerica, con le caselle di
+     * atterraggio intermedie per le prese multiple.
+     *
+     * @param move mossa legale
+     * @return testo della mossa, ad esempio {@code 11x18} o
+     *         {@code 32x23x14}
+     */
+    static String moveText(final Move move) {
+        if (move.getCapturedCount() < 2) {
+            return move.toString();
+        }
+        StringBuilder text = new StringBuilder();
+        text.append((move.encodeSquares() & Move.CODE_SQUARE_MASK) + 1);
+        for (int square : move.getLandingSquares()) {
+            text.append('x').append(square + 1);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Converte una mossa compatta in notazione numerica.
+     *
+     * @param code codice della mossa
+     * @return testo della mossa, ad esempio {@code 11x18}
+     */
+    static String moveText(final short code) {
+        int from = code & Move.CODE_SQUARE_MASK;
+        int to = code >> Move.CODE_SQUARE_BITS & Move.CODE_SQUARE_MASK;
+        boolean capture = (code & Move.CODE_CAPTURE) != 0;
+        return (from + 1) + (capture ? "x" : "-") + (to + 1);
+    }
+
+    /**
+     * Restituisce il token PDN del risultato.
+     *
+     * @param result risultato della partita
+     * @return testo del risultato
+     */
+    static String resultText(final byte result) {
+        switch (result) {
+            case GameRecord.WHITE_WIN:
+                return "1-0";
+            case GameRecord.BLACK_WIN:
+                return "0-1";
+            case GameRecord.DRAW:
+                return "1/2-1/2";
+            default:
+                return "*";
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -45,6 +45,13 @@ public class Piece {
         isKing = true;
     }
 
+    /**
+     * Annulla la promozione (usato per disfare una mossa).
+     */
+    void uncrown() {
+        isKing = false;
+    }
+
     /**
      * Clona il pezzo corrente.
      *
@@ -0,0 +1,234 @@
+package it.unimol.dama;
+
+import java.util.Objects;
+
+/**
+ * Istantanea immutabile di una posizione: variante, tre maschere di bit
+ * (pezzi bianchi, neri e dame, un bit per casella giocabile), turno e
+ * numero di semimosse.
+ *
+ * <p>A differenza di {@link Board} e {@link Piece}, un'istanza non cambia
+ * mai: tutti i campi sono {@code final} e primitivi, quindi può essere
+ * letta da qualsiasi thread senza lock e senza vedere stati intermedi,
+ * purché sia pubblicata tramite un riferimento {@code volatile} (come fa
+ * {@link Controller#getPosition()}). Copiarla costa quanto copiare un
+ * riferimento.
+ */
+public final class Position {
+
+    /** Variante della posizione. */
+    private final Variant variant;
+
+    /** Caselle occupate dal bianco. */
+    private final long white;
+
+    /** Caselle occupate dal nero. */
+    private final long black;
+
+    /** Caselle occupate da dame. */
+    private final long kings;
+
+    /** True se tocca al bianco. */
+    private final boolean whiteTurn;
+
+    /** Semimosse giocate dall'inizio della partita. */
+    private final int ply;
+
+    /**
+     * Crea la posizione dalle maschere.
+     *
+     * @param variantArg   variante
+     * @param whiteArg     caselle del bianco
+     * @param blackArg     caselle del nero
+     * @param kingsArg     caselle delle dame
+     * @param whiteTurnArg true se tocca al bianco
+     * @param plyArg       semimosse giocate
+     */
+    private Position(final Variant variantArg, final long whiteArg,
+                     final long blackArg, final long kingsArg,
+                     final boolean whiteTurnArg, final int plyArg) {
+        this.variant = variantArg;
+        this.white = whiteArg;
+        this.black = blackArg;
+        this.kings = kingsArg;
+        this.whiteTurn = whiteTurnArg;
+        this.ply = plyArg;
+    }
+
+    /**
+     * Crea l'istantanea della scacchiera. Va chiamato dal thread che
+     * modifica la scacchiera.
+     *
+     * @param board     scacchiera
+     * @param whiteTurn true se tocca al bianco
+     * @param ply       semimosse giocate
+     * @return istantanea immutabile
+     */
+    public static Position of(final Board board, final boolean whiteTurn,
+                              final int ply) {
+        long[] masks = new long[3];
+        Bitboard.pack(board, masks, 0);
+        return new Position(board.getVariant(), masks[0], masks[1],
+                masks[2], whiteTurn, ply);
+    }
+
+    /**
+     * Crea la posizione dalle maschere, ad esempio per decodificare una
+     * posizione ricevuta da un altro processo.
+     *
+     * @param variant   variante
+     * @param white     caselle del bianco
+     * @param black     caselle del nero
+     * @param kings     caselle delle dame
+     * @param whiteTurn true se tocca al bianco
+     * @param ply       semimosse giocate
+     * @return istantanea immutabile
+     */
+    static Position of(final Variant variant, final long white,
+                       final long black, final long kings,
+                       final boolean whiteTurn, final int ply) {
+        return new Position(variant, white, black, kings, whiteTurn, ply);
+    }
+
+    /**
+     * Crea una nuova scacchiera modificabile nella posizione, ad esempio
+     * come punto di partenza privato di una ricerca.
+     *
+     * @return nuova scacchiera
+     */
+    public Board toBoard() {
+        return Bitboard.unpack(variant, new long[] {white, black, kings}, 0);
+    }
+
+    /**
+     * Restituisce la variante.
+     *
+     * @return variante della posizione
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Indica se tocca al bianco.
+     *
+     * @return true se muove il bianco
+     */
+    public boolean isWhiteTurn() {
+        return whiteTurn;
+    }
+
+    /**
+     * Restituisce le semimosse giocate.
+     *
+     * @return numero di semimosse
+     */
+    public int getPly() {
+        return ply;
+    }
+
+    /**
+     * Restituisce le caselle giocabili occupate dal bianco.
+     *
+     * @return maschera con il bit {@code i} per la casella {@code i}
+     */
+    public long getWhite() {
+        return white;
+    }
+
+    /**
+     * Restituisce le caselle giocabili occupate dal nero.
+     *
+     * @return maschera delle caselle
+     */
+    public long getBlack() {
+        return black;
+    }
+
+    /**
+     * Restituisce le caselle giocabili occupate da dame.
+     *
+     * @return maschera delle caselle
+     */
+    public long getKings() {
+        return kings;
+    }
+
+    /**
+     * Indica se la casella è occupata.
+     *
+     * @param row riga
+     * @param col colonna
+     * @return true se c'è un pezzo
+     */
+    public boolean isOccupied(final int row, final int col) {
+        return ((white | black) & bit(row, col)) != 0;
+    }
+
+    /**
+     * Indica se sulla casella c'è un pezzo bianco.
+     *
+     * @param row riga
+     * @param col colonna
+     * @return true se il pezzo è bianco
+     */
+    public boolean isWhite(final int row, final int col) {
+        return (white & bit(row, col)) != 0;
+    }
+
+    /**
+     * Indica se sulla casella c'è una dama.
+     *
+     * @param row riga
+     * @param col colonna
+     * @return true se il pezzo è una dama
+     */
+    public boolean isKing(final int row, final int col) {
+        return (kings & bit(row, col)) != 0;
+    }
+
+    /**
+     * Conta i pezzi del colore indicato.
+     *
+     * @param forWhite true per il bianco
+     * @return numero di pezzi
+     */
+    public int countPieces(final boolean forWhite) {
+        return Long.bitCount(forWhite ? white : black);
+    }
+
+    /**
+     * Restituisce il bit della casella, o 0 per le caselle chiare.
+     *
+     * @param row riga
+     * @param col colonna
+     * @return maschera della casella
+     */
+    private long bit(final int row, final int col) {
+        int size = variant.getSize();
+        if (row < 0 || row >= size || col < 0 || col >= size
+                || (row + col) % 2 == 0) {
+            return 0;
+        }
+        return 1L << variant.squareIndex(row, col);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Position)) {
+            return false;
+        }
+        Position p = (Position) o;
+        return variant == p.variant && white == p.white && black == p.black
+                && kings == p.kings && whiteTurn == p.whiteTurn
+                && ply == p.ply;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(variant, white, black, kings, whiteTurn, ply);
+    }
+}
@@ -0,0 +1,221 @@
+package it.unimol.dama;
+
+import java.util.Arrays;
+
+/**
+ * Pila degli hash di {@link Zobrist} delle posizioni di una partita, per
+ * riconoscere le ripetizioni e il limite di mosse senza progressi.
+ *
+ * <p>La usano sia {@link Controller}, per le patte della partita, sia
+ * {@link MinMax}, che parte da una copia della cronologia della partita e
+ * vi aggiunge e toglie le posizioni della ricerca. Una posizione può
+ * ripetersi solo dopo mosse reversibili (dame che si spostano senza
+ * prendere): le mosse di pedina e le prese azzerano il conteggio e
+ * limitano la parte di pila da controllare.
+ *
+ * <p>Il controllo costa O(1) nel caso comune: un filtro conta quante
+ * posizioni nella pila hanno gli stessi bit bassi dell'hash, e solo se ce
+ * n'è più d'una si confrontano gli hash delle posizioni reversibili con lo
+ * stesso turno.
+ *
+ * <p>Accanto a ogni hash la pila tiene quello della posizione simmetrica
+ * secondo {@link Symmetry}, aggiornato anch'esso a ogni mossa, da cui
+ * {@link MinMax} ricava la chiave canonica della cache delle analisi.
+ */
+public final class PositionHistory {
+
+    /**
+     * Semimosse consecutive senza prese né mosse di pedina dopo cui la
+     * partita è patta (25 mosse per parte).
+     */
+    public static final int MOVE_LIMIT_PLIES = 50;
+
+    /** Ripetizioni della stessa posizione che rendono patta la partita. */
+    public static final int REPETITION_LIMIT = 3;
+
+    /** Caselle del filtro (potenza di due). */
+    private static final int FILTER_SIZE = 1024;
+
+    /** Hash delle posizioni, dalla prima all'ultima. */
+    private long[] keys;
+
+    /** Hash delle posizioni simmetriche, paralleli a {@link #keys}. */
+    private long[] mirrors;
+
+    /** Semimosse reversibili consecutive fino a ciascuna posizione. */
+    private int[] reversible;
+
+    /** Posizioni nella pila. */
+    private int size;
+
+    /** Posizioni nella pila per bit bassi dell'hash. */
+    private final int[] filter;
+
+    /**
+     * Crea la cronologia a partire da una posizione.
+     *
+     * @param board     scacchiera della posizione iniziale
+     * @param whiteTurn true se tocca al bianco
+     */
+    public PositionHistory(final Board board, final boolean whiteTurn) {
+        keys = new long[64];
+        mirrors = new long[64];
+        reversible = new int[64];
+        filter = new int[FILTER_SIZE];
+        push(Zobrist.hash(board, whiteTurn),
+                Zobrist.mirrorHash(board, whiteTurn), true);
+    }
+
+    /**
+     * Crea una copia indipendente.
+     *
+     * @param other cronologia da copiare
+     */
+    private PositionHistory(final PositionHistory other) {
+        keys = Arrays.copyOf(other.keys, Math.max(64, other.size * 2));
+        mirrors = Arrays.copyOf(other.mirrors, keys.length);
+        reversible = Arrays.copyOf(other.reversible, keys.length);
+        size = other.size;
+        filter = other.filter.clone();
+    }
+
+    /**
+     * Restituisce una copia indipendente, ad esempio come punto di
+     * partenza di una ricerca.
+     *
+     * @return nuova cronologia con le stesse posizioni
+     */
+    public PositionHistory copy() {
+        return new PositionHistory(this);
+    }
+
+    /**
+     * Aggiunge la posizione raggiunta con una mossa.
+     *
+     * @param hash         hash della nuova posizione
+     * @param mirror       hash della posizione simmetrica
+     * @param irreversible true se la mossa è una presa o una mossa di
+     *                     pedina
+     */
+    public void push(final long hash, final long mirror,
+                     final boolean irreversible) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            mirrors = Arrays.copyOf(mirrors, size * 2);
+            reversible = Arrays.copyOf(reversible, size * 2);
+        }
+        keys[size] = hash;
+        mirrors[size] = mirror;
+        reversible[size] = irreversible || size == 0
+                ? 0 : reversible[size - 1] + 1;
+        size++;
+        filter[(int) hash & (FILTER_SIZE - 1)]++;
+    }
+
+    /**
+     * Aggiunge la posizione raggiunta con una mossa appena eseguita con
+     * {@link Board#applyMove}, aggiornando gli hash in modo incrementale.
+     *
+     * @param board    scacchiera dopo la mossa
+     * @param move     mossa eseguita
+     * @param promoted true se il pezzo è stato promosso
+     * @param captured pezzi catturati salvati da {@link Board#applyMove}
+     */
+    public void push(final Board board, final Move move,
+                     final boolean promoted, final Piece[] captured) {
+        Piece moved = board.getPiece(move.getEndRow(), move.getEndCol());
+        Variant variant = board.getVariant();
+        push(Zobrist.afterMove(top(), variant, move, moved, promoted,
+                        captured),
+                Zobrist.afterMoveMirror(topMirror(), variant, move, moved,
+                        promoted, captured),
+                move.isCapture() || !moved.isKing() || promoted);
+    }
+
+    /**
+     * Toglie l'ultima posizione.
+     *
+     * @throws IllegalStateException se resterebbe vuota
+     */
+    public void pop() {
+        if (size <= 1) {
+            throw new IllegalStateException("Cronologia vuota");
+        }
+        size--;
+        filter[(int) keys[size] & (FILTER_SIZE - 1)]--;
+    }
+
+    /**
+     * Restituisce l'hash della posizione corrente.
+     *
+     * @return hash dell'ultima posizione
+     */
+    public long top() {
+        return keys[size - 1];
+    }
+
+    /**
+     * Restituisce l'hash della posizione simmetrica di quella corrente
+     * (vedi {@link Zobrist#mirrorHash}).
+     *
+     * @return hash simmetrico dell'ultima posizione
+     */
+    public long topMirror() {
+        return mirrors[size - 1];
+    }
+
+    /**
+     * Restituisce le semimosse reversibili consecutive fino alla
+     * posizione corrente.
+     *
+     * @return semimosse senza prese né mosse di pedina
+     */
+    public int getReversiblePlies() {
+        return reversible[size - 1];
+    }
+
+    /**
+     * Indica se la posizione corrente era già comparsa (con lo stesso
+     * turno) dall'ultima mossa irreversibile: in ricerca la si valuta
+     * come patta.
+     *
+     * @return true se la posizione si ripete
+     */
+    public boolean isRepeated() {
+        // servono almeno due mosse reversibili per parte per ripetersi
+        return reversible[size - 1] >= 4
+                && filter[(int) top() & (FILTER_SIZE - 1)] > 1
+                && repetitions() > 0;
+    }
+
+    /**
+     * Conta le volte in cui la posizione corrente era già comparsa (con
+     * lo stesso turno) dall'ultima mossa irreversibile.
+     *
+     * @return comparse precedenti della posizione corrente
+     */
+    public int repetitions() {
+        long key = top();
+        int oldest = size - 1 - reversible[size - 1];
+        int count = 0;
+        // lo stesso turno si ritrova ogni due semimosse
+        for (int i = size - 3; i >= oldest; i -= 2) {
+            if (keys[i] == key) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Indica se la partita è patta per ripetizione
+     * ({@value #REPETITION_LIMIT} volte la stessa posizione) o per il
+     * limite di {@value #MOVE_LIMIT_PLIES} semimosse senza progressi.
+     *
+     * @return true se la posizione corrente è patta
+     */
+    public boolean isDraw() {
+        return getReversiblePlies() >= MOVE_LIMIT_PLIES
+                || repetitions() >= REPETITION_LIMIT - 1;
+    }
+}
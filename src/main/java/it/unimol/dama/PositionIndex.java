@@ -0,0 +1,1167 @@
+package it.unimol.dama;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Indice su disco delle posizioni raggiunte nelle partite di un
+ * {@link GameArchive}, per rispondere a "quali partite passano per
+ * questa posizione e quali mosse vi sono state giocate".
+ *
+ * <p>L'indice è una directory di "run": file di voci ordinate per hash di
+ * Zobrist della posizione, divise in blocchi compressi con Deflate. Di
+ * ogni run resta in memoria solo un indice sparso (primo hash di ogni
+ * blocco), quindi una ricerca decomprime uno o due blocchi per run.
+ *
+ * <p>La costruzione rigioca le partite in parallelo a gruppi, ordina in
+ * memoria le voci di ciascun gruppo e le fonde in un unico run. Le
+ * partite aggiunte in seguito all'archivio vengono indicizzate con
+ * {@link #update(GameArchive)} in un nuovo run, senza ricostruire quelli
+ * esistenti; quando i run diventano troppi vengono fusi in uno.
+ *
+ * <p>Ogni run è scritto in un file temporaneo e rinominato solo a
+ * scrittura completata; il file di stato elenca i run validi insieme
+ * alle partite indicizzate ed è l'unico punto di conferma di
+ * aggiornamenti e fusioni. All'apertura si caricano solo i run elencati
+ * e si cancellano i file lasciati da un'interruzione. Le ricerche
+ * possono procedere in parallelo con un aggiornamento: l'elenco dei run
+ * si sostituisce in un solo passo e i run fusi si chiudono solo quando
+ * nessuna ricerca li sta leggendo.
+ *
+ * <p>Uso: {@code PositionIndex <archivio.dga> <directory>} costruisce
+ * l'indice oppure lo aggiorna con le partite nuove.
+ */
+public final class PositionIndex implements Closeable {
+
+    /** Numero magico dei file di run ("DPI1"). */
+    static final int MAGIC = 0x44504931;
+
+    /** Versione del formato dei run. */
+    static final int VERSION = 1;
+
+    /** Codice di mossa delle posizioni finali (nessuna mossa giocata). */
+    public static final short NO_MOVE = 0;
+
+    /** Dimensione dell'intestazione di un run. */
+    private static final int HEADER_BYTES = 32;
+
+    /** Voci per blocco compresso. */
+    private static final int BLOCK_ENTRIES = 1024;
+
+    /** Partite rigiocate da ciascun compito parallelo. */
+    private static final int CHUNK_GAMES = 16_384;
+
+    /** Run oltre i quali l'aggiornamento li fonde in uno solo. */
+    private static final int MAX_RUNS = 8;
+
+    /** Nome del file di stato della directory. */
+    private static final String STATE_FILE = "index.properties";
+
+    /** Estensione dei file di run. */
+    private static final String RUN_SUFFIX = ".run";
+
+    /** Estensione dei file in scrittura, validi solo dopo la rinomina. */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /** Chiave del file di stato con l'elenco dei run validi. */
+    private static final String RUNS_KEY = "runs";
+
+    /** Bit del codice di mossa nella voce. */
+    private static final int MOVE_BITS = 13;
+
+    /** Bit del risultato nella voce. */
+    private static final int RESULT_BITS = 2;
+
+    /** Bit della semimossa nella voce. */
+    private static final int PLY_BITS = 16;
+
+    /** Directory dell'indice. */
+    private final Path dir;
+
+    /**
+     * Run aperti, dal più vecchio al più recente: lista immutabile,
+     * sostituita per intero sotto {@link #runsLock}.
+     */
+    private List<Run> runs = Collections.emptyList();
+
+    /** Letto dalle ricerche, scritto per sostituire e chiudere i run. */
+    private final ReadWriteLock runsLock = new ReentrantReadWriteLock();
+
+    /** Partite dell'archivio già indicizzate. */
+    private long indexedGames;
+
+    /** Numero progressivo del prossimo run. */
+    private long nextRun;
+
+    /**
+     * Apre (o crea vuoto) l'indice nella directory indicata.
+     *
+     * @param dirArg directory dell'indice
+     * @throws IOException in caso di errore di lettura
+     */
+    public PositionIndex(final Path dirArg) throws IOException {
+        this.dir = dirArg;
+        Files.createDirectories(dir);
+
+        Path state = dir.resolve(STATE_FILE);
+        String live = null;
+        if (Files.exists(state)) {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(state)) {
+                props.load(in);
+            }
+            indexedGames = Long.parseLong(props.getProperty("games", "0"));
+            nextRun = Long.parseLong(props.getProperty("nextRun", "0"));
+            live = props.getProperty(RUNS_KEY);
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream =
+                     Files.newDirectoryStream(dir, "run-*")) {
+            for (Path p : stream) {
+                files.add(p);
+            }
+        }
+        Collections.sort(files);
+
+        List<Run> opened = new ArrayList<>();
+        if (live == null) {
+            // indice precedente all'elenco dei run: valgono tutti i run
+            for (Path p : files) {
+                if (p.toString().endsWith(RUN_SUFFIX)) {
+                    opened.add(new Run(p));
+                }
+            }
+        } else {
+            List<String> names = live.isEmpty() ? Collections.emptyList()
+                    : Arrays.asList(live.split(","));
+            for (String name : names) {
+                opened.add(new Run(dir.resolve(name)));
+            }
+            // run temporanei o non confermati da un'interruzione
+            for (Path p : files) {
+                if (!names.contains(p.getFileName().toString())) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+        runs = Collections.unmodifiableList(opened);
+    }
+
+    /**
+     * Restituisce il numero di partite indicizzate.
+     *
+     * @return partite dell'archivio già presenti nell'indice
+     */
+    public synchronized long getIndexedGames() {
+        return indexedGames;
+    }
+
+    /**
+     * Restituisce il numero di voci (posizioni di partita) indicizzate.
+     *
+     * @return voci totali di tutti i run
+     */
+    public long size() {
+        runsLock.readLock().lock();
+        try {
+            long total = 0;
+            for (Run run : runs) {
+                total += run.entries;
+            }
+            return total;
+        } finally {
+            runsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indicizza le partite dell'archivio non ancora presenti.
+     *
+     * @param archive archivio delle partite (le partite già indicizzate
+     *                devono trovarsi agli stessi indici)
+     * @return numero di partite aggiunte
+     * @throws IOException in caso di errore di lettura o scrittura
+     */
+    public synchronized long update(final GameArchive archive)
+            throws IOException {
+        long from = indexedGames;
+        long to = archive.size();
+        if (to <= from) {
+            return 0;
+        }
+
+        Path run = runPath(nextRun++);
+        Path tmp = tmpPath(run);
+        buildRun(archive, from, to, tmp);
+        publish(tmp, run);
+        List<Run> next = new ArrayList<>(runs);
+        next.add(new Run(run));
+        // il run conta solo quando lo stato lo elenca
+        saveState(to, next);
+        indexedGames = to;
+        swapRuns(next, Collections.emptyList());
+
+        if (next.size() > MAX_RUNS) {
+            compact();
+        }
+        return to - from;
+    }
+
+    /**
+     * Fonde tutti i run in uno solo.
+     *
+     * @throws IOException in caso di errore di lettura o scrittura
+     */
+    public synchronized void compact() throws IOException {
+        if (runs.size() <= 1) {
+            return;
+        }
+        List<Run> old = new ArrayList<>(runs);
+        List<Path> sources = new ArrayList<>();
+        for (Run r : old) {
+            sources.add(r.file);
+        }
+
+        Path merged = runPath(nextRun++);
+        Path tmp = tmpPath(merged);
+        merge(sources, tmp);
+        publish(tmp, merged);
+        List<Run> next = Collections.singletonList(new Run(merged));
+        saveState(indexedGames, next);
+        swapRuns(next, old);
+
+        for (Run r : old) {
+            Files.deleteIfExists(r.file);
+        }
+    }
+
+    /**
+     * Sostituisce in un solo passo l'elenco dei run e chiude quelli non
+     * più usati, attendendo che nessuna ricerca li stia leggendo.
+     *
+     * @param next    nuovo elenco dei run
+     * @param retired run da chiudere
+     * @throws IOException in caso di errore di chiusura
+     */
+    private void swapRuns(final List<Run> next, final List<Run> retired)
+            throws IOException {
+        runsLock.writeLock().lock();
+        try {
+            runs = Collections.unmodifiableList(new ArrayList<>(next));
+            for (Run r : retired) {
+                r.close();
+            }
+        } finally {
+            runsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Cerca le partite passate per la posizione indicata.
+     *
+     * @param board     scacchiera
+     * @param whiteTurn true se tocca al bianco
+     * @return voci trovate, ordinate per partita e semimossa
+     * @throws IOException in caso di errore di lettura
+     */
+    public List<Hit> lookup(final Board board, final boolean whiteTurn)
+            throws IOException {
+        return lookup(Zobrist.hash(board, whiteTurn));
+    }
+
+    /**
+     * Cerca le partite passate per la posizione con l'hash indicato.
+     *
+     * @param hash hash di Zobrist della posizione
+     * @return voci trovate, ordinate per partita e semimossa
+     * @throws IOException in caso di errore di lettura
+     */
+    public List<Hit> lookup(final long hash) throws IOException {
+        List<Hit> hits = new ArrayList<>();
+        runsLock.readLock().lock();
+        try {
+            for (Run run : runs) {
+                run.lookup(hash, hits);
+            }
+        } finally {
+            runsLock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    /**
+     * Raggruppa le voci per mossa giocata, con i risultati ottenuti.
+     *
+     * @param hits voci restituite da {@link #lookup(long)}
+     * @return statistiche per mossa, dalla più giocata
+     */
+    public static List<MoveSummary> summarize(final List<Hit> hits) {
+        Map<Short, MoveSummary> byMove = new LinkedHashMap<>();
+        for (Hit h : hits) {
+            if (h.getMove() != NO_MOVE) {
+                byMove.computeIfAbsent(h.getMove(), MoveSummary::new)
+                        .add(h.getResult());
+            }
+        }
+        List<MoveSummary> result = new ArrayList<>(byMove.values());
+        result.sort((a, b) -> Integer.compare(b.getGames(), a.getGames()));
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        swapRuns(Collections.emptyList(), runs);
+    }
+
+    /**
+     * Percorso del run con il numero indicato.
+     *
+     * @param number numero progressivo
+     * @return percorso del file
+     */
+    private Path runPath(final long number) {
+        return dir.resolve(String.format("run-%08d%s", number, RUN_SUFFIX));
+    }
+
+    /**
+     * Percorso temporaneo in cui scrivere un run prima di renderlo
+     * valido con {@link #publish}.
+     *
+     * @param run percorso finale del run
+     * @return percorso temporaneo
+     */
+    private static Path tmpPath(final Path run) {
+        return run.resolveSibling(run.getFileName() + TMP_SUFFIX);
+    }
+
+    /**
+     * Rinomina atomicamente un run completo al suo nome finale.
+     *
+     * @param tmp run scritto per intero
+     * @param run percorso finale
+     * @throws IOException in caso di errore
+     */
+    private static void publish(final Path tmp, final Path run)
+            throws IOException {
+        Files.move(tmp, run, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Salva lo stato della directory in modo atomico: è il punto in cui
+     * un aggiornamento o una fusione diventano validi.
+     *
+     * @param games partite indicizzate
+     * @param live  run validi
+     * @throws IOException in caso di errore di scrittura
+     */
+    private void saveState(final long games, final List<Run> live)
+            throws IOException {
+        Properties props = new Properties();
+        props.setProperty("games", Long.toString(games));
+        props.setProperty("nextRun", Long.toString(nextRun));
+        props.setProperty(RUNS_KEY, live.stream()
+                .map(r -> r.file.getFileName().toString())
+                .collect(Collectors.joining(",")));
+        Path tmp = dir.resolve(STATE_FILE + TMP_SUFFIX);
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            props.store(out, "Indice delle posizioni");
+        }
+        Files.move(tmp, dir.resolve(STATE_FILE),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Indicizza le partite [from, to) in un nuovo run: i gruppi di
+     * partite sono rigiocati e ordinati in parallelo in run temporanei,
+     * poi fusi.
+     *
+     * @param archive archivio delle partite
+     * @param from    prima partita (inclusa)
+     * @param to      ultima partita (esclusa)
+     * @param target  file del run da creare
+     * @throws IOException in caso di errore di lettura o scrittura
+     */
+    private void buildRun(final GameArchive archive, final long from,
+                          final long to, final Path target)
+            throws IOException {
+        long chunks = (to - from + CHUNK_GAMES - 1) / CHUNK_GAMES;
+        List<Path> parts;
+        try {
+            parts = LongStream.range(0, chunks).parallel()
+                    .mapToObj(c -> {
+                        long first = from + c * CHUNK_GAMES;
+                        long last = Math.min(to, first + CHUNK_GAMES);
+                        Path part = target.resolveSibling(
+                                target.getFileName() + "." + c + TMP_SUFFIX);
+                        try {
+                            writeChunk(archive, first, last, part);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return part;
+                    })
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (parts.size() == 1) {
+            Files.move(parts.get(0), target,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            merge(parts, target);
+            for (Path p : parts) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /**
+     * Rigioca un gruppo di partite e ne scrive le voci ordinate in un run.
+     *
+     * @param archive archivio delle partite
+     * @param first   prima partita (inclusa)
+     * @param last    ultima partita (esclusa)
+     * @param file    run da scrivere
+     * @throws IOException in caso di errore di scrittura
+     */
+    private static void writeChunk(final GameArchive archive,
+                                   final long first, final long last,
+                                   final Path file) throws IOException {
+        long[] hashes = new long[1 << 16];
+        long[] payloads = new long[hashes.length];
+        short[] moves = new short[GameArchive.MAX_PLIES];
+        int count = 0;
+
+        for (long g = first; g < last; g++) {
+            int plies = archive.moves(g, moves);
+            byte result = archive.result(g);
+            Controller controller = new Controller(archive.getVariant());
+
+            for (int ply = 0; ply <= plies; ply++) {
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                    payloads = Arrays.copyOf(payloads, count * 2);
+                }
+                short code = ply < plies ? moves[ply] : NO_MOVE;
+                hashes[count] = Zobrist.hash(controller.getBoard(),
+                        controller.isWhiteTurn());
+                payloads[count++] = payload(g, ply, result, code);
+
+                if (ply < plies) {
+                    Move move = Move.decode(code, controller
+                            .getAllPossibleMoves(controller.isWhiteTurn()));
+                    if (move == null || !controller.makeMove(move)) {
+                        // partita corrotta: si indicizza fin qui
+                        payloads[count - 1] = payload(g, ply, result, NO_MOVE);
+                        break;
+                    }
+                }
+            }
+        }
+
+        sort(hashes, payloads, 0, count - 1);
+        try (RunWriter writer = new RunWriter(file)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(hashes[i], payloads[i]);
+            }
+        }
+    }
+
+    /**
+     * Fonde più run ordinati in uno.
+     *
+     * @param sources run da fondere
+     * @param target  run risultante
+     * @throws IOException in caso di errore di lettura o scrittura
+     */
+    private static void merge(final List<Path> sources, final Path target)
+            throws IOException {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>((a, b) -> {
+            int c = Long.compare(a.hash, b.hash);
+            return c != 0 ? c : Long.compare(a.payload, b.payload);
+        });
+        List<RunCursor> cursors = new ArrayList<>();
+        try (RunWriter writer = new RunWriter(target)) {
+            for (Path p : sources) {
+                RunCursor cursor = new RunCursor(new Run(p));
+                cursors.add(cursor);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunCursor cursor = queue.poll();
+                writer.append(cursor.hash, cursor.payload);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+        } finally {
+            for (RunCursor c : cursors) {
+                c.run.close();
+            }
+        }
+    }
+
+    /**
+     * Compone i dati di una voce in un long.
+     *
+     * @param game   indice della partita
+     * @param ply    semimossa
+     * @param result risultato della partita
+     * @param move   mossa giocata dalla posizione
+     * @return dati compattati
+     */
+    private static long payload(final long game, final int ply,
+                                final byte result, final short move) {
+        return game << (PLY_BITS + RESULT_BITS + MOVE_BITS)
+                | (long) ply << (RESULT_BITS + MOVE_BITS)
+                | (long) result << MOVE_BITS
+                | (move & ((1 << MOVE_BITS) - 1));
+    }
+
+    /**
+     * Ordina le coppie (hash, dati) nell'intervallo [lo, hi] con quicksort.
+     *
+     * @param keys   hash
+     * @param values dati associati
+     * @param lo     primo indice
+     * @param hi     ultimo indice
+     */
+    private static void sort(final long[] keys, final long[] values,
+                             final int lo, final int hi) {
+        int left = lo;
+        int right = hi;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            long pk = keys[mid];
+            long pv = values[mid];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (compare(keys[i], values[i], pk, pv) < 0) {
+                    i++;
+                }
+                while (compare(keys[j], values[j], pk, pv) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    long k = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = k;
+                    long v = values[i];
+                    values[i] = values[j];
+                    values[j] = v;
+                    i++;
+                    j--;
+                }
+            }
+            // ricorsione sulla parte più piccola, ciclo sulla più grande
+            if (j - left < right - i) {
+                sort(keys, values, left, j);
+                left = i;
+            } else {
+                sort(keys, values, i, right);
+                right = j;
+            }
+        }
+    }
+
+    /**
+     * Confronta due coppie (hash, dati).
+     *
+     * @param k1 primo hash
+     * @param v1 primi dati
+     * @param k2 secondo hash
+     * @param v2 secondi dati
+     * @return negativo, zero o positivo come {@link Long#compare}
+     */
+    private static int compare(final long k1, final long v1,
+                               final long k2, final long v2) {
+        int c = Long.compare(k1, k2);
+        return c != 0 ? c : Long.compare(v1, v2);
+    }
+
+    /**
+     * Costruisce o aggiorna un indice da riga di comando.
+     *
+     * @param args archivio e directory dell'indice
+     * @throws IOException in caso di errore di lettura o scrittura
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Uso: PositionIndex <archivio.dga> <directory>");
+            return;
+        }
+        long start = System.nanoTime();
+        try (GameArchive archive = new GameArchive(Paths.get(args[0]));
+             PositionIndex index = new PositionIndex(Paths.get(args[1]))) {
+            long added = index.update(archive);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(added + " partite indicizzate ("
+                    + index.size() + " posizioni) in " + millis + " ms");
+        }
+    }
+
+    /**
+     * Partita passata per la posizione cercata.
+     */
+    public static final class Hit {
+
+        /** Indice della partita nell'archivio. */
+        private final long game;
+
+        /** Semimossa in cui la posizione è stata raggiunta. */
+        private final int ply;
+
+        /**
+         * Mossa giocata dalla posizione, o {@link #NO_MOVE}; il numero di
+         * alternativa delle prese ambigue non viene conservato.
+         */
+        private final short move;
+
+        /** Risultato della partita. */
+        private final byte result;
+
+        /**
+         * Decodifica una voce.
+         *
+         * @param payload dati compattati della voce
+         */
+        Hit(final long payload) {
+            this.game = payload >>> (PLY_BITS + RESULT_BITS + MOVE_BITS);
+            this.ply = (int) (payload >>> (RESULT_BITS + MOVE_BITS))
+                    & ((1 << PLY_BITS) - 1);
+            this.result = (byte) ((payload >>> MOVE_BITS)
+                    & ((1 << RESULT_BITS) - 1));
+            this.move = (short) (payload & ((1 << MOVE_BITS) - 1));
+        }
+
+        /**
+         * Restituisce l'indice della partita.
+         *
+         * @return indice nell'archivio
+         */
+        public long getGame() {
+            return game;
+        }
+
+        /**
+         * Restituisce la semimossa della posizione.
+         *
+         * @return semimossa (da 0)
+         */
+        public int getPly() {
+            return ply;
+        }
+
+        /**
+         * Restituisce la mossa giocata dalla posizione.
+         *
+         * @return codice della mossa, o {@link #NO_MOVE} a fine partita
+         */
+        public short getMove() {
+            return move;
+        }
+
+        /**
+         * Restituisce il risultato della partita.
+         *
+         * @return risultato (vedi {@link GameRecord})
+         */
+        public byte getResult() {
+            return result;
+        }
+    }
+
+    /**
+     * Statistiche di una mossa giocata dalla posizione cercata.
+     */
+    public static final class MoveSummary {
+
+        /** Codice della mossa. */
+        private final short move;
+
+        /** Partite per risultato, indicizzate come in {@link GameRecord}. */
+        private final int[] results = new int[4];
+
+        /** Partite in cui è stata giocata. */
+        private int games;
+
+        /**
+         * Crea le statistiche vuote di una mossa.
+         *
+         * @param moveArg codice della mossa
+         */
+        MoveSummary(final short moveArg) {
+            this.move = moveArg;
+        }
+
+        /**
+         * Conta una partita.
+         *
+         * @param result risultato della partita
+         */
+        void add(final byte result) {
+            games++;
+            results[result]++;
+        }
+
+        /**
+         * Restituisce il codice della mossa.
+         *
+         * @return codice compatto
+         */
+        public short getMove() {
+            return move;
+        }
+
+        /**
+         * Restituisce il numero di partite.
+         *
+         * @return partite in cui è stata giocata
+         */
+        public int getGames() {
+            return games;
+        }
+
+        /**
+         * Restituisce le partite terminate con il risultato indicato.
+         *
+         * @param result risultato (vedi {@link GameRecord})
+         * @return numero di partite
+         */
+        public int getResultCount(final byte result) {
+            return results[result];
+        }
+
+        @Override
+        public String toString() {
+            return PdnWriter.moveText(move) + " " + games + " (+"
+                    + results[GameRecord.WHITE_WIN] + " ="
+                    + results[GameRecord.DRAW] + " -"
+                    + results[GameRecord.BLACK_WIN] + ")";
+        }
+    }
+
+    /**
+     * Run aperto in lettura: indice sparso in memoria, blocchi su disco.
+     */
+    private static final class Run implements Closeable {
+
+        /** File del run. */
+        private final Path file;
+
+        /** Canale aperto sul file. */
+        private final FileChannel channel;
+
+        /** Voci totali. */
+        private final long entries;
+
+        /** Primo hash di ogni blocco. */
+        private final long[] firstHash;
+
+        /** Posizione di ogni blocco. */
+        private final long[] offset;
+
+        /** Lunghezza compressa di ogni blocco. */
+        private final int[] length;
+
+        /** Lunghezza decompressa di ogni blocco. */
+        private final int[] rawLength;
+
+        /** Voci di ogni blocco. */
+        private final int[] count;
+
+        /**
+         * Apre un run e ne legge l'indice sparso.
+         *
+         * @param fileArg file del run
+         * @throws IOException se il file non è un run valido
+         */
+        Run(final Path fileArg) throws IOException {
+            this.file = fileArg;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = read(0, HEADER_BYTES);
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Run non valido: " + file);
+                }
+                entries = header.getLong();
+                int blocks = header.getInt();
+                long sparse = header.getLong();
+
+                firstHash = new long[blocks];
+                offset = new long[blocks];
+                length = new int[blocks];
+                rawLength = new int[blocks];
+                count = new int[blocks];
+                ByteBuffer index = read(sparse, blocks * RunWriter.SPARSE_BYTES);
+                for (int b = 0; b < blocks; b++) {
+                    firstHash[b] = index.getLong();
+                    offset[b] = index.getLong();
+                    length[b] = index.getInt();
+                    rawLength[b] = index.getInt();
+                    count[b] = index.getInt();
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Legge una porzione del file.
+         *
+         * @param position posizione iniziale
+         * @param size     byte da leggere
+         * @return buffer pronto per la lettura
+         * @throws IOException in caso di file troncato
+         */
+        private ByteBuffer read(final long position, final int size)
+                throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Run troncato: " + file);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Legge e decomprime un blocco.
+         *
+         * @param block indice del blocco
+         * @return voci del blocco codificate
+         * @throws IOException in caso di errore di lettura o di formato
+         */
+        ByteBuffer block(final int block) throws IOException {
+            ByteBuffer packed = read(offset[block], length[block]);
+            byte[] raw = new byte[rawLength[block]];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(packed.array());
+                int n = inflater.inflate(raw);
+                if (n != raw.length) {
+                    throw new IOException("Blocco corrotto in " + file);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Blocco corrotto in " + file, e);
+            } finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(raw);
+        }
+
+        /**
+         * Accoda le voci con l'hash indicato.
+         *
+         * @param hash hash cercato
+         * @param hits lista di destinazione
+         * @throws IOException in caso di errore di lettura
+         */
+        void lookup(final long hash, final List<Hit> hits)
+                throws IOException {
+            // ultimo blocco che inizia prima dell'hash: le voci uguali
+            // possono cominciare alla sua fine
+            int lo = 0;
+            int hi = firstHash.length - 1;
+            int start = 0;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (firstHash[mid] < hash) {
+                    start = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+
+            for (int b = start; b < firstHash.length
+                    && firstHash[b] <= hash; b++) {
+                ByteBuffer data = block(b);
+                long h = 0;
+                for (int i = 0; i < count[b]; i++) {
+                    h += readVarLong(data);
+                    long payload = readVarLong(data);
+                    if (h == hash) {
+                        hits.add(new Hit(payload));
+                    } else if (h > hash) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Lettura sequenziale di un run, per la fusione.
+     */
+    private static final class RunCursor {
+
+        /** Run letto. */
+        private final Run run;
+
+        /** Blocco corrente. */
+        private int block = -1;
+
+        /** Voci rimaste nel blocco corrente. */
+        private int remaining;
+
+        /** Dati del blocco corrente. */
+        private ByteBuffer data;
+
+        /** Hash della voce corrente. */
+        private long hash;
+
+        /** Dati della voce corrente. */
+        private long payload;
+
+        /**
+         * Crea un cursore posizionato prima della prima voce.
+         *
+         * @param runArg run da leggere
+         */
+        RunCursor(final Run runArg) {
+            this.run = runArg;
+        }
+
+        /**
+         * Avanza alla voce successiva.
+         *
+         * @return false se il run è terminato
+         * @throws IOException in caso di errore di lettura
+         */
+        boolean next() throws IOException {
+            while (remaining == 0) {
+                if (++block >= run.count.length) {
+                    return false;
+                }
+                data = run.block(block);
+                remaining = run.count[block];
+                hash = 0;
+            }
+            hash += readVarLong(data);
+            payload = readVarLong(data);
+            remaining--;
+            return true;
+        }
+    }
+
+    /**
+     * Scrittore di un run: le voci vanno accodate in ordine.
+     */
+    private static final class RunWriter implements Closeable {
+
+        /** Byte di una voce dell'indice sparso. */
+        static final int SPARSE_BYTES = 2 * Long.BYTES + 3 * Integer.BYTES;
+
+        /** Canale del file. */
+        private final FileChannel channel;
+
+        /** Flusso bufferizzato sul canale. */
+        private final DataOutputStream out;
+
+        /** Compressore riusato per tutti i blocchi. */
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        /** Voci del blocco in costruzione, codificate. */
+        private final ByteBuffer raw =
+                ByteBuffer.allocate(BLOCK_ENTRIES * 2 * 10);
+
+        /** Buffer per il blocco compresso. */
+        private byte[] packed = new byte[raw.capacity() + 64];
+
+        /** Indice sparso accumulato in memoria. */
+        private final ByteArrayOutputStream sparseBytes =
+                new ByteArrayOutputStream();
+
+        /** Scrittura dell'indice sparso. */
+        private final DataOutputStream sparse =
+                new DataOutputStream(sparseBytes);
+
+        /** Voci scritte. */
+        private long entries;
+
+        /** Blocchi scritti. */
+        private int blocks;
+
+        /** Voci nel blocco in costruzione. */
+        private int blockCount;
+
+        /** Primo hash del blocco in costruzione. */
+        private long blockFirst;
+
+        /** Ultimo hash scritto. */
+        private long last;
+
+        /** Posizione corrente nel file. */
+        private long position = HEADER_BYTES;
+
+        /**
+         * Crea il file del run.
+         *
+         * @param file percorso del run
+         * @throws IOException in caso di errore di scrittura
+         */
+        RunWriter(final Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            channel.position(HEADER_BYTES);
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+        }
+
+        /**
+         * Accoda una voce.
+         *
+         * @param hash    hash della posizione
+         * @param payload dati della voce
+         * @throws IOException in caso di errore di scrittura
+         */
+        void append(final long hash, final long payload) throws IOException {
+            if (blockCount == 0) {
+                blockFirst = hash;
+                last = 0;
+            }
+            writeVarLong(raw, hash - last);
+            writeVarLong(raw, payload);
+            last = hash;
+            entries++;
+            if (++blockCount == BLOCK_ENTRIES) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * Comprime e scrive il blocco in costruzione.
+         *
+         * @throws IOException in caso di errore di scrittura
+         */
+        private void flushBlock() throws IOException {
+            if (blockCount == 0) {
+                return;
+            }
+            deflater.reset();
+            deflater.setInput(raw.array(), 0, raw.position());
+            deflater.finish();
+            int len = 0;
+            while (!deflater.finished()) {
+                if (len == packed.length) {
+                    packed = Arrays.copyOf(packed, packed.length * 2);
+                }
+                len += deflater.deflate(packed, len, packed.length - len);
+            }
+            out.write(packed, 0, len);
+
+            sparse.writeLong(blockFirst);
+            sparse.writeLong(position);
+            sparse.writeInt(len);
+            sparse.writeInt(raw.position());
+            sparse.writeInt(blockCount);
+
+            position += len;
+            blocks++;
+            blockCount = 0;
+            raw.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                sparseBytes.writeTo(out);
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putLong(entries)
+                        .putInt(blocks).putLong(position);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                // il run deve essere su disco prima di essere rinominato
+                channel.force(true);
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Scrive un intero senza segno in formato a lunghezza variabile.
+     *
+     * @param buffer destinazione
+     * @param value  valore (interpretato senza segno)
+     */
+    private static void writeVarLong(final ByteBuffer buffer,
+                                     final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    /**
+     * Legge un intero scritto con {@link #writeVarLong}.
+     *
+     * @param buffer sorgente
+     * @return valore letto
+     */
+    private static long readVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,625 @@
+package it.unimol.dama;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Risolutore a numeri di prova (df-pn) per dimostrare vittorie e
+ * sconfitte forzate, ad esempio per validare problemi o aggiudicare
+ * finali.
+ *
+ * <p>A differenza di {@link MinMax}, che esplora tutte le mosse fino a
+ * una profondità fissa, la ricerca in profondità con numeri di prova e
+ * di confutazione segue sempre il ramo che sembra più facile da
+ * risolvere, e si ferma appena la vittoria è dimostrata o esclusa. Usa la
+ * stessa generazione delle mosse e le stesse regole: perde chi non ha
+ * mosse legali. Una vittoria è dimostrata se l'avversario resta senza
+ * mosse entro un numero massimo di semimosse; la distanza dall'orizzonte
+ * fa parte della chiave delle posizioni, così le ripetizioni non creano
+ * cicli.
+ *
+ * <p>I risultati parziali stanno in una tabella di dimensione fissa. Quando
+ * si riempie, una raccolta dei rifiuti libera prima le posizioni già
+ * risolte con sottoalberi piccoli (il padre conserva il risultato),
+ * poi quelle non risolte meno costose da ricalcolare.
+ *
+ * <p>Un'istanza non è thread-safe. Uso da riga di comando:
+ * {@code ProofSolver <partite.pdn> <semimosse> [nodi] [MiB]} risolve la
+ * posizione finale di ogni partita del file.
+ */
+public final class ProofSolver {
+
+    /** Numero di prova "infinito": il ramo è risolto. */
+    static final int INFINITY = 1 << 30;
+
+    /** Dimensione predefinita della tabella in MiB. */
+    public static final int DEFAULT_MEGABYTES = 32;
+
+    /** Nodi massimi predefiniti per dimostrazione. */
+    public static final long DEFAULT_NODES = 10_000_000L;
+
+    /** Voci per bucket della tabella. */
+    private static final int WAYS = 4;
+
+    /** Byte per voce: chiave, due numeri e lavoro. */
+    private static final int ENTRY_BYTES = Long.BYTES + 3 * Integer.BYTES;
+
+    /** Riempimento che avvia la raccolta dei rifiuti. */
+    private static final double GC_TRIGGER = 0.9;
+
+    /** Riempimento da raggiungere con la raccolta dei rifiuti. */
+    private static final double GC_TARGET = 0.6;
+
+    /** Esito dal punto di vista di chi muove. */
+    public enum Outcome {
+        /** Vittoria forzata entro il limite di semimosse. */
+        WIN,
+        /** Sconfitta forzata entro il limite di semimosse. */
+        LOSS,
+        /** Né vittoria né sconfitta dimostrate entro i limiti. */
+        UNKNOWN
+    }
+
+    /** Chiavi della tabella (0 se la voce è vuota). */
+    private final long[] keys;
+
+    /** Numero di prova per chi muove (costo per dimostrarne la vittoria). */
+    private final int[] phi;
+
+    /** Numero di confutazione per chi muove. */
+    private final int[] delta;
+
+    /** Nodi visitati nel sottoalbero della voce, saturati. */
+    private final int[] work;
+
+    /** Maschera per ricavare il bucket dalla chiave. */
+    private final int bucketMask;
+
+    /** Voci occupate. */
+    private int size;
+
+    /** Raccolte dei rifiuti eseguite nell'ultima soluzione. */
+    private int collections;
+
+    /** Nodi espansi nell'ultima soluzione. */
+    private long nodes;
+
+    /** Limite di nodi dell'ultima soluzione. */
+    private long budget;
+
+    /** Colore che cerca di vincere nella dimostrazione in corso. */
+    private boolean attackerWhite;
+
+    /** Pezzi catturati per semimosse rimanenti, per disfare le mosse. */
+    private Piece[][] undo = new Piece[0][];
+
+    /**
+     * Crea il risolutore con la tabella di dimensione predefinita.
+     */
+    public ProofSolver() {
+        this(DEFAULT_MEGABYTES);
+    }
+
+    /**
+     * Crea il risolutore.
+     *
+     * @param megabytes memoria massima della tabella in MiB
+     * @throws IllegalArgumentException se la memoria non è positiva
+     */
+    public ProofSolver(final int megabytes) {
+        if (megabytes <= 0) {
+            throw new IllegalArgumentException(
+                    "Memoria non valida: " + megabytes);
+        }
+        long entries = Long.highestOneBit(Math.min(1L << 28,
+                (long) megabytes * (1 << 20) / ENTRY_BYTES));
+        int buckets = (int) Math.max(1, entries / WAYS);
+        bucketMask = buckets - 1;
+        keys = new long[buckets * WAYS];
+        phi = new int[buckets * WAYS];
+        delta = new int[buckets * WAYS];
+        work = new int[buckets * WAYS];
+    }
+
+    /**
+     * Cerca di dimostrare una vittoria o una sconfitta forzata per chi
+     * muove.
+     *
+     * @param position posizione, con il turno
+     * @param maxPlies semimosse massime della soluzione
+     * @param maxNodes nodi massimi da espandere per ciascuna delle due
+     *                 dimostrazioni (vittoria e sconfitta) e per il
+     *                 conteggio della prova
+     * @return esito, mossa vincente, dimensione della prova e statistiche
+     * @throws IllegalArgumentException se i limiti non sono positivi
+     */
+    public Result solve(final Position position, final int maxPlies,
+                        final long maxNodes) {
+        if (maxPlies <= 0 || maxNodes <= 0) {
+            throw new IllegalArgumentException("Limiti non validi");
+        }
+        long start = System.nanoTime();
+        Board board = position.toBoard();
+        boolean whiteTurn = position.isWhiteTurn();
+        long hash = Zobrist.hash(board, whiteTurn);
+        clear();
+        long total = 0;
+
+        // prima la vittoria di chi muove, poi quella dell'avversario
+        Outcome outcome = Outcome.UNKNOWN;
+        for (int attempt = 0; attempt < 2 && outcome == Outcome.UNKNOWN;
+                attempt++) {
+            attackerWhite = attempt == 0 ? whiteTurn : !whiteTurn;
+            nodes = 0;
+            budget = maxNodes;
+            long rootKey = key(hash, maxPlies);
+            mid(board, whiteTurn, maxPlies, rootKey, INFINITY, INFINITY);
+            total += nodes;
+            int slot = find(rootKey);
+            if (slot >= 0 && attempt == 0 && phi[slot] == 0) {
+                outcome = Outcome.WIN;
+            } else if (slot >= 0 && attempt == 1 && delta[slot] == 0) {
+                outcome = Outcome.LOSS;
+            }
+        }
+
+        Move winning = null;
+        long proofSize = 0;
+        if (outcome != Outcome.UNKNOWN) {
+            nodes = 0;
+            budget = maxNodes;
+            if (outcome == Outcome.WIN) {
+                List<Move> moves = Move.getAllMoves(board, whiteTurn);
+                int i = provenChild(board, whiteTurn, maxPlies, moves,
+                        key(hash, maxPlies));
+                winning = i < 0 ? null : moves.get(i);
+            }
+            proofSize = proofSize(board, whiteTurn, maxPlies, hash,
+                    new HashSet<>());
+            total += nodes;
+        }
+        return new Result(outcome, winning, proofSize, total,
+                System.nanoTime() - start, collections);
+    }
+
+    /**
+     * Risolve la posizione finale di ogni partita di un file PDN e
+     * stampa esito, mossa e statistiche.
+     *
+     * @param args file PDN, semimosse massime, nodi massimi e memoria in
+     *             MiB opzionali
+     * @throws IOException in caso di errore di lettura
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: ProofSolver <partite.pdn> <semimosse> "
+                    + "[nodi] [MiB]");
+            return;
+        }
+        int plies = Integer.parseInt(args[1]);
+        long maxNodes = args.length > 2 ? Long.parseLong(args[2])
+                : DEFAULT_NODES;
+        ProofSolver solver = new ProofSolver(args.length > 3
+                ? Integer.parseInt(args[3]) : DEFAULT_MEGABYTES);
+        try (Reader reader = Files.newBufferedReader(Paths.get(args[0]),
+                StandardCharsets.UTF_8);
+             PdnReader pdn = new PdnReader(reader)) {
+            GameRecord game;
+            int count = 0;
+            while ((game = pdn.read()) != null) {
+                Position position = game.replay().getPosition();
+                System.out.println(++count + " "
+                        + (position.isWhiteTurn() ? "bianco" : "nero") + ": "
+                        + solver.solve(position, plies, maxNodes));
+            }
+        }
+    }
+
+    /**
+     * Espansione df-pn: esplora il nodo finché i suoi numeri restano
+     * sotto le soglie, poi li salva nella tabella.
+     *
+     * @param board     scacchiera (modificata e ripristinata)
+     * @param whiteTurn true se tocca al bianco
+     * @param remaining semimosse rimanenti (positive)
+     * @param key       chiave del nodo
+     * @param thPhi     soglia del numero di prova
+     * @param thDelta   soglia del numero di confutazione
+     */
+    private void mid(final Board board, final boolean whiteTurn,
+                     final int remaining, final long key, final int thPhi,
+                     final int thDelta) {
+        long startNodes = nodes++;
+        List<Move> moves = Move.getAllMoves(board, whiteTurn);
+        int n = moves.size();
+        if (n == 0) {
+            // chi non ha mosse ha perso
+            store(key, INFINITY, 0, 1);
+            return;
+        }
+
+        long[] childKeys = new long[n];
+        int[] initPhi = new int[n];
+        int[] initDelta = new int[n];
+        Piece[] captured = undoBuffer(remaining);
+        for (int i = 0; i < n; i++) {
+            Move move = moves.get(i);
+            boolean promoted = board.applyMove(move, captured);
+            childKeys[i] = key(Zobrist.hash(board, !whiteTurn),
+                    remaining - 1);
+            if (remaining == 1) {
+                // all'orizzonte l'attaccante vince solo se il difensore
+                // è rimasto senza mosse
+                boolean lost = !whiteTurn == attackerWhite
+                        || Move.getAllMoves(board, !whiteTurn).isEmpty();
+                initPhi[i] = lost ? INFINITY : 0;
+                initDelta[i] = lost ? 0 : INFINITY;
+            } else {
+                initPhi[i] = 1;
+                initDelta[i] = 1;
+            }
+            board.undoMove(move, captured, promoted);
+        }
+
+        while (true) {
+            int nodePhi = INFINITY;
+            int nodeDelta = 0;
+            int best = -1;
+            int secondDelta = INFINITY;
+            for (int i = 0; i < n; i++) {
+                int slot = find(childKeys[i]);
+                int cPhi = slot >= 0 ? phi[slot] : initPhi[i];
+                int cDelta = slot >= 0 ? delta[slot] : initDelta[i];
+                nodeDelta = (int) Math.min(INFINITY, (long) nodeDelta + cPhi);
+                if (cDelta < nodePhi) {
+                    secondDelta = nodePhi;
+                    nodePhi = cDelta;
+                    best = i;
+                } else if (cDelta < secondDelta) {
+                    secondDelta = cDelta;
+                }
+            }
+
+            if (nodePhi >= thPhi || nodeDelta >= thDelta
+                    || nodes >= budget) {
+                store(key, nodePhi, nodeDelta, nodes - startNodes);
+                return;
+            }
+
+            int slot = find(childKeys[best]);
+            int bestPhi = slot >= 0 ? phi[slot] : initPhi[best];
+            int childThPhi = (int) Math.min(INFINITY,
+                    (long) thDelta - nodeDelta + bestPhi);
+            int childThDelta = Math.min(thPhi, secondDelta + 1);
+
+            Move move = moves.get(best);
+            boolean promoted = board.applyMove(move, captured);
+            mid(board, !whiteTurn, remaining - 1, childKeys[best],
+                    childThPhi, childThDelta);
+            board.undoMove(move, captured, promoted);
+        }
+    }
+
+    /**
+     * Restituisce l'indice di una mossa che lascia l'avversario in una
+     * posizione persa. Se i figli non sono più nella tabella la posizione
+     * viene dimostrata di nuovo, entro il limite di nodi.
+     *
+     * @param board     scacchiera (modificata e ripristinata)
+     * @param whiteTurn true se tocca al bianco, che deve essere
+     *                  l'attaccante
+     * @param remaining semimosse rimanenti (positive)
+     * @param moves     mosse legali
+     * @param key       chiave della posizione
+     * @return indice della mossa vincente, o -1 se non è stata trovata
+     */
+    private int provenChild(final Board board, final boolean whiteTurn,
+                            final int remaining, final List<Move> moves,
+                            final long key) {
+        Piece[] captured = undoBuffer(remaining);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            for (int i = 0; i < moves.size(); i++) {
+                Move move = moves.get(i);
+                boolean promoted = board.applyMove(move, captured);
+                boolean lost;
+                if (remaining == 1) {
+                    lost = Move.getAllMoves(board, !whiteTurn).isEmpty();
+                } else {
+                    int slot = find(key(Zobrist.hash(board, !whiteTurn),
+                            remaining - 1));
+                    lost = slot >= 0 && delta[slot] == 0;
+                }
+                board.undoMove(move, captured, promoted);
+                if (lost) {
+                    return i;
+                }
+            }
+            if (attempt == 0) {
+                mid(board, whiteTurn, remaining, key, INFINITY, INFINITY);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Conta le posizioni distinte della prova: dove muove l'attaccante
+     * basta una mossa vincente, dove muove il difensore servono tutte le
+     * risposte.
+     *
+     * @param board     scacchiera (modificata e ripristinata)
+     * @param whiteTurn true se tocca al bianco
+     * @param remaining semimosse rimanenti
+     * @param hash      hash della posizione
+     * @param seen      chiavi già contate
+     * @return posizioni della prova non ancora contate
+     */
+    private long proofSize(final Board board, final boolean whiteTurn,
+                           final int remaining, final long hash,
+                           final Set<Long> seen) {
+        long key = key(hash, remaining);
+        if (!seen.add(key) || remaining == 0) {
+            return remaining == 0 ? 1 : 0;
+        }
+        List<Move> moves = Move.getAllMoves(board, whiteTurn);
+        if (!moves.isEmpty() && whiteTurn == attackerWhite) {
+            int winning = provenChild(board, whiteTurn, remaining, moves,
+                    key);
+            moves = winning < 0 ? List.of()
+                    : moves.subList(winning, winning + 1);
+        }
+        Piece[] captured = undoBuffer(remaining);
+        long total = 1;
+        for (Move move : moves) {
+            boolean promoted = board.applyMove(move, captured);
+            total += proofSize(board, !whiteTurn, remaining - 1,
+                    Zobrist.hash(board, !whiteTurn), seen);
+            board.undoMove(move, captured, promoted);
+        }
+        return total;
+    }
+
+    /**
+     * Combina l'hash della posizione con le semimosse rimanenti e con il
+     * colore che attacca.
+     *
+     * @param hash      hash di {@link Zobrist}
+     * @param remaining semimosse rimanenti
+     * @return chiave della tabella (mai 0)
+     */
+    private long key(final long hash, final int remaining) {
+        long k = hash ^ (remaining + 1) * 0x9E3779B97F4A7C15L
+                ^ (attackerWhite ? 0xD1B54A32D192ED03L : 0);
+        return k == 0 ? 1 : k;
+    }
+
+    /**
+     * Cerca la voce della chiave.
+     *
+     * @param key chiave
+     * @return indice della voce, o -1
+     */
+    private int find(final long key) {
+        int base = bucket(key);
+        for (int i = base; i < base + WAYS; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Salva i numeri di un nodo, sostituendo nel bucket la voce con meno
+     * lavoro se non c'è posto.
+     *
+     * @param key      chiave
+     * @param p        numero di prova
+     * @param d        numero di confutazione
+     * @param nodeWork nodi visitati nel sottoalbero
+     */
+    private void store(final long key, final int p, final int d,
+                       final long nodeWork) {
+        int base = bucket(key);
+        int slot = -1;
+        for (int i = base; i < base + WAYS; i++) {
+            if (keys[i] == key) {
+                slot = i;
+                break;
+            }
+            if (keys[i] == 0 && slot < 0) {
+                slot = i;
+            }
+        }
+        if (slot < 0) {
+            slot = base;
+            for (int i = base + 1; i < base + WAYS; i++) {
+                if (work[i] < work[slot]) {
+                    slot = i;
+                }
+            }
+        } else if (keys[slot] == 0) {
+            size++;
+        }
+        // il lavoro di una voce aggiornata si accumula
+        long previous = keys[slot] == key ? work[slot] : 0;
+        keys[slot] = key;
+        phi[slot] = p;
+        delta[slot] = d;
+        work[slot] = (int) Math.min(Integer.MAX_VALUE, previous + nodeWork);
+        if (size > keys.length * GC_TRIGGER) {
+            collectGarbage();
+        }
+    }
+
+    /**
+     * Libera la tabella fino al riempimento {@link #GC_TARGET}: prima le
+     * voci risolte, poi le altre, in ordine di lavoro crescente.
+     */
+    private void collectGarbage() {
+        collections++;
+        for (int pass = 0; pass < 2; pass++) {
+            for (long limit = 1; size > keys.length * GC_TARGET
+                    && limit <= Integer.MAX_VALUE; limit *= 2) {
+                for (int i = 0; i < keys.length; i++) {
+                    boolean solved = phi[i] == 0 || delta[i] == 0;
+                    if (keys[i] != 0 && work[i] <= limit
+                            && (pass == 1 || solved)) {
+                        keys[i] = 0;
+                        size--;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Svuota la tabella.
+     */
+    private void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+        collections = 0;
+    }
+
+    /**
+     * Restituisce il primo indice del bucket della chiave.
+     *
+     * @param key chiave
+     * @return indice della prima voce
+     */
+    private int bucket(final long key) {
+        return ((int) (key ^ key >>> 32) & bucketMask) * WAYS;
+    }
+
+    /**
+     * Restituisce il buffer dei pezzi catturati per le semimosse
+     * rimanenti indicate.
+     *
+     * @param remaining semimosse rimanenti
+     * @return array per {@link Board#applyMove}
+     */
+    private Piece[] undoBuffer(final int remaining) {
+        if (remaining >= undo.length) {
+            undo = Arrays.copyOf(undo, remaining + 1);
+        }
+        if (undo[remaining] == null) {
+            undo[remaining] = new Piece[Variant.MAX_SQUARES / 2];
+        }
+        return undo[remaining];
+    }
+
+    /**
+     * Risultato di una soluzione.
+     */
+    public static final class Result {
+
+        /** Esito per chi muove. */
+        private final Outcome outcome;
+
+        /** Mossa vincente, o null. */
+        private final Move move;
+
+        /** Posizioni distinte della prova. */
+        private final long proofSize;
+
+        /** Nodi espansi. */
+        private final long nodes;
+
+        /** Durata in nanosecondi. */
+        private final long nanos;
+
+        /** Raccolte dei rifiuti della tabella. */
+        private final int collections;
+
+        /**
+         * Crea il risultato.
+         *
+         * @param outcomeArg     esito
+         * @param moveArg        mossa vincente, o null
+         * @param proofSizeArg   posizioni della prova
+         * @param nodesArg       nodi espansi
+         * @param nanosArg       durata in nanosecondi
+         * @param collectionsArg raccolte dei rifiuti
+         */
+        Result(final Outcome outcomeArg, final Move moveArg,
+               final long proofSizeArg, final long nodesArg,
+               final long nanosArg, final int collectionsArg) {
+            this.outcome = outcomeArg;
+            this.move = moveArg;
+            this.proofSize = proofSizeArg;
+            this.nodes = nodesArg;
+            this.nanos = nanosArg;
+            this.collections = collectionsArg;
+        }
+
+        /**
+         * Restituisce l'esito per chi muove.
+         *
+         * @return vittoria, sconfitta o esito non dimostrato
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Restituisce la mossa vincente.
+         *
+         * @return prima mossa della vittoria, o null se l'esito non è
+         *         {@link Outcome#WIN}
+         */
+        public Move getMove() {
+            return move;
+        }
+
+        /**
+         * Restituisce la dimensione della prova.
+         *
+         * @return posizioni distinte dell'albero di prova (0 se l'esito
+         *         non è dimostrato)
+         */
+        public long getProofSize() {
+            return proofSize;
+        }
+
+        /**
+         * Restituisce i nodi espansi.
+         *
+         * @return nodi espansi, compresi quelli per misurare la prova
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * Restituisce la durata della soluzione.
+         *
+         * @return nanosecondi
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Restituisce il numero di raccolte dei rifiuti della tabella.
+         *
+         * @return raccolte eseguite
+         */
+        public int getCollections() {
+            return collections;
+        }
+
+        @Override
+        public String toString() {
+            return outcome + (move != null ? " " + move : "")
+                    + " prova " + proofSize + " nodi " + nodes + " in "
+                    + nanos / 1_000_000 + " ms, " + collections + " gc";
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package it.unimol.dama;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Linea di un'analisi multi-PV: una mossa della radice con il suo
+ * valore esatto e la variante principale che ne deriva.
+ */
+public final class PvLine {
+
+    /** Mosse della variante principale, a partire da quella della radice. */
+    private final List<Move> moves;
+
+    /** Valore esatto dal punto di vista del nero. */
+    private final int score;
+
+    /** Profondità di ricerca a cui il valore è stato calcolato. */
+    private final int depth;
+
+    /**
+     * Crea una linea.
+     *
+     * @param movesArg variante principale (non vuota)
+     * @param scoreArg valore dal punto di vista del nero
+     * @param depthArg profondità di ricerca
+     */
+    PvLine(final List<Move> movesArg, final int scoreArg,
+           final int depthArg) {
+        this.moves = Collections.unmodifiableList(movesArg);
+        this.score = scoreArg;
+        this.depth = depthArg;
+    }
+
+    /**
+     * Restituisce la mossa della radice.
+     *
+     * @return prima mossa della linea
+     */
+    public Move getMove() {
+        return moves.get(0);
+    }
+
+    /**
+     * Restituisce la variante principale.
+     *
+     * @return lista non modificabile delle mosse
+     */
+    public List<Move> getMoves() {
+        return moves;
+    }
+
+    /**
+     * Restituisce il valore esatto della linea dal punto di vista del nero.
+     *
+     * @return valore della mossa
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Restituisce la profondità di ricerca della linea.
+     *
+     * @return profondità
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(score).append(" d").append(depth);
+        for (Move m : moves) {
+            sb.append(' ').append(m);
+        }
+        return sb.toString();
+    }
+}
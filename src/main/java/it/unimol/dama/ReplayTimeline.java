@@ -0,0 +1,219 @@
+package it.unimol.dama;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sequenza di posizioni di una partita, per rivederla saltando a una
+ * semimossa qualsiasi.
+ *
+ * <p>Oltre alle mosse, ogni {@link #getInterval()} semimosse viene salvata
+ * un'istantanea compatta della scacchiera: tre {@code long} (pezzi bianchi,
+ * neri e dame) con un bit per casella giocabile. Una posizione si ricostruisce
+ * dall'istantanea precedente applicando al più {@code intervallo - 1} mosse,
+ * quindi in tempo costante rispetto alla lunghezza della partita.
+ *
+ * <p>{@link #seek(int)} calcola la posizione su un thread in background e
+ * prepara anche le semimosse adiacenti, così lo scorrimento avanti e
+ * indietro non blocca chi la chiama (ad esempio il thread di JavaFX).
+ */
+public final class ReplayTimeline {
+
+    /** Semimosse tra due istantanee predefinite. */
+    public static final int DEFAULT_INTERVAL = 16;
+
+    /** Semimosse preparate in anticipo prima e dopo quella richiesta. */
+    private static final int PREFETCH_RADIUS = 2;
+
+    /** Thread in background che ricostruisce le posizioni. */
+    private static final ExecutorService PREFETCH =
+            Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "dama-replay");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** Variante della partita. */
+    private final Variant variant;
+
+    /** Mosse della partita, in ordine di gioco. */
+    private final Move[] moves;
+
+    /** Semimosse tra due istantanee. */
+    private final int interval;
+
+    /** Istantanee: bianco, nero e dame per ogni multiplo dell'intervallo. */
+    private final long[] snapshots;
+
+    /** Posizioni richieste o preparate attorno all'ultima richiesta. */
+    private final Map<Integer, CompletableFuture<Board>> window =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Crea la sequenza con l'intervallo predefinito tra le istantanee.
+     *
+     * @param variantArg variante della partita
+     * @param movesArg   mosse legali dalla posizione iniziale
+     */
+    public ReplayTimeline(final Variant variantArg,
+                          final List<Move> movesArg) {
+        this(variantArg, movesArg, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Crea la sequenza giocando una volta le mosse dalla posizione
+     * iniziale e salvando le istantanee.
+     *
+     * @param variantArg  variante della partita
+     * @param movesArg    mosse legali dalla posizione iniziale
+     * @param intervalArg semimosse tra due istantanee
+     * @throws IllegalArgumentException se l'intervallo non è positivo
+     */
+    public ReplayTimeline(final Variant variantArg, final List<Move> movesArg,
+                          final int intervalArg) {
+        if (intervalArg <= 0) {
+            throw new IllegalArgumentException(
+                    "Intervallo non valido: " + intervalArg);
+        }
+        variant = variantArg;
+        moves = movesArg.toArray(new Move[0]);
+        interval = intervalArg;
+        snapshots = new long[3 * (moves.length / interval + 1)];
+
+        Board board = new Board(variant);
+        Piece[] captured = new Piece[Variant.MAX_SQUARES / 2];
+        for (int ply = 0; ply <= moves.length; ply++) {
+            if (ply % interval == 0) {
+                Bitboard.pack(board, snapshots, 3 * (ply / interval));
+            }
+            if (ply < moves.length) {
+                board.applyMove(moves[ply], captured);
+            }
+        }
+    }
+
+    /**
+     * Crea la sequenza di una partita registrata.
+     *
+     * @param record partita
+     * @return sequenza delle posizioni
+     * @throws IllegalStateException se una mossa non è legale
+     */
+    public static ReplayTimeline of(final GameRecord record) {
+        return new ReplayTimeline(record.getVariant(),
+                record.replay().getMoveHistory());
+    }
+
+    /**
+     * Restituisce la variante della partita.
+     *
+     * @return variante
+     */
+    public Variant getVariant() {
+        return variant;
+    }
+
+    /**
+     * Restituisce il numero di semimosse.
+     *
+     * @return semimosse della partita
+     */
+    public int getPlyCount() {
+        return moves.length;
+    }
+
+    /**
+     * Restituisce le semimosse tra due istantanee.
+     *
+     * @return intervallo delle istantanee
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Restituisce la mossa giocata alla semimossa indicata.
+     *
+     * @param ply indice della semimossa (da 0)
+     * @return mossa
+     */
+    public Move getMove(final int ply) {
+        return moves[ply];
+    }
+
+    /**
+     * Indica se nella posizione dopo {@code ply} semimosse muove il bianco.
+     *
+     * @param ply semimosse giocate
+     * @return true se tocca al bianco
+     */
+    public boolean isWhiteTurn(final int ply) {
+        return ply % 2 == 0;
+    }
+
+    /**
+     * Ricostruisce la posizione dopo le semimosse indicate, partendo
+     * dall'istantanea precedente.
+     *
+     * @param ply semimosse giocate (da 0 a {@link #getPlyCount()})
+     * @return nuova scacchiera nella posizione richiesta
+     * @throws IndexOutOfBoundsException se la semimossa non esiste
+     */
+    public Board positionAt(final int ply) {
+        if (ply < 0 || ply > moves.length) {
+            throw new IndexOutOfBoundsException(
+                    "Semimossa fuori dalla partita: " + ply);
+        }
+        int checkpoint = ply / interval;
+        Board board = Bitboard.unpack(variant, snapshots, 3 * checkpoint);
+        Piece[] captured = new Piece[Variant.MAX_SQUARES / 2];
+        for (int i = checkpoint * interval; i < ply; i++) {
+            board.applyMove(moves[i], captured);
+        }
+        return board;
+    }
+
+    /**
+     * Richiede la posizione dopo le semimosse indicate e prepara in
+     * background quelle adiacenti. Le posizioni già preparate sono
+     * disponibili subito.
+     *
+     * @param ply semimosse giocate (da 0 a {@link #getPlyCount()})
+     * @return posizione richiesta; ogni scacchiera restituita è una copia
+     *         che il chiamante può modificare
+     * @throws IndexOutOfBoundsException se la semimossa non esiste
+     */
+    public CompletableFuture<Board> seek(final int ply) {
+        if (ply < 0 || ply > moves.length) {
+            throw new IndexOutOfBoundsException(
+                    "Semimossa fuori dalla partita: " + ply);
+        }
+        CompletableFuture<Board> requested = prepare(ply);
+        for (int d = 1; d <= PREFETCH_RADIUS; d++) {
+            if (ply + d <= moves.length) {
+                prepare(ply + d);
+            }
+            if (ply - d >= 0) {
+                prepare(ply - d);
+            }
+        }
+        window.keySet().removeIf(p -> Math.abs(p - ply) > PREFETCH_RADIUS);
+        return requested.thenApply(Board::clone);
+    }
+
+    /**
+     * Restituisce la posizione dalla finestra, avviandone il calcolo in
+     * background se manca.
+     *
+     * @param ply semimosse giocate
+     * @return posizione (condivisa, da non modificare)
+     */
+    private CompletableFuture<Board> prepare(final int ply) {
+        return window.computeIfAbsent(ply, p -> CompletableFuture
+                .supplyAsync(() -> positionAt(p), PREFETCH));
+    }
+}
@@ -0,0 +1,46 @@
+package it.unimol.dama;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR emesso al termine di ogni ricerca di {@link MinMax}.
+ * La durata dell'evento è il tempo di ricerca della mossa.
+ */
+@Name("it.unimol.dama.Search")
+@Label("Ricerca IA")
+@Category({"Dama", "Ricerca"})
+@Description("Ricerca della mossa migliore")
+final class SearchEvent extends Event {
+
+    /** True se la ricerca è per il bianco. */
+    @Label("Turno del bianco")
+    boolean whiteTurn;
+
+    /** Profondità raggiunta. */
+    @Label("Profondità")
+    int depth;
+
+    /** Nodi visitati. */
+    @Label("Nodi")
+    long nodes;
+
+    /** Tagli alpha-beta. */
+    @Label("Tagli")
+    long cutoffs;
+
+    /** Fattore di ramificazione medio. */
+    @Label("Ramificazione")
+    double branchingFactor;
+
+    /** Valore della mossa scelta (punto di vista del nero). */
+    @Label("Valore")
+    int score;
+
+    /** Mossa scelta. */
+    @Label("Mossa")
+    String move;
+}
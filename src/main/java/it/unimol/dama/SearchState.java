@@ -0,0 +1,367 @@
+package it.unimol.dama;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Stato di una singola ricerca di {@link MinMax}.
+ *
+ * <p>Un'istanza appartiene a un solo thread: i contatori sono campi
+ * semplici, aggiornati senza sincronizzazione durante la ricerca e
+ * riversati in {@link EngineStats} solo al termine. Fanno eccezione
+ * {@link #stop()}, che un altro thread può chiamare per interrompere la
+ * ricerca, e la quota di CPU di {@link #setCpuShare}, rispettata
+ * sospendendo la ricerca a intervalli regolari. Con
+ * {@link #setNodeLimit} la ricerca si ferma da sola dopo un numero di
+ * nodi prefissato.
+ */
+public final class SearchState {
+
+    /** Maschera dei nodi: la ricerca chiama {@link #poll()} ogni 1024. */
+    static final long POLL_MASK = 1024 - 1;
+
+    /** Lavoro minimo tra due pause per rispettare la quota di CPU. */
+    private static final long THROTTLE_SLICE_NANOS = 2_000_000;
+
+    /** Eccezione (senza stack) che interrompe la ricerca. */
+    static final Aborted ABORTED = new Aborted();
+
+    /** Nodi visitati (radice compresa). */
+    long nodes;
+
+    /** Nodi interni, cioè con mosse generate e figli visitati. */
+    long interiorNodes;
+
+    /** Mosse generate nei nodi interni. */
+    long generatedMoves;
+
+    /** Tagli beta (o alpha) avvenuti. */
+    long cutoffs;
+
+    /** Consultazioni di tabelle di posizioni. */
+    long tableProbes;
+
+    /** Consultazioni di tabelle andate a buon fine. */
+    long tableHits;
+
+    /** Profondità dell'ultima iterazione completata. */
+    int completedDepth;
+
+    /** Valore della mossa migliore dell'ultima iterazione completata. */
+    int score;
+
+    /** Pezzi catturati per livello di ricerca, per disfare le mosse. */
+    private Piece[][] undo = new Piece[0][];
+
+    /**
+     * Varianti principali per livello (tabella triangolare), o null se
+     * la ricerca non le raccoglie.
+     */
+    Move[][] pv;
+
+    /** Fine della variante principale di ogni livello in {@link #pv}. */
+    int[] pvLength;
+
+    /** Mossa migliore dell'ultima iterazione completata. */
+    Move bestMove;
+
+    /** Chiamato al termine di ogni iterazione, o null. */
+    private Consumer<SearchState> iterationListener;
+
+    /** True se un altro thread ha chiesto di interrompere la ricerca. */
+    private volatile boolean stopRequested;
+
+    /** Frazione di un core concessa alla ricerca (1 senza limiti). */
+    private double cpuShare = 1;
+
+    /** Nodi dopo cui la ricerca si ferma ({@link Long#MAX_VALUE} se senza). */
+    private long nodeLimit = Long.MAX_VALUE;
+
+    /** Inizio del lavoro dopo l'ultima pausa, o 0. */
+    private long sliceStart;
+
+    /**
+     * Traccia del thread che esegue la ricerca, o null se
+     * {@link SearchTrace} è disattivata.
+     */
+    SearchTrace trace;
+
+    /**
+     * Posizioni dalla partita al nodo corrente, per riconoscere le
+     * ripetizioni; assegnata all'inizio di ogni ricerca.
+     */
+    PositionHistory history;
+
+    /**
+     * Nodi valutati come patta per la cronologia (ripetizione o limite
+     * di mosse): i valori dei sottoalberi che ne contengono dipendono
+     * dalla partita e non vanno salvati in {@link AnalysisCache}.
+     */
+    long historyDraws;
+
+    /**
+     * Crea lo stato per una nuova ricerca, con i contatori a zero e
+     * senza quota di CPU, limite di nodi né ascoltatore delle iterazioni.
+     * I buffer della ricerca vengono allocati al primo uso.
+     */
+    public SearchState() {
+        // campi ai valori iniziali
+    }
+
+    /**
+     * Azzera contatori e risultato per una nuova ricerca, conservando
+     * i buffer già allocati.
+     */
+    void reset() {
+        nodes = 0;
+        interiorNodes = 0;
+        generatedMoves = 0;
+        cutoffs = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        historyDraws = 0;
+        completedDepth = 0;
+        score = 0;
+        pv = null;
+        pvLength = null;
+        bestMove = null;
+        stopRequested = false;
+        sliceStart = 0;
+    }
+
+    /**
+     * Chiede di interrompere la ricerca in corso; può essere chiamato da
+     * qualsiasi thread. La ricerca restituisce il risultato dell'ultima
+     * iterazione completata. La richiesta vale fino a {@link #reset()}.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Indica se è stata chiesta l'interruzione della ricerca.
+     *
+     * @return true dopo {@link #stop()}, fino a {@link #reset()}
+     */
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    /**
+     * Limita la CPU usata dalla ricerca: dopo ogni tratto di lavoro il
+     * thread si ferma per il tempo necessario a rispettare la quota.
+     *
+     * @param share frazione di un core, tra 0 (escluso) e 1
+     * @throws IllegalArgumentException se la quota non è valida
+     */
+    public void setCpuShare(final double share) {
+        if (!(share > 0 && share <= 1)) {
+            throw new IllegalArgumentException("Quota di CPU non valida: "
+                    + share);
+        }
+        cpuShare = share;
+    }
+
+    /**
+     * Limita i nodi visitati: superato il limite la ricerca si ferma
+     * come con {@link #stop()} e restituisce l'ultima iterazione
+     * completata. Il limite è controllato ogni {@code POLL_MASK + 1}
+     * nodi e non interrompe la prima iterazione, così che una mossa
+     * venga comunque trovata. Il limite vale anche dopo
+     * {@link #reset()}.
+     *
+     * @param limit nodi massimi, almeno 1 ({@link Long#MAX_VALUE} per
+     *              nessun limite)
+     * @throws IllegalArgumentException se il limite non è positivo
+     */
+    public void setNodeLimit(final long limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limite di nodi non valido: "
+                    + limit);
+        }
+        nodeLimit = limit;
+    }
+
+    /**
+     * Imposta l'azione da eseguire al termine di ogni iterazione
+     * dell'approfondimento iterativo, sul thread della ricerca.
+     *
+     * @param listener azione che riceve questo stato, o null
+     */
+    public void setIterationListener(final Consumer<SearchState> listener) {
+        iterationListener = listener;
+    }
+
+    /**
+     * Registra il risultato di un'iterazione completata e lo notifica.
+     *
+     * @param move mossa migliore dell'iterazione
+     */
+    void iterationCompleted(final Move move) {
+        bestMove = move;
+        if (iterationListener != null) {
+            iterationListener.accept(this);
+        }
+    }
+
+    /**
+     * Controllo periodico della ricerca: interrompe se richiesto o se il
+     * limite di nodi è superato e fa una pausa se la quota di CPU è stata
+     * superata.
+     *
+     * @throws Aborted se è stata chiesta l'interruzione
+     */
+    void poll() {
+        if (stopRequested || nodes >= nodeLimit && completedDepth > 0) {
+            throw ABORTED;
+        }
+        if (cpuShare >= 1) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (sliceStart == 0) {
+            sliceStart = now;
+            return;
+        }
+        long worked = now - sliceStart;
+        if (worked >= THROTTLE_SLICE_NANOS) {
+            LockSupport.parkNanos((long) (worked * (1 - cpuShare) / cpuShare));
+            if (stopRequested) {
+                throw ABORTED;
+            }
+            sliceStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Attiva la raccolta delle varianti principali fino alla profondità
+     * indicata.
+     *
+     * @param depth profondità massima della ricerca
+     */
+    void collectPv(final int depth) {
+        if (pv == null || pv.length <= depth) {
+            pv = new Move[depth + 1][depth + 1];
+            pvLength = new int[depth + 2];
+        }
+    }
+
+    /**
+     * Registra la mossa come migliore del livello, seguita dalla variante
+     * principale del livello successivo.
+     *
+     * @param ply  distanza dalla radice
+     * @param move mossa migliore trovata
+     */
+    void updatePv(final int ply, final Move move) {
+        Move[] line = pv[ply];
+        line[ply] = move;
+        int end = pvLength[ply + 1];
+        System.arraycopy(pv[ply + 1], ply + 1, line, ply + 1, end - ply - 1);
+        pvLength[ply] = end;
+    }
+
+    /**
+     * Restituisce il buffer dei pezzi catturati del livello indicato,
+     * allocandolo solo al primo utilizzo.
+     *
+     * @param ply distanza dalla radice
+     * @return array per {@link Board#applyMove}
+     */
+    Piece[] undoBuffer(final int ply) {
+        if (ply >= undo.length) {
+            undo = Arrays.copyOf(undo, ply + 1);
+        }
+        if (undo[ply] == null) {
+            undo[ply] = new Piece[Variant.MAX_SQUARES / 2];
+        }
+        return undo[ply];
+    }
+
+    /**
+     * Restituisce la mossa migliore dell'ultima iterazione completata.
+     *
+     * @return mossa migliore, o null se nessuna iterazione è completa
+     */
+    public Move getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Restituisce i nodi visitati.
+     *
+     * @return numero di nodi
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Restituisce il numero di tagli alpha-beta.
+     *
+     * @return numero di tagli
+     */
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+    /**
+     * Restituisce il numero di consultazioni di tabelle.
+     *
+     * @return consultazioni
+     */
+    public long getTableProbes() {
+        return tableProbes;
+    }
+
+    /**
+     * Restituisce il numero di consultazioni di tabelle riuscite.
+     *
+     * @return consultazioni riuscite
+     */
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /**
+     * Restituisce il fattore di ramificazione medio dei nodi interni.
+     *
+     * @return mosse generate per nodo interno
+     */
+    public double getBranchingFactor() {
+        return interiorNodes == 0 ? 0 : (double) generatedMoves / interiorNodes;
+    }
+
+    /**
+     * Restituisce la profondità dell'ultima iterazione completata.
+     *
+     * @return profondità raggiunta
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Restituisce il valore della mossa scelta, dal punto di vista del nero.
+     *
+     * @return valore della mossa migliore
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Segnala l'interruzione di una ricerca richiesta con {@link #stop()}.
+     */
+    static final class Aborted extends RuntimeException {
+
+        /** Versione della serializzazione. */
+        private static final long serialVersionUID = 1L;
+
+        /** Crea l'eccezione senza stack, riusabile. */
+        private Aborted() {
+            super("Ricerca interrotta", null, false, false);
+        }
+    }
+}
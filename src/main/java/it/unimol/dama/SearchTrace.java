@@ -0,0 +1,401 @@
+package it.unimol.dama;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registratore della traccia di {@link MinMax}, per ricostruire a
+ * posteriori l'albero di una ricerca che ha scelto una mossa sbagliata o
+ * lenta.
+ *
+ * <p>Si attiva all'avvio con {@code -Ddama.trace=<eventi>} (o
+ * {@code -Ddama.trace=true} per {@value #DEFAULT_CAPACITY} eventi). Ogni
+ * thread che cerca scrive in un proprio buffer circolare di {@code long}
+ * allocato una sola volta: ingresso nei nodi con profondità e finestra,
+ * mosse provate, tagli e valori restituiti. La registrazione non alloca e
+ * non usa lock; quando il buffer è pieno gli eventi più vecchi vengono
+ * sovrascritti. Senza la proprietà {@link #ENABLED} è una costante falsa
+ * e il compilatore JIT elimina del tutto le chiamate dalla ricerca.
+ *
+ * <p>{@link #dump(Path)}, raggiungibile anche via JMX da
+ * {@link EngineStatsMBean#dumpTrace(String)}, scrive gli ultimi eventi di
+ * ogni thread come albero indentato per livello. Un thread che sta ancora
+ * cercando può avere gli eventi più recenti incompleti.
+ *
+ * <p>Le tracce non trattengono i thread: quella di un thread terminato
+ * viene scritta un'ultima volta dal dump successivo e poi scartata,
+ * oppure il suo buffer passa al prossimo thread che inizia a cercare.
+ * Così i buffer allocati non superano i thread che cercano insieme,
+ * anche con pool che ricreano spesso i propri thread.
+ */
+public final class SearchTrace {
+
+    /** Proprietà di sistema con il numero di eventi per thread. */
+    public static final String TRACE_PROPERTY = "dama.trace";
+
+    /** Eventi per thread con {@code -Ddama.trace=true}. */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /** Eventi massimi per thread (16 byte ciascuno). */
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    /** Eventi per thread (potenza di due), 0 se la traccia è disattivata. */
+    static final int CAPACITY = configuredCapacity();
+
+    /** True se la traccia è attiva. */
+    static final boolean ENABLED = CAPACITY > 0;
+
+    /** Evento: inizio di un'iterazione alla radice. */
+    static final int ROOT = 1;
+
+    /** Evento: ingresso in un nodo. */
+    static final int ENTER = 2;
+
+    /** Evento: mossa provata in un nodo. */
+    static final int MOVE = 3;
+
+    /** Evento: taglio alpha-beta. */
+    static final int CUTOFF = 4;
+
+    /** Evento: valore restituito da un nodo. */
+    static final int EXIT = 5;
+
+    /** Evento: valore restituito dalla cache delle analisi. */
+    static final int HIT = 6;
+
+    /** Bit del livello nell'intestazione di un evento. */
+    private static final int PLY_SHIFT = 4;
+
+    /** Bit della profondità residua nell'intestazione di un evento. */
+    private static final int DEPTH_SHIFT = 12;
+
+    /** Bit del turno nell'intestazione di un evento. */
+    private static final int WHITE_SHIFT = 20;
+
+    /** Bit del codice della mossa nell'intestazione di un evento. */
+    private static final int MOVE_SHIFT = 21;
+
+    /** Tracce di tutti i thread, nell'ordine di creazione. */
+    private static final List<SearchTrace> ALL = new CopyOnWriteArrayList<>();
+
+    /** Traccia del thread corrente. */
+    private static final ThreadLocal<SearchTrace> LOCAL =
+            ThreadLocal.withInitial(SearchTrace::new);
+
+    /** Pubblicazione ordinata di {@link #count} verso il dump. */
+    private static final VarHandle COUNT;
+
+    static {
+        try {
+            COUNT = MethodHandles.lookup().findVarHandle(SearchTrace.class,
+                    "count", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Thread proprietario, senza impedirne la raccolta. */
+    private final WeakReference<Thread> owner =
+            new WeakReference<>(Thread.currentThread());
+
+    /** Nome del thread proprietario. */
+    private final String threadName = Thread.currentThread().getName();
+
+    /**
+     * Eventi come coppie di {@code long}: intestazione (tipo, livello,
+     * profondità, turno, mossa) e valore.
+     */
+    private final long[] events;
+
+    /**
+     * Eventi registrati dalla creazione. Solo il proprietario lo scrive,
+     * con {@link #COUNT} dopo l'evento, così il dump legge eventi completi.
+     */
+    private long count;
+
+    /**
+     * Crea la traccia del thread corrente, riusando se possibile il
+     * buffer di un thread terminato, e la rende visibile a
+     * {@link #dump(Path)}.
+     */
+    private SearchTrace() {
+        long[] buffer = null;
+        for (SearchTrace trace : ALL) {
+            // remove decide quale thread riceve un buffer conteso
+            if (!trace.isAlive() && ALL.remove(trace)) {
+                buffer = trace.events;
+                break;
+            }
+        }
+        events = buffer != null ? buffer : new long[2 * CAPACITY];
+        ALL.add(this);
+    }
+
+    /**
+     * Indica se il thread proprietario è ancora in vita.
+     *
+     * @return false se il thread è terminato o è stato raccolto
+     */
+    private boolean isAlive() {
+        Thread thread = owner.get();
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Restituisce la traccia del thread corrente.
+     *
+     * @return traccia del thread, o null se la traccia è disattivata
+     */
+    static SearchTrace current() {
+        return ENABLED ? LOCAL.get() : null;
+    }
+
+    /**
+     * Registra l'inizio di un'iterazione alla radice.
+     *
+     * @param depth     profondità dell'iterazione
+     * @param whiteTurn true se tocca al bianco
+     */
+    void root(final int depth, final boolean whiteTurn) {
+        record(ROOT, 0, depth, whiteTurn, 0, System.nanoTime());
+    }
+
+    /**
+     * Registra l'ingresso in un nodo.
+     *
+     * @param ply       distanza dalla radice
+     * @param depth     profondità residua
+     * @param whiteTurn true se tocca al bianco
+     * @param alpha     limite inferiore
+     * @param beta      limite superiore
+     */
+    void enter(final int ply, final int depth, final boolean whiteTurn,
+               final int alpha, final int beta) {
+        record(ENTER, ply, depth, whiteTurn, 0,
+                (long) alpha << 32 | beta & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Registra la mossa che il nodo sta per provare.
+     *
+     * @param ply   distanza dalla radice del nodo
+     * @param move  mossa
+     * @param index posizione della mossa nell'ordine di ricerca
+     */
+    void move(final int ply, final Move move, final int index) {
+        record(MOVE, ply, 0, false, move.isEncodable() ? move.encode()
+                : move.encodeSquares(), index);
+    }
+
+    /**
+     * Registra un taglio.
+     *
+     * @param ply   distanza dalla radice del nodo
+     * @param index mosse provate prima del taglio, meno una
+     */
+    void cutoff(final int ply, final int index) {
+        record(CUTOFF, ply, 0, false, 0, index);
+    }
+
+    /**
+     * Registra il valore restituito da un nodo.
+     *
+     * @param ply   distanza dalla radice
+     * @param score valore dal punto di vista del nero
+     * @return lo stesso valore
+     */
+    int exit(final int ply, final int score) {
+        record(EXIT, ply, 0, false, 0, score);
+        return score;
+    }
+
+    /**
+     * Registra un valore preso dalla cache delle analisi.
+     *
+     * @param ply   distanza dalla radice
+     * @param score valore dal punto di vista del nero
+     * @return lo stesso valore
+     */
+    int hit(final int ply, final int score) {
+        record(HIT, ply, 0, false, 0, score);
+        return score;
+    }
+
+    /**
+     * Scrive un evento nel buffer circolare.
+     *
+     * @param type      tipo dell'evento
+     * @param ply       distanza dalla radice
+     * @param depth     profondità residua
+     * @param whiteTurn true se tocca al bianco
+     * @param move      codice compatto della mossa
+     * @param value     valore dell'evento
+     */
+    private void record(final int type, final int ply, final int depth,
+                        final boolean whiteTurn, final int move,
+                        final long value) {
+        long n = count;
+        int at = (int) (n & (CAPACITY - 1)) << 1;
+        events[at] = type | (ply & 0xFF) << PLY_SHIFT
+                | (depth & 0xFF) << DEPTH_SHIFT
+                | (whiteTurn ? 1 : 0) << WHITE_SHIFT
+                | (long) (move & 0xFFFF) << MOVE_SHIFT;
+        events[at + 1] = value;
+        COUNT.setRelease(this, n + 1);
+    }
+
+    /**
+     * Scrive su file gli ultimi eventi di ogni thread che ha cercato,
+     * come albero indentato per livello, e scarta le tracce dei thread
+     * terminati.
+     *
+     * @param file file da scrivere
+     * @return eventi scritti (0 se la traccia è disattivata)
+     * @throws IOException in caso di errore di scrittura
+     */
+    public static long dump(final Path file) throws IOException {
+        long written = 0;
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             PrintWriter out = new PrintWriter(w)) {
+            if (!ENABLED) {
+                out.println("# traccia disattivata (-D" + TRACE_PROPERTY
+                        + "=<eventi>)");
+            }
+            for (SearchTrace trace : ALL) {
+                boolean alive = trace.isAlive();
+                written += trace.dumpTo(out);
+                if (!alive) {
+                    ALL.remove(trace);
+                }
+            }
+            if (out.checkError()) {
+                throw new IOException("Scrittura non riuscita: " + file);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Scrive gli eventi ancora nel buffer, dal più vecchio.
+     *
+     * @param out flusso di destinazione
+     * @return eventi scritti
+     */
+    private long dumpTo(final PrintWriter out) {
+        long end = (long) COUNT.getAcquire(this);
+        long[] copy = events.clone();
+        long start = Math.max(0, end - CAPACITY);
+        out.println("# thread " + threadName + ": " + end
+                + " eventi, ultimi " + (end - start));
+        StringBuilder line = new StringBuilder();
+        for (long i = start; i < end; i++) {
+            int at = (int) (i & (CAPACITY - 1)) << 1;
+            format(line, copy[at], copy[at + 1]);
+            out.println(line);
+        }
+        return end - start;
+    }
+
+    /**
+     * Formatta un evento su una riga, indentata di due spazi per livello.
+     *
+     * @param line  buffer da riempire (viene svuotato)
+     * @param head  intestazione dell'evento
+     * @param value valore dell'evento
+     */
+    static void format(final StringBuilder line, final long head,
+                       final long value) {
+        int type = (int) head & ((1 << PLY_SHIFT) - 1);
+        int ply = (int) (head >>> PLY_SHIFT) & 0xFF;
+        int depth = (int) (head >>> DEPTH_SHIFT) & 0xFF;
+        String side = (head >>> WHITE_SHIFT & 1) != 0 ? "bianco" : "nero";
+        int move = (int) (head >>> MOVE_SHIFT) & 0xFFFF;
+
+        line.setLength(0);
+        for (int i = 0; i < ply; i++) {
+            line.append("  ");
+        }
+        switch (type) {
+            case ROOT:
+                line.append("radice d").append(depth).append(' ')
+                        .append(side).append(" t=").append(value);
+                break;
+            case ENTER:
+                line.append("nodo d").append(depth).append(' ').append(side)
+                        .append(" [").append(score((int) (value >> 32)))
+                        .append(", ").append(score((int) value)).append(']');
+                break;
+            case MOVE:
+                int from = move & Move.CODE_SQUARE_MASK;
+                int to = move >>> Move.CODE_SQUARE_BITS
+                        & Move.CODE_SQUARE_MASK;
+                int alternative = move >>> Move.CODE_ALTERNATIVE_SHIFT;
+                line.append('#').append(value).append(' ').append(from + 1)
+                        .append((move & Move.CODE_CAPTURE) != 0 ? 'x' : '-')
+                        .append(to + 1);
+                if (alternative != 0) {
+                    line.append('/').append(alternative);
+                }
+                break;
+            case CUTOFF:
+                line.append("taglio dopo #").append(value);
+                break;
+            case EXIT:
+                line.append("= ").append(score((int) value));
+                break;
+            case HIT:
+                line.append("= ").append(score((int) value)).append(" cache");
+                break;
+            default:
+                line.append("? ").append(Long.toHexString(head));
+                break;
+        }
+    }
+
+    /**
+     * Formatta un valore, con i limiti della finestra come infiniti.
+     *
+     * @param score valore
+     * @return testo del valore
+     */
+    private static String score(final int score) {
+        return score == Integer.MAX_VALUE ? "+inf"
+                : score == Integer.MIN_VALUE ? "-inf"
+                : Integer.toString(score);
+    }
+
+    /**
+     * Legge la dimensione del buffer dalla proprietà di sistema.
+     *
+     * @return eventi per thread arrotondati alla potenza di due, o 0
+     */
+    private static int configuredCapacity() {
+        String configured = System.getProperty(TRACE_PROPERTY);
+        if (configured == null || configured.trim().equals("false")) {
+            return 0;
+        }
+        if (configured.trim().isEmpty() || configured.trim().equals("true")) {
+            return DEFAULT_CAPACITY;
+        }
+        try {
+            int events = Integer.parseInt(configured.trim());
+            if (events > 0 && events <= MAX_CAPACITY) {
+                return events == 1 ? 1 : Integer.highestOneBit(events - 1) << 1;
+            }
+        } catch (NumberFormatException e) {
+            // segnalato sotto
+        }
+        System.err.println("Dimensione della traccia non valida: "
+                + configured + " (traccia disattivata)");
+        return 0;
+    }
+}
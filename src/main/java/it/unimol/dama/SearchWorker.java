@@ -0,0 +1,203 @@
+package it.unimol.dama;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Processo di calcolo per {@link DistributedSearch}: riceve posizioni da
+ * un coordinatore via socket e restituisce il valore del sottoalbero.
+ *
+ * <p>Il protocollo è binario ({@link DataOutputStream}, big-endian). Alla
+ * connessione il worker invia {@link #MAGIC}; poi il coordinatore invia
+ * messaggi {@link #JOB} (identificativo, variante, tre maschere di
+ * {@link Bitboard#pack}, turno, profondità, alpha e beta) e
+ * {@link #CANCEL} (identificativo). Per ogni lavoro il worker risponde
+ * con {@link #RESULT} o {@link #CANCELLED}, seguiti da identificativo,
+ * valore e nodi visitati.
+ *
+ * <p>Ogni connessione ha un thread di lettura e uno di calcolo, così una
+ * richiesta di annullamento interrompe subito la ricerca in corso. Per
+ * usare più core si avvia un worker per core:
+ * <pre>
+ * java -cp target/classes it.unimol.dama.SearchWorker 7421
+ * </pre>
+ */
+public final class SearchWorker {
+
+    /** Porta predefinita. */
+    public static final int DEFAULT_PORT = 7420;
+
+    /** Numero magico inviato alla connessione ("DSW1"). */
+    static final int MAGIC = 0x44535731;
+
+    /** Messaggio: lavoro da eseguire. */
+    static final byte JOB = 1;
+
+    /** Messaggio: annullamento di un lavoro. */
+    static final byte CANCEL = 2;
+
+    /** Risposta: lavoro completato. */
+    static final byte RESULT = 3;
+
+    /** Risposta: lavoro interrotto da un annullamento. */
+    static final byte CANCELLED = 4;
+
+    /** Costruttore privato: classe di utilità con soli metodi statici. */
+    private SearchWorker() {
+        // no instances
+    }
+
+    /**
+     * Avvia il worker e serve le connessioni fino alla terminazione del
+     * processo.
+     *
+     * @param args porta (predefinita {@value #DEFAULT_PORT}) ed
+     *             eventuale indirizzo su cui ascoltare (predefinito
+     *             l'interfaccia locale)
+     * @throws IOException se la porta non è disponibile
+     */
+    public static void main(final String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        InetAddress address = args.length > 1
+                ? InetAddress.getByName(args[1])
+                : InetAddress.getLoopbackAddress();
+        try (ServerSocket server = new ServerSocket(port, 0, address)) {
+            System.err.println("Worker in ascolto su "
+                    + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Thread reader = new Thread(() -> serve(socket),
+                        "dama-worker-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            }
+        }
+    }
+
+    /**
+     * Serve una connessione fino alla sua chiusura.
+     *
+     * @param socket connessione con il coordinatore
+     */
+    static void serve(final Socket socket) {
+        ExecutorService runner = Executors.newSingleThreadExecutor();
+        Session session = new Session();
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            out.writeInt(MAGIC);
+            out.flush();
+
+            while (true) {
+                byte type = in.readByte();
+                int id = in.readInt();
+                if (type == CANCEL) {
+                    session.cancel(id);
+                } else if (type == JOB) {
+                    Variant variant = Variant.values()[in.readUnsignedByte()];
+                    long[] masks = {
+                        in.readLong(), in.readLong(), in.readLong()
+                    };
+                    boolean whiteTurn = in.readBoolean();
+                    int depth = in.readUnsignedByte();
+                    int alpha = in.readInt();
+                    int beta = in.readInt();
+                    Board board = Bitboard.unpack(variant, masks, 0);
+                    runner.execute(() -> session.run(out, id, board,
+                            whiteTurn, depth, alpha, beta));
+                } else {
+                    throw new IOException("Messaggio sconosciuto: " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // il coordinatore ha chiuso la connessione
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Connessione interrotta: " + e);
+        } finally {
+            session.cancel(session.running);
+            runner.shutdown();
+        }
+    }
+
+    /**
+     * Lavoro in corso su una connessione.
+     */
+    private static final class Session {
+
+        /** Stato della ricerca, riusato tra i lavori. */
+        private final SearchState state = new SearchState();
+
+        /** Lavoro in esecuzione, o -1. */
+        private volatile int running = -1;
+
+        /** Ultimo lavoro annullato. */
+        private volatile int cancelled = -1;
+
+        /**
+         * Annulla il lavoro indicato, se è in corso o deve ancora partire.
+         *
+         * @param id identificativo del lavoro
+         */
+        void cancel(final int id) {
+            cancelled = id;
+            if (running == id) {
+                state.stop();
+            }
+        }
+
+        /**
+         * Esegue un lavoro e ne invia il risultato.
+         *
+         * @param out       flusso verso il coordinatore
+         * @param id        identificativo del lavoro
+         * @param board     posizione
+         * @param whiteTurn true se tocca al bianco
+         * @param depth     profondità
+         * @param alpha     limite inferiore
+         * @param beta      limite superiore
+         */
+        void run(final DataOutputStream out, final int id, final Board board,
+                 final boolean whiteTurn, final int depth, final int alpha,
+                 final int beta) {
+            state.reset();
+            running = id;
+            // un annullamento arrivato prima dell'avvio vale comunque
+            if (cancelled == id) {
+                state.stop();
+            }
+            long start = System.nanoTime();
+            byte outcome = RESULT;
+            int score = 0;
+            try {
+                score = MinMax.searchWindow(board, whiteTurn, depth, alpha,
+                        beta, state);
+            } catch (SearchState.Aborted e) {
+                outcome = CANCELLED;
+            } finally {
+                running = -1;
+            }
+            EngineStats.get().record(state, System.nanoTime() - start);
+            try {
+                out.writeByte(outcome);
+                out.writeInt(id);
+                out.writeInt(score);
+                out.writeLong(state.getNodes());
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Risultato non inviato: " + e);
+            }
+        }
+    }
+}
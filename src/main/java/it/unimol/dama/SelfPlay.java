@@ -0,0 +1,167 @@
+package it.unimol.dama;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Genera partite IA contro IA senza interfaccia grafica e ne salva
+ * le posizioni in un {@link TrainingSet}.
+ *
+ * <p>Ogni partita inizia con alcune semimosse casuali (per variare le
+ * aperture) e termina con la vittoria di un colore oppure in patta
+ * al raggiungimento di {@link #MAX_PLIES} semimosse. Le posizioni di
+ * una partita vengono scritte appena se ne conosce il risultato.
+ *
+ * <p>Uso: {@code SelfPlay <dataset> <partite> [profondità] [seme]}.
+ */
+public final class SelfPlay {
+
+    /** Semimosse oltre le quali la partita è dichiarata patta. */
+    public static final int MAX_PLIES = 200;
+
+    /** Semimosse iniziali giocate a caso. */
+    private static final int RANDOM_PLIES = 6;
+
+    /** Profondità di ricerca predefinita. */
+    private static final int DEFAULT_DEPTH = 3;
+
+    /** Costruttore privato: classe di utilità con soli metodi statici. */
+    private SelfPlay() {
+        // no instances
+    }
+
+    /**
+     * Punto d'ingresso da riga di comando.
+     *
+     * @param args dataset di uscita, numero di partite,
+     *             profondità e seme opzionali
+     * @throws IOException in caso di errore di scrittura
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println(
+                    "Uso: SelfPlay <dataset> <partite> [profondità] [seme]");
+            return;
+        }
+
+        Path output = Paths.get(args[0]);
+        int games = Integer.parseInt(args[1]);
+        int depth = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_DEPTH;
+        long seed = args.length > 3 ? Long.parseLong(args[3])
+                : System.nanoTime();
+
+        long start = System.nanoTime();
+        long positions = generate(output, games, depth, seed,
+                Runtime.getRuntime().availableProcessors());
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println(games + " partite, " + positions
+                + " posizioni in " + millis + " ms");
+    }
+
+    /**
+     * Gioca le partite in parallelo e scrive il dataset.
+     *
+     * @param output  percorso del dataset
+     * @param games   numero di partite
+     * @param depth   profondità di ricerca di entrambi i giocatori
+     * @param seed    seme per le aperture casuali
+     * @param threads numero di thread
+     * @return numero di posizioni scritte
+     * @throws IOException in caso di errore di scrittura
+     */
+    public static long generate(final Path output, final int games,
+                                final int depth, final long seed,
+                                final int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (TrainingSet.Writer writer = new TrainingSet.Writer(output)) {
+            List<Future<?>> pending = new ArrayList<>();
+            for (int g = 0; g < games; g++) {
+                Random random = new Random(seed + g);
+                pending.add(pool.submit(() -> {
+                    try {
+                        playGame(writer, depth, random);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+
+            for (Future<?> f : pending) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Generazione interrotta", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Partita fallita", e.getCause());
+                }
+            }
+            return writer.written();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Gioca una partita e ne accoda le posizioni al dataset.
+     *
+     * @param writer dataset di destinazione
+     * @param depth  profondità di ricerca
+     * @param random generatore per le aperture casuali
+     * @throws IOException in caso di errore di scrittura
+     */
+    static void playGame(final TrainingSet.Writer writer, final int depth,
+                         final Random random) throws IOException {
+        Controller controller = new Controller();
+        List<int[]> positions = new ArrayList<>();
+        List<Boolean> turns = new ArrayList<>();
+        int ply = 0;
+        int status = controller.checkGameOver();
+
+        while (status == 2 && ply < MAX_PLIES) {
+            boolean white = controller.isWhiteTurn();
+            Move move;
+            if (ply < RANDOM_PLIES) {
+                List<Move> moves = controller.getAllPossibleMoves(white);
+                move = moves.isEmpty() ? null
+                        : moves.get(random.nextInt(moves.size()));
+            } else {
+                positions.add(TrainingSet.pack(controller.getBoard()));
+                turns.add(white);
+                move = MinMax.search(controller, depth, new SearchState());
+            }
+
+            if (move == null || !controller.makeMove(move)) {
+                // nessuna mossa: perde chi deve muovere
+                status = white ? -1 : 1;
+                break;
+            }
+            ply++;
+            status = controller.checkGameOver();
+        }
+
+        byte result;
+        if (status == 1) {
+            result = TrainingSet.WHITE_WIN;
+        } else if (status == -1) {
+            result = TrainingSet.BLACK_WIN;
+        } else {
+            result = TrainingSet.DRAW;
+        }
+
+        for (int i = 0; i < positions.size(); i++) {
+            writer.append(positions.get(i), turns.get(i), result,
+                    RANDOM_PLIES + i);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package it.unimol.dama;
+
+import java.util.List;
+
+/**
+ * Forma canonica delle posizioni rispetto alla simmetria della dama: la
+ * scacchiera ruotata di 180 gradi (riflessione destra-sinistra più
+ * alto-basso, che porta le caselle scure su caselle scure) con i colori
+ * e il turno scambiati è equivalente all'originale, con il valore
+ * cambiato di segno.
+ *
+ * <p>Delle due posizioni equivalenti è canonica quella con l'hash di
+ * {@link Zobrist} minore; {@link #isFlipped} dice se una posizione va
+ * trasformata per ottenerla. Le strutture indicizzate per posizione
+ * salvano i dati nella forma canonica, così una posizione e la sua
+ * simmetrica condividono la stessa voce: valori, limiti e mosse si
+ * trasformano con {@link #score}, {@link #bound}, {@link #encode} e
+ * {@link #decode}. Sulle caselle giocabili la rotazione è
+ * {@code s -> n - 1 - s} e sulle maschere un'inversione dei bit.
+ */
+public final class Symmetry {
+
+    /** Costruttore privato: classe di utilità con soli metodi statici. */
+    private Symmetry() {
+        // no instances
+    }
+
+    /**
+     * Indica se la posizione non è canonica e va quindi trasformata.
+     *
+     * @param hash       hash della posizione
+     * @param mirrorHash hash della posizione simmetrica
+     * @return true se la forma canonica è la simmetrica
+     */
+    public static boolean isFlipped(final long hash, final long mirrorHash) {
+        return mirrorHash < hash;
+    }
+
+    /**
+     * Restituisce la chiave della forma canonica.
+     *
+     * @param hash       hash della posizione
+     * @param mirrorHash hash della posizione simmetrica
+     * @return chiave comune alle due posizioni equivalenti
+     */
+    public static long canonicalKey(final long hash, final long mirrorHash) {
+        return Math.min(hash, mirrorHash);
+    }
+
+    /**
+     * Restituisce la chiave canonica della posizione.
+     *
+     * @param board     scacchiera
+     * @param whiteTurn true se tocca al bianco
+     * @return chiave comune alla posizione e alla sua simmetrica
+     */
+    public static long canonicalKey(final Board board,
+                                    final boolean whiteTurn) {
+        return canonicalKey(Zobrist.hash(board, whiteTurn),
+                Zobrist.mirrorHash(board, whiteTurn));
+    }
+
+    /**
+     * Trasforma una casella giocabile.
+     *
+     * @param variant variante della scacchiera
+     * @param square  indice della casella giocabile
+     * @return casella corrispondente nella posizione simmetrica
+     */
+    public static int square(final Variant variant, final int square) {
+        return variant.getSquares() - 1 - square;
+    }
+
+    /**
+     * Trasforma una maschera di caselle giocabili.
+     *
+     * @param variant variante della scacchiera
+     * @param mask    caselle (bit i = casella giocabile i)
+     * @return caselle corrispondenti nella posizione simmetrica
+     */
+    public static long mask(final Variant variant, final long mask) {
+        return Long.reverse(mask) >>> (Long.SIZE - variant.getSquares());
+    }
+
+    /**
+     * Restituisce la posizione simmetrica.
+     *
+     * @param position posizione
+     * @return posizione ruotata, con colori e turno scambiati
+     */
+    public static Position transform(final Position position) {
+        Variant variant = position.getVariant();
+        return Position.of(variant, mask(variant, position.getBlack()),
+                mask(variant, position.getWhite()),
+                mask(variant, position.getKings()),
+                !position.isWhiteTurn(), position.getPly());
+    }
+
+    /**
+     * Porta un valore dal punto di vista del nero tra una posizione e
+     * la sua forma canonica (la trasformazione è la propria inversa).
+     *
+     * @param score   valore dal punto di vista del nero
+     * @param flipped risultato di {@link #isFlipped}
+     * @return valore nell'altra forma
+     */
+    public static int score(final int score, final boolean flipped) {
+        if (!flipped) {
+            return score;
+        }
+        // le vittorie sono i valori estremi: -MIN_VALUE non esiste
+        return score == Integer.MIN_VALUE ? Integer.MAX_VALUE
+                : score == Integer.MAX_VALUE ? Integer.MIN_VALUE : -score;
+    }
+
+    /**
+     * Porta un tipo di limite di {@link AnalysisCache} tra una posizione
+     * e la sua forma canonica: cambiando segno al valore un limite
+     * inferiore diventa superiore e viceversa.
+     *
+     * @param bound   tipo di limite
+     * @param flipped risultato di {@link #isFlipped}
+     * @return tipo di limite nell'altra forma
+     */
+    public static int bound(final int bound, final boolean flipped) {
+        if (!flipped || bound == AnalysisCache.EXACT) {
+            return bound;
+        }
+        return bound == AnalysisCache.LOWER ? AnalysisCache.UPPER
+                : AnalysisCache.LOWER;
+    }
+
+    /**
+     * Codifica una mossa nella forma canonica. Il numero di alternativa
+     * dipende dall'ordine di generazione, che la rotazione non conserva,
+     * e viene quindi omesso.
+     *
+     * @param variant variante della scacchiera
+     * @param move    mossa nella posizione, o null
+     * @param flipped risultato di {@link #isFlipped}
+     * @return codice compatto nella forma canonica, o 0 se manca la mossa
+     */
+    public static short encode(final Variant variant, final Move move,
+                               final boolean flipped) {
+        if (move == null) {
+            return 0;
+        }
+        int code = move.encodeSquares();
+        int from = code & Move.CODE_SQUARE_MASK;
+        int to = code >>> Move.CODE_SQUARE_BITS & Move.CODE_SQUARE_MASK;
+        if (flipped) {
+            from = square(variant, from);
+            to = square(variant, to);
+        }
+        return Move.encode(from, to, (code & Move.CODE_CAPTURE) != 0);
+    }
+
+    /**
+     * Cerca tra le mosse legali quella corrispondente a un codice della
+     * forma canonica. Se più prese hanno le stesse caselle di partenza e
+     * di arrivo il codice è ambiguo e non si restituisce nulla.
+     *
+     * @param variant variante della scacchiera
+     * @param code    codice prodotto da {@link #encode}
+     * @param flipped risultato di {@link #isFlipped}
+     * @param legal   mosse legali nella posizione
+     * @return la mossa corrispondente, o null se manca o è ambigua
+     */
+    public static Move decode(final Variant variant, final short code,
+                              final boolean flipped, final List<Move> legal) {
+        int from = code & Move.CODE_SQUARE_MASK;
+        int to = code >>> Move.CODE_SQUARE_BITS & Move.CODE_SQUARE_MASK;
+        if (flipped) {
+            from = square(variant, from);
+            to = square(variant, to);
+        }
+        short wanted = Move.encode(from, to,
+                (code & Move.CODE_CAPTURE) != 0);
+        Move found = null;
+        for (Move m : legal) {
+            // solo caselle e cattura, senza il numero di alternativa
+            if (m.encodeSquares() == wanted) {
+                if (found != null) {
+                    return null;
+                }
+                found = m;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,256 @@
+package it.unimol.dama;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Taratura dei pesi di valutazione con il metodo "Texel".
+ *
+ * <p>Minimizza l'errore quadratico medio tra il risultato delle partite
+ * e la probabilità di vittoria stimata {@code sigmoid(k * eval)}, con
+ * discesa del gradiente. Il gradiente viene calcolato in parallelo su
+ * porzioni del {@link TrainingSet} mappato in memoria, suddivise con
+ * fork-join; il dataset non viene mai caricato nello heap.
+ *
+ * <p>Uso: {@code TexelTuner <dataset> <file-pesi> [iterazioni]}.
+ */
+public final class TexelTuner {
+
+    /** Iterazioni predefinite della discesa del gradiente. */
+    private static final int DEFAULT_ITERATIONS = 200;
+
+    /** Scala della sigmoide: una pedina (100) vale circa il 62%. */
+    private static final double DEFAULT_SCALE = 1.0 / 200.0;
+
+    /** Passo massimo di Adam per iterazione, in punti di peso. */
+    private static final double LEARNING_RATE = 2.0;
+
+    /** Decadimento della media del gradiente (Adam). */
+    private static final double BETA1 = 0.9;
+
+    /** Decadimento della media del quadrato del gradiente (Adam). */
+    private static final double BETA2 = 0.999;
+
+    /** Termine di stabilità numerica (Adam). */
+    private static final double EPSILON = 1e-12;
+
+    /** Record sotto i quali una porzione non viene più suddivisa. */
+    private static final long LEAF_RECORDS = 1 << 16;
+
+    /** Dataset di posizioni. */
+    private final TrainingSet data;
+
+    /** Scala della sigmoide. */
+    private final double scale;
+
+    /** Pool fork-join per il calcolo del gradiente. */
+    private final ForkJoinPool pool;
+
+    /**
+     * Crea un tuner sul dataset indicato.
+     *
+     * @param dataArg  dataset di posizioni
+     * @param scaleArg scala della sigmoide
+     * @param poolArg  pool fork-join da usare
+     */
+    public TexelTuner(final TrainingSet dataArg, final double scaleArg,
+                      final ForkJoinPool poolArg) {
+        this.data = dataArg;
+        this.scale = scaleArg;
+        this.pool = poolArg;
+    }
+
+    /**
+     * Punto d'ingresso da riga di comando.
+     *
+     * @param args dataset, file dei pesi di uscita, iterazioni opzionali
+     * @throws IOException in caso di errore di lettura o scrittura
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println(
+                    "Uso: TexelTuner <dataset> <file-pesi> [iterazioni]");
+            return;
+        }
+
+        Path output = Paths.get(args[1]);
+        int iterations = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_ITERATIONS;
+
+        try (TrainingSet data = new TrainingSet(Paths.get(args[0]))) {
+            TexelTuner tuner = new TexelTuner(data, DEFAULT_SCALE,
+                    ForkJoinPool.commonPool());
+            EvalWeights tuned = tuner.tune(EvalWeights.current(), iterations,
+                    System.out);
+            tuned.save(output);
+
+            for (int t = 0; t < EvalWeights.TERMS; t++) {
+                System.out.println(EvalWeights.name(t) + "=" + tuned.get(t));
+            }
+        }
+    }
+
+    /**
+     * Esegue la discesa del gradiente (con passi adattivi di Adam, così
+     * che termini di scala diversa convergano insieme) a partire dai pesi
+     * indicati. Il peso della pedina resta fisso come unità di misura.
+     *
+     * @param start      pesi iniziali
+     * @param iterations numero di iterazioni
+     * @return pesi tarati, arrotondati all'intero
+     */
+    public EvalWeights tune(final EvalWeights start, final int iterations) {
+        return tune(start, iterations, null);
+    }
+
+    /**
+     * Esegue la taratura come {@link #tune(EvalWeights, int)}, scrivendo
+     * l'errore raggiunto a ogni iterazione.
+     *
+     * @param start      pesi iniziali
+     * @param iterations numero di iterazioni
+     * @param progress   flusso su cui scrivere l'avanzamento, o null
+     * @return pesi tarati, arrotondati all'intero
+     */
+    public EvalWeights tune(final EvalWeights start, final int iterations,
+                            final PrintStream progress) {
+        double[] weights = new double[EvalWeights.TERMS];
+        for (int t = 0; t < EvalWeights.TERMS; t++) {
+            weights[t] = start.get(t);
+        }
+
+        double[] mean = new double[EvalWeights.TERMS];
+        double[] variance = new double[EvalWeights.TERMS];
+
+        for (int it = 0; it < iterations; it++) {
+            double[] result = evaluate(weights);
+            double bias1 = 1.0 - Math.pow(BETA1, it + 1);
+            double bias2 = 1.0 - Math.pow(BETA2, it + 1);
+
+            for (int t = 0; t < EvalWeights.TERMS; t++) {
+                if (t == EvalWeights.MAN) {
+                    continue;
+                }
+                mean[t] = BETA1 * mean[t] + (1 - BETA1) * result[t];
+                variance[t] = BETA2 * variance[t]
+                        + (1 - BETA2) * result[t] * result[t];
+                weights[t] -= LEARNING_RATE * (mean[t] / bias1)
+                        / (Math.sqrt(variance[t] / bias2) + EPSILON);
+            }
+            if (progress != null) {
+                progress.printf("iterazione %d: errore %.6f%n",
+                        it + 1, result[EvalWeights.TERMS]);
+            }
+        }
+
+        int[] rounded = new int[EvalWeights.TERMS];
+        for (int t = 0; t < EvalWeights.TERMS; t++) {
+            rounded[t] = (int) Math.round(weights[t]);
+        }
+        return new EvalWeights(rounded);
+    }
+
+    /**
+     * Calcola gradiente ed errore medio sull'intero dataset.
+     *
+     * @param weights pesi correnti
+     * @return gradiente (TERMS elementi) seguito dall'errore medio
+     */
+    public double[] evaluate(final double[] weights) {
+        long n = data.size();
+        double[] sums = pool.invoke(new Chunk(weights, 0, n));
+        if (n > 0) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] /= n;
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Porzione del dataset su cui accumulare gradiente ed errore.
+     */
+    private final class Chunk extends RecursiveTask<double[]> {
+
+        /** Identificativo di serializzazione. */
+        private static final long serialVersionUID = 1L;
+
+        /** Pesi correnti (condivisi, in sola lettura). */
+        private final double[] weights;
+
+        /** Primo record (incluso). */
+        private final long from;
+
+        /** Ultimo record (escluso). */
+        private final long to;
+
+        /**
+         * Crea una porzione.
+         *
+         * @param weightsArg pesi correnti
+         * @param fromArg    primo record (incluso)
+         * @param toArg      ultimo record (escluso)
+         */
+        Chunk(final double[] weightsArg, final long fromArg,
+              final long toArg) {
+            this.weights = weightsArg;
+            this.from = fromArg;
+            this.to = toArg;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from <= LEAF_RECORDS) {
+                return accumulate();
+            }
+
+            long mid = (from + to) >>> 1;
+            Chunk left = new Chunk(weights, from, mid);
+            left.fork();
+            double[] right = new Chunk(weights, mid, to).compute();
+            double[] sums = left.join();
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += right[i];
+            }
+            return sums;
+        }
+
+        /**
+         * Somma gradiente ed errore dei record della porzione.
+         *
+         * @return somme parziali (TERMS elementi più l'errore)
+         */
+        private double[] accumulate() {
+            double[] sums = new double[EvalWeights.TERMS + 1];
+            int[] features = new int[EvalWeights.TERMS];
+
+            for (long i = from; i < to; i++) {
+                Arrays.fill(features, 0);
+                data.features(i, features);
+
+                double eval = 0;
+                for (int t = 0; t < EvalWeights.TERMS; t++) {
+                    eval += weights[t] * features[t];
+                }
+
+                double predicted = 1.0 / (1.0 + Math.exp(-scale * eval));
+                double target = data.result(i) / 2.0;
+                double error = predicted - target;
+
+                // d(errore^2)/dw = 2 * errore * s * (1 - s) * k * f
+                double common = 2.0 * error * predicted * (1.0 - predicted)
+                        * scale;
+                for (int t = 0; t < EvalWeights.TERMS; t++) {
+                    sums[t] += common * features[t];
+                }
+                sums[EvalWeights.TERMS] += error * error;
+            }
+            return sums;
+        }
+    }
+}
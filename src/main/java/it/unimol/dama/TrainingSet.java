@@ -0,0 +1,308 @@
+package it.unimol.dama;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Dataset binario di posizioni etichettate con il risultato della partita,
+ * usato per la taratura dei pesi di valutazione.
+ *
+ * <p>Il file è composto da un'intestazione di {@value #HEADER_BYTES} byte
+ * seguita da record di {@value #RECORD_BYTES} byte:
+ * <ul>
+ *   <li>int: maschera delle caselle giocabili occupate dal bianco;</li>
+ *   <li>int: maschera delle caselle giocabili occupate dal nero;</li>
+ *   <li>int: maschera delle caselle occupate da dame;</li>
+ *   <li>byte: 1 se tocca al bianco, 0 altrimenti;</li>
+ *   <li>byte: risultato (vedi {@link #BLACK_WIN}, {@link #DRAW},
+ *       {@link #WHITE_WIN});</li>
+ *   <li>short: semimossa della posizione nella partita.</li>
+ * </ul>
+ * La lettura mappa il file in memoria a segmenti, così da gestire
+ * dataset più grandi dello heap.
+ */
+public final class TrainingSet implements Closeable {
+
+    /** Numero magico dell'intestazione ("DTS1"). */
+    public static final int MAGIC = 0x44545331;
+
+    /** Dimensione dell'intestazione in byte. */
+    public static final int HEADER_BYTES = 16;
+
+    /** Dimensione di un record in byte. */
+    public static final int RECORD_BYTES = 16;
+
+    /** Risultato: vittoria del bianco. */
+    public static final byte WHITE_WIN = 0;
+
+    /** Risultato: patta. */
+    public static final byte DRAW = 1;
+
+    /** Risultato: vittoria del nero. */
+    public static final byte BLACK_WIN = 2;
+
+    /** Record per segmento mappato (1 GiB per segmento). */
+    private static final int RECORDS_PER_SEGMENT = (1 << 30) / RECORD_BYTES;
+
+    /** Segmenti del file mappati in sola lettura. */
+    private final MappedByteBuffer[] segments;
+
+    /** Numero di record presenti. */
+    private final long size;
+
+    /** Canale del file aperto. */
+    private final FileChannel channel;
+
+    /**
+     * Apre in lettura un dataset esistente.
+     *
+     * @param file percorso del dataset
+     * @throws IOException se il file non è leggibile o non è un dataset
+     */
+    public TrainingSet(final Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                throw new IOException("Dataset troppo corto: " + file);
+            }
+
+            MappedByteBuffer header = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Formato dataset non valido: " + file);
+            }
+
+            size = (length - HEADER_BYTES) / RECORD_BYTES;
+            int count = (int) ((size + RECORDS_PER_SEGMENT - 1)
+                    / RECORDS_PER_SEGMENT);
+            segments = new MappedByteBuffer[count];
+            for (int s = 0; s < count; s++) {
+                long first = (long) s * RECORDS_PER_SEGMENT;
+                long records = Math.min(RECORDS_PER_SEGMENT, size - first);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * RECORD_BYTES,
+                        records * RECORD_BYTES);
+                segments[s].order(ByteOrder.BIG_ENDIAN);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Restituisce il numero di record del dataset.
+     *
+     * @return numero di posizioni
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Maschera del bianco del record indicato.
+     *
+     * @param index indice del record
+     * @return caselle giocabili occupate dal bianco
+     */
+    public int whiteMask(final long index) {
+        return segment(index).getInt(offset(index));
+    }
+
+    /**
+     * Maschera del nero del record indicato.
+     *
+     * @param index indice del record
+     * @return caselle giocabili occupate dal nero
+     */
+    public int blackMask(final long index) {
+        return segment(index).getInt(offset(index) + Integer.BYTES);
+    }
+
+    /**
+     * Maschera delle dame del record indicato.
+     *
+     * @param index indice del record
+     * @return caselle giocabili occupate da dame
+     */
+    public int kingMask(final long index) {
+        return segment(index).getInt(offset(index) + 2 * Integer.BYTES);
+    }
+
+    /**
+     * Risultato della partita da cui proviene il record.
+     *
+     * @param index indice del record
+     * @return {@link #WHITE_WIN}, {@link #DRAW} o {@link #BLACK_WIN}
+     */
+    public byte result(final long index) {
+        return segment(index).get(offset(index) + 3 * Integer.BYTES + 1);
+    }
+
+    /**
+     * Restituisce il segmento che contiene il record.
+     *
+     * @param index indice del record
+     * @return segmento mappato
+     */
+    private MappedByteBuffer segment(final long index) {
+        return segments[(int) (index / RECORDS_PER_SEGMENT)];
+    }
+
+    /**
+     * Restituisce la posizione del record nel proprio segmento.
+     *
+     * @param index indice del record
+     * @return offset in byte
+     */
+    private static int offset(final long index) {
+        return (int) (index % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+    }
+
+    /**
+     * Somma al vettore le caratteristiche di valutazione del record,
+     * calcolate come in {@link EvalWeights#addFeatures}.
+     *
+     * @param index    indice del record
+     * @param features vettore delle caratteristiche (azzerato dal chiamante)
+     */
+    public void features(final long index, final int[] features) {
+        int white = whiteMask(index);
+        int black = blackMask(index);
+        int kings = kingMask(index);
+
+        int occupied = white | black;
+        while (occupied != 0) {
+            int sq = Integer.numberOfTrailingZeros(occupied);
+            occupied &= occupied - 1;
+            int bit = 1 << sq;
+            EvalWeights.addFeatures(features, Board.squareRow(sq),
+                    Board.squareCol(sq), (white & bit) != 0,
+                    (kings & bit) != 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Scrittore in streaming di un dataset.
+     * I record vengono accodati nell'ordine di arrivo.
+     */
+    public static final class Writer implements Closeable {
+
+        /** Flusso di uscita bufferizzato. */
+        private final DataOutputStream out;
+
+        /** Numero di record scritti. */
+        private long written;
+
+        /**
+         * Crea (o sovrascrive) un dataset e ne scrive l'intestazione.
+         *
+         * @param file percorso del dataset
+         * @throws IOException in caso di errore di scrittura
+         */
+        public Writer(final Path file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.write(new byte[HEADER_BYTES - Integer.BYTES]);
+        }
+
+        /**
+         * Accoda una posizione.
+         *
+         * @param board     scacchiera
+         * @param whiteTurn true se tocca al bianco
+         * @param result    risultato finale della partita
+         * @param ply       semimossa della posizione
+         * @throws IOException in caso di errore di scrittura
+         */
+        public void append(final Board board, final boolean whiteTurn,
+                           final byte result, final int ply)
+                throws IOException {
+            append(pack(board), whiteTurn, result, ply);
+        }
+
+        /**
+         * Accoda una posizione già compattata con {@link #pack(Board)}.
+         *
+         * @param masks     maschere bianco, nero e dame
+         * @param whiteTurn true se tocca al bianco
+         * @param result    risultato finale della partita
+         * @param ply       semimossa della posizione
+         * @throws IOException in caso di errore di scrittura
+         */
+        public synchronized void append(final int[] masks,
+                                        final boolean whiteTurn,
+                                        final byte result, final int ply)
+                throws IOException {
+            out.writeInt(masks[0]);
+            out.writeInt(masks[1]);
+            out.writeInt(masks[2]);
+            out.writeByte(whiteTurn ? 1 : 0);
+            out.writeByte(result);
+            out.writeShort(Math.min(ply, Short.MAX_VALUE));
+            written++;
+        }
+
+        /**
+         * Restituisce il numero di record scritti finora.
+         *
+         * @return numero di record
+         */
+        public synchronized long written() {
+            return written;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Compatta la scacchiera nelle tre maschere del formato su file.
+     *
+     * @param board scacchiera della dama classica
+     * @return array {bianco, nero, dame}
+     * @throws IllegalArgumentException se la scacchiera non è classica
+     */
+    public static int[] pack(final Board board) {
+        if (board.getVariant() != Variant.CLASSIC) {
+            throw new IllegalArgumentException(
+                    "Il dataset supporta solo la dama classica");
+        }
+        int white = 0;
+        int black = 0;
+        int kings = 0;
+
+        for (int sq = 0; sq < Board.PLAYABLE_SQUARES; sq++) {
+            Piece p = board.getPiece(Board.squareRow(sq), Board.squareCol(sq));
+            if (p != null) {
+                int bit = 1 << sq;
+                if (p.isWhite()) {
+                    white |= bit;
+                } else {
+                    black |= bit;
+                }
+                if (p.isKing()) {
+                    kings |= bit;
+                }
+            }
+        }
+        return new int[] {white, black, kings};
+    }
+}
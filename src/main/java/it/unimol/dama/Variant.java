@@ -0,0 +1,211 @@
+package it.unimol.dama;
+
+/**
+ * Variante di gioco: dimensione della scacchiera e regole che ne
+ * dipendono. Ogni variante precalcola la geometria delle caselle
+ * giocabili (caselle scure, numerate per righe dall'alto a partire
+ * da 0) usata dalla generazione delle mosse a maschere di bit.
+ */
+public enum Variant {
+
+    /** Dama classica 8x8: dame di un passo, pedine che catturano in avanti. */
+    CLASSIC(8, 3, false, "22"),
+
+    /**
+     * Dama internazionale 10x10: dame volanti, pedine che catturano
+     * anche all'indietro, presa obbligatoria del numero massimo di pezzi.
+     * Le 50 caselle giocabili stanno in un {@code long}.
+     */
+    INTERNATIONAL(10, 4, true, "20");
+
+    /** Numero massimo di caselle giocabili tra tutte le varianti. */
+    public static final int MAX_SQUARES = 50;
+
+    /** Direzione: riga precedente, colonna precedente. */
+    public static final int UP_LEFT = 0;
+
+    /** Direzione: riga precedente, colonna successiva. */
+    public static final int UP_RIGHT = 1;
+
+    /** Direzione: riga successiva, colonna precedente. */
+    public static final int DOWN_LEFT = 2;
+
+    /** Direzione: riga successiva, colonna successiva. */
+    public static final int DOWN_RIGHT = 3;
+
+    /** Lato della scacchiera. */
+    private final int size;
+
+    /** Righe iniziali occupate da ciascun colore. */
+    private final int startRows;
+
+    /** Dame volanti, cattura all'indietro delle pedine e presa massima. */
+    private final boolean international;
+
+    /** Valore dell'intestazione PDN GameType. */
+    private final String gameType;
+
+    /** Casella adiacente per [direzione][casella], o -1. */
+    private final int[][] neighbor;
+
+    /** Caselle lungo la diagonale per [direzione][casella], esclusa. */
+    private final long[][] ray;
+
+    /**
+     * Crea una variante e ne precalcola la geometria.
+     *
+     * @param sizeArg          lato della scacchiera
+     * @param startRowsArg     righe iniziali per colore
+     * @param internationalArg true per le regole internazionali
+     * @param gameTypeArg      valore PDN di GameType
+     */
+    Variant(final int sizeArg, final int startRowsArg,
+            final boolean internationalArg, final String gameTypeArg) {
+        this.size = sizeArg;
+        this.startRows = startRowsArg;
+        this.international = internationalArg;
+        this.gameType = gameTypeArg;
+
+        int squares = sizeArg * sizeArg / 2;
+        neighbor = new int[4][squares];
+        ray = new long[4][squares];
+        for (int dir = 0; dir < 4; dir++) {
+            int dr = dir < 2 ? -1 : 1;
+            int dc = (dir & 1) == 0 ? -1 : 1;
+            for (int sq = 0; sq < squares; sq++) {
+                int row = sq / (sizeArg / 2) + dr;
+                int col = 2 * (sq % (sizeArg / 2))
+                        + ((row - dr) % 2 == 0 ? 1 : 0) + dc;
+                neighbor[dir][sq] = -1;
+                boolean first = true;
+                while (row >= 0 && row < sizeArg && col >= 0 && col < sizeArg) {
+                    int target = row * (sizeArg / 2) + col / 2;
+                    if (first) {
+                        neighbor[dir][sq] = target;
+                        first = false;
+                    }
+                    ray[dir][sq] |= 1L << target;
+                    row += dr;
+                    col += dc;
+                }
+            }
+        }
+    }
+
+    /**
+     * Restituisce il lato della scacchiera.
+     *
+     * @return numero di righe (e colonne)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Restituisce il numero di caselle giocabili.
+     *
+     * @return caselle scure della scacchiera
+     */
+    public int getSquares() {
+        return size * size / 2;
+    }
+
+    /**
+     * Restituisce le righe iniziali occupate da ciascun colore.
+     *
+     * @return righe di pedine per colore
+     */
+    public int getStartRows() {
+        return startRows;
+    }
+
+    /**
+     * Indica se valgono le regole internazionali (dame volanti, cattura
+     * all'indietro delle pedine, presa del numero massimo di pezzi).
+     *
+     * @return true per la variante internazionale
+     */
+    public boolean isInternational() {
+        return international;
+    }
+
+    /**
+     * Restituisce il valore dell'intestazione PDN GameType.
+     *
+     * @return codice PDN della variante
+     */
+    public String getGameType() {
+        return gameType;
+    }
+
+    /**
+     * Restituisce la variante con il GameType PDN indicato.
+     *
+     * @param type valore di GameType (eventualmente con parametri)
+     * @return variante corrispondente, o {@link #CLASSIC} se sconosciuta
+     */
+    public static Variant fromGameType(final String type) {
+        if (type != null) {
+            String code = type.split(",")[0].trim();
+            for (Variant v : values()) {
+                if (v.gameType.equals(code)) {
+                    return v;
+                }
+            }
+        }
+        return CLASSIC;
+    }
+
+    /**
+     * Restituisce l'indice della casella scura in (row, col).
+     *
+     * @param row riga della casella
+     * @param col colonna della casella
+     * @return indice della casella giocabile
+     */
+    public int squareIndex(final int row, final int col) {
+        return row * (size / 2) + col / 2;
+    }
+
+    /**
+     * Restituisce la riga della casella giocabile indicata.
+     *
+     * @param square indice della casella giocabile
+     * @return riga corrispondente
+     */
+    public int squareRow(final int square) {
+        return square / (size / 2);
+    }
+
+    /**
+     * Restituisce la colonna della casella giocabile indicata.
+     *
+     * @param square indice della casella giocabile
+     * @return colonna corrispondente
+     */
+    public int squareCol(final int square) {
+        return 2 * (square % (size / 2)) + (squareRow(square) % 2 == 0 ? 1 : 0);
+    }
+
+    /**
+     * Restituisce la casella adiacente nella direzione indicata.
+     *
+     * @param dir    direzione ({@link #UP_LEFT} ... {@link #DOWN_RIGHT})
+     * @param square casella di partenza
+     * @return casella adiacente, o -1 se fuori dalla scacchiera
+     */
+    public int neighbor(final int dir, final int square) {
+        return neighbor[dir][square];
+    }
+
+    /**
+     * Restituisce le caselle lungo la diagonale, esclusa quella di partenza.
+     *
+     * @param dir    direzione
+     * @param square casella di partenza
+     * @return maschera delle caselle della semidiagonale
+     */
+    public long ray(final int dir, final int square) {
+        return ray[dir][square];
+    }
+}
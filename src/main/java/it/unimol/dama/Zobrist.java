@@ -0,0 +1,235 @@
+package it.unimol.dama;
+
+/**
+ * Hash di Zobrist delle posizioni.
+ *
+ * <p>Le chiavi sono generate da un seme fisso, quindi lo stesso hash
+ * identifica la stessa posizione anche tra esecuzioni diverse: può
+ * essere salvato su disco (indici, cache) e confrontato in seguito.
+ * Le chiavi della dama classica sono generate per prime e non cambiano
+ * aggiungendo varianti; quelle delle altre varianti seguono la chiave
+ * del turno, nell'ordine di dichiarazione di {@link Variant}.
+ */
+public final class Zobrist {
+
+    /** Seme fisso del generatore delle chiavi. */
+    private static final long SEED = 0x5DEECE66DL;
+
+    /** Chiavi per [variante][colore e tipo][casella giocabile]. */
+    private static final long[][][] PIECE_KEYS =
+            new long[Variant.values().length][][];
+
+    /** Chiave combinata quando tocca al bianco. */
+    private static final long WHITE_TO_MOVE;
+
+    static {
+        long state = fill(Variant.CLASSIC, SEED);
+        state += 0x9E3779B97F4A7C15L;
+        WHITE_TO_MOVE = mix(state);
+        for (Variant v : Variant.values()) {
+            if (v != Variant.CLASSIC) {
+                state = fill(v, state);
+            }
+        }
+    }
+
+    /** Costruttore privato: classe di utilità con soli metodi statici. */
+    private Zobrist() {
+        // no instances
+    }
+
+    /**
+     * Genera le chiavi dei pezzi della variante indicata.
+     *
+     * @param variant variante
+     * @param seed    stato iniziale del generatore
+     * @return stato del generatore dopo l'ultima chiave
+     */
+    private static long fill(final Variant variant, final long seed) {
+        long state = seed;
+        long[][] keys = new long[4][variant.getSquares()];
+        for (int kind = 0; kind < 4; kind++) {
+            for (int sq = 0; sq < variant.getSquares(); sq++) {
+                state += 0x9E3779B97F4A7C15L;
+                keys[kind][sq] = mix(state);
+            }
+        }
+        PIECE_KEYS[variant.ordinal()] = keys;
+        return state;
+    }
+
+    /**
+     * Funzione di mescolamento di SplitMix64.
+     *
+     * @param value valore da mescolare
+     * @return valore mescolato
+     */
+    private static long mix(final long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Restituisce la chiave di un pezzo su una casella della dama classica.
+     *
+     * @param square indice della casella giocabile
+     * @param white  true se il pezzo è bianco
+     * @param king   true se il pezzo è una dama
+     * @return chiave da combinare con XOR
+     */
+    public static long pieceKey(final int square, final boolean white,
+                                final boolean king) {
+        return pieceKey(Variant.CLASSIC, square, white, king);
+    }
+
+    /**
+     * Restituisce la chiave di un pezzo su una casella.
+     *
+     * @param variant variante della scacchiera
+     * @param square  indice della casella giocabile
+     * @param white   true se il pezzo è bianco
+     * @param king    true se il pezzo è una dama
+     * @return chiave da combinare con XOR
+     */
+    public static long pieceKey(final Variant variant, final int square,
+                                final boolean white, final boolean king) {
+        return PIECE_KEYS[variant.ordinal()]
+                [(white ? 2 : 0) + (king ? 1 : 0)][square];
+    }
+
+    /**
+     * Restituisce la chiave del turno del bianco.
+     *
+     * @return chiave da combinare con XOR quando tocca al bianco
+     */
+    public static long sideKey() {
+        return WHITE_TO_MOVE;
+    }
+
+    /**
+     * Calcola l'hash della posizione.
+     *
+     * @param board     scacchiera
+     * @param whiteTurn true se tocca al bianco
+     * @return hash a 64 bit della posizione
+     */
+    public static long hash(final Board board, final boolean whiteTurn) {
+        Variant variant = board.getVariant();
+        long hash = whiteTurn ? WHITE_TO_MOVE : 0L;
+        for (int sq = 0; sq < variant.getSquares(); sq++) {
+            Piece p = board.getPiece(variant.squareRow(sq),
+                    variant.squareCol(sq));
+            if (p != null) {
+                hash ^= pieceKey(variant, sq, p.isWhite(), p.isKing());
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Calcola l'hash della posizione simmetrica secondo {@link Symmetry}:
+     * scacchiera ruotata di 180 gradi, colori e turno scambiati. Il
+     * minore tra questo e {@link #hash} identifica la coppia di posizioni
+     * equivalenti.
+     *
+     * @param board     scacchiera
+     * @param whiteTurn true se tocca al bianco
+     * @return hash a 64 bit della posizione simmetrica
+     */
+    public static long mirrorHash(final Board board,
+                                  final boolean whiteTurn) {
+        Variant variant = board.getVariant();
+        int last = variant.getSquares() - 1;
+        long hash = whiteTurn ? 0L : WHITE_TO_MOVE;
+        for (int sq = 0; sq <= last; sq++) {
+            Piece p = board.getPiece(variant.squareRow(sq),
+                    variant.squareCol(sq));
+            if (p != null) {
+                hash ^= pieceKey(variant, last - sq, !p.isWhite(),
+                        p.isKing());
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Aggiorna l'hash dopo una mossa eseguita con {@link Board#applyMove},
+     * senza ricalcolarlo da tutta la scacchiera.
+     *
+     * @param hash     hash della posizione prima della mossa
+     * @param variant  variante della scacchiera
+     * @param move     mossa eseguita
+     * @param piece    pezzo mosso, nello stato dopo la mossa
+     * @param promoted true se il pezzo è stato promosso
+     * @param captured pezzi catturati salvati da {@link Board#applyMove}
+     * @return hash della posizione dopo la mossa, con il turno cambiato
+     */
+    public static long afterMove(final long hash, final Variant variant,
+                                 final Move move, final Piece piece,
+                                 final boolean promoted,
+                                 final Piece[] captured) {
+        return afterMove(hash, variant, move, piece, promoted, captured,
+                false);
+    }
+
+    /**
+     * Aggiorna come {@link #afterMove} l'hash della posizione simmetrica
+     * (vedi {@link #mirrorHash}): le stesse chiavi, sulle caselle ruotate
+     * e con i colori scambiati.
+     *
+     * @param mirror   hash simmetrico della posizione prima della mossa
+     * @param variant  variante della scacchiera
+     * @param move     mossa eseguita
+     * @param piece    pezzo mosso, nello stato dopo la mossa
+     * @param promoted true se il pezzo è stato promosso
+     * @param captured pezzi catturati salvati da {@link Board#applyMove}
+     * @return hash simmetrico della posizione dopo la mossa
+     */
+    public static long afterMoveMirror(final long mirror,
+                                       final Variant variant,
+                                       final Move move, final Piece piece,
+                                       final boolean promoted,
+                                       final Piece[] captured) {
+        return afterMove(mirror, variant, move, piece, promoted, captured,
+                true);
+    }
+
+    /**
+     * Aggiorna l'hash diretto o quello simmetrico dopo una mossa.
+     *
+     * @param hash     hash prima della mossa
+     * @param variant  variante della scacchiera
+     * @param move     mossa eseguita
+     * @param piece    pezzo mosso, nello stato dopo la mossa
+     * @param promoted true se il pezzo è stato promosso
+     * @param captured pezzi catturati salvati da {@link Board#applyMove}
+     * @param mirrored true per l'hash della posizione simmetrica
+     * @return hash dopo la mossa
+     */
+    private static long afterMove(final long hash, final Variant variant,
+                                  final Move move, final Piece piece,
+                                  final boolean promoted,
+                                  final Piece[] captured,
+                                  final boolean mirrored) {
+        boolean white = piece.isWhite() != mirrored;
+        int from = variant.squareIndex(move.getStartRow(),
+                move.getStartCol());
+        int to = variant.squareIndex(move.getEndRow(), move.getEndCol());
+        if (mirrored) {
+            from = Symmetry.square(variant, from);
+            to = Symmetry.square(variant, to);
+        }
+        long h = hash ^ WHITE_TO_MOVE
+                ^ pieceKey(variant, from, white, piece.isKing() && !promoted)
+                ^ pieceKey(variant, to, white, piece.isKing());
+        for (int i = 0; i < move.getCapturedCount(); i++) {
+            int square = move.getCapturedSquare(i);
+            h ^= pieceKey(variant, mirrored
+                            ? Symmetry.square(variant, square) : square,
+                    captured[i].isWhite() != mirrored, captured[i].isKing());
+        }
+        return h;
+    }
+}
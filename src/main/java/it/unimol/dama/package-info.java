@@ -5,11 +5,40 @@
  * <ul>
  *   <li>{@link it.unimol.dama.Board} scacchiera.</li>
  *   <li>{@link it.unimol.dama.Piece} pedina.</li>
+ *   <li>{@link it.unimol.dama.Position} istantanea immutabile di una posizione.</li>
  *   <li>{@link it.unimol.dama.Controller} logica di controllo.</li>
  *   <li>{@link it.unimol.dama.Game} logica di controllo.</li>
  *   <li>{@link it.unimol.dama.Graphic} vista grafica della scacchiera.</li>
  *   <li>{@link it.unimol.dama.MinMax} algoritmo MinMax.</li>
  *   <li>{@link it.unimol.dama.Move} mossa.</li>
+ *   <li>{@link it.unimol.dama.EvalWeights} pesi della valutazione.</li>
+ *   <li>{@link it.unimol.dama.SelfPlay} partite IA contro IA.</li>
+ *   <li>{@link it.unimol.dama.TrainingSet} dataset di posizioni.</li>
+ *   <li>{@link it.unimol.dama.TexelTuner} taratura dei pesi.</li>
+ *   <li>{@link it.unimol.dama.SearchState} stato di una ricerca.</li>
+ *   <li>{@link it.unimol.dama.EngineStats} statistiche JMX del motore.</li>
+ *   <li>{@link it.unimol.dama.SearchTrace} traccia delle ricerche.</li>
+ *   <li>{@link it.unimol.dama.GameRecord} partita registrata.</li>
+ *   <li>{@link it.unimol.dama.PdnReader} lettura di file PDN.</li>
+ *   <li>{@link it.unimol.dama.PdnWriter} scrittura di file PDN.</li>
+ *   <li>{@link it.unimol.dama.GameArchive} archivio binario di partite.</li>
+ *   <li>{@link it.unimol.dama.Zobrist} hash delle posizioni.</li>
+ *   <li>{@link it.unimol.dama.PositionIndex} indice delle posizioni.</li>
+ *   <li>{@link it.unimol.dama.Variant} varianti di gioco.</li>
+ *   <li>{@link it.unimol.dama.BatchAnalyzer} analisi in blocco.</li>
+ *   <li>{@link it.unimol.dama.PvLine} linea di un'analisi multi-PV.</li>
+ *   <li>{@link it.unimol.dama.AnalysisCache} cache persistente delle analisi.</li>
+ *   <li>{@link it.unimol.dama.ReplayTimeline} revisione di una partita.</li>
+ *   <li>{@link it.unimol.dama.LiveAnalysis} analisi continua in background.</li>
+ *   <li>{@link it.unimol.dama.DistributedSearch} ricerca distribuita.</li>
+ *   <li>{@link it.unimol.dama.SearchWorker} processo di calcolo remoto.</li>
+ *   <li>{@link it.unimol.dama.Bench} banco di prova del motore.</li>
+ *   <li>{@link it.unimol.dama.ProofSolver} risolutore a numeri di prova.</li>
+ *   <li>{@link it.unimol.dama.GameBroadcast} diffusione agli spettatori.</li>
+ *   <li>{@link it.unimol.dama.BroadcastLoad} prova di carico degli spettatori.</li>
+ *   <li>{@link it.unimol.dama.PositionHistory} ripetizioni e patte.</li>
+ *   <li>{@link it.unimol.dama.EngineSession} avversario con livello e quota.</li>
+ *   <li>{@link it.unimol.dama.Symmetry} forma canonica delle posizioni.</li>
  * </ul>
  *
  * Questo package fornisce le strutture dati di base utilizzate
@@ -3,6 +3,8 @@ module it.unimol.dama {
     requires javafx.fxml;
 
     requires org.controlsfx.controls;
+    requires java.management;
+    requires jdk.jfr;
 
     opens it.unimol.dama to javafx.fxml;
     exports it.unimol.dama;
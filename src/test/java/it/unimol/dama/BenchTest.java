@@ -0,0 +1,56 @@
+package it.unimol.dama;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Verifica che la firma di {@link Bench} non cambi: una modifica alla
+ * ricerca che altera l'albero visitato deve aggiornare
+ * {@link Bench#EXPECTED_SIGNATURE} di proposito.
+ */
+class BenchTest {
+
+    /**
+     * Fa caricare a {@link EvalWeights} i pesi predefiniti, ignorando un
+     * eventuale file di pesi nella directory corrente, e disattiva la
+     * cache delle analisi. La proprietà va impostata prima di toccare
+     * {@link EvalWeights}, che legge i pesi all'inizializzazione della
+     * classe: il file resta vuoto, e un file senza pesi lascia i valori
+     * predefiniti.
+     *
+     * @param dir directory temporanea
+     * @throws IOException se il file dei pesi non si può scrivere
+     */
+    @BeforeAll
+    static void defaultWeights(@TempDir final Path dir) throws IOException {
+        Path weights = Files.createFile(dir.resolve(EvalWeights.DEFAULT_FILE));
+        System.setProperty(EvalWeights.WEIGHTS_PROPERTY, weights.toString());
+        AnalysisCache.setShared(null);
+    }
+
+    /** Toglie la proprietà dei pesi per gli altri test della JVM. */
+    @AfterAll
+    static void clearWeights() {
+        System.clearProperty(EvalWeights.WEIGHTS_PROPERTY);
+    }
+
+    /** La somma dei nodi del banco di prova è quella attesa. */
+    @Test
+    void signatureIsUnchanged() {
+        assertEquals(EvalWeights.defaults().fingerprint(),
+                EvalWeights.current().fingerprint(),
+                "pesi di valutazione diversi dai predefiniti");
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        assertEquals(Bench.EXPECTED_SIGNATURE, Bench.run(quiet));
+    }
+}